@@ -1,7 +1,7 @@
 import { useEffect, useState } from "react";
 import { useDispatch, useSelector } from "react-redux";
 
-import { clearValues, fetchEntities, connect, fetchEntityTypes, setActiveEnType } from "../../store/eav";
+import { applyChange, changesUrl, clearValues, fetchEntities, connect, fetchEntityTypes, setActiveEnType } from "../../store/eav";
 
 const EntityTypeTabs = () => {
   const dispatch = useDispatch();
@@ -23,6 +23,17 @@ const EntityTypeTabs = () => {
     // eslint-disable-next-line
   }, [connected])
 
+  // live deltas instead of refetching after every edit
+  useEffect(() => {
+    if (!connected) return;
+    const source = new EventSource(changesUrl());
+    source.onmessage = (e) => dispatch(applyChange(JSON.parse(e.data)));
+    // missed too much while disconnected, start over
+    source.addEventListener("reset", () => dispatch(fetchEntityTypes()));
+    return () => source.close();
+    // eslint-disable-next-line
+  }, [connected])
+
   if (!connected) return <div className="tab-container">DB not connected</div>
   return (
     <div className="tab-container">
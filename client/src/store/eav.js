@@ -1,10 +1,23 @@
 import { createAsyncThunk, createSlice } from '@reduxjs/toolkit';
 
+const API = "http://localhost:4000";
+
+// token returned by /connect, every other request has to send it as X-Eav-Db
+let dbToken = null;
+
+const api = (path, init = {}) => fetch(API + path, {
+  ...init,
+  headers: { ...init.headers, 'X-Eav-Db': dbToken },
+});
+
+// EventSource cannot send headers, the token goes in the query string instead
+export const changesUrl = () => API + "/changes?db=" + encodeURIComponent(dbToken);
+
 export const connect = createAsyncThunk(
   'eav/connect',
   async (_, { rejectWithValue }) => {
     try {
-      const res = await fetch("http://localhost:4000/connect", {
+      const res = await fetch(API + "/connect", {
         method: "POST",
         headers: {
           'Content-Type': 'application/json',
@@ -15,8 +28,10 @@ export const connect = createAsyncThunk(
           user: "root",
           password: "password",
         })
-      }).then(x => x.text());
-      if (res !== "OK") rejectWithValue(false);
+      });
+      const token = res.headers.get("X-Eav-Db");
+      if (await res.text() !== "OK" || !token) return rejectWithValue(false);
+      dbToken = token;
       return true;
     } catch (e) {
       console.error("Connection failed -", e);
@@ -29,7 +44,7 @@ export const fetchEntityTypes = createAsyncThunk(
   'eav/fetchEntityTypes',
   async (_, { rejectWithValue }) => {
     try {
-      const res = await fetch("http://localhost:4000/entity-types", {
+      const res = await api("/entity-types", {
         method: "GET",
       }).then(x => x.json());
       return res;
@@ -44,7 +59,7 @@ export const fetchEntities = createAsyncThunk(
   'eav/fetchEntities',
   async (typeId, { rejectWithValue }) => {
     try {
-      const res = await fetch("http://localhost:4000/entities/" + typeId, {
+      const res = await api("/entities/" + typeId, {
         method: "GET",
       }).then(x => x.json());
       return res;
@@ -59,7 +74,7 @@ export const fetchValues = createAsyncThunk(
   'eav/fetchValues',
   async (entityId, { rejectWithValue }) => {
     try {
-      const res = await fetch("http://localhost:4000/view/entity/" + entityId, {
+      const res = await api("/view/entity/" + entityId, {
         method: "GET",
       }).then(x => x.json());
       return res;
@@ -76,7 +91,7 @@ export const addAttribute = createAsyncThunk(
     try {
       const { attr, valueType, entityType } = input;
       if (!attr || !valueType, !entityType) throw new Error("Missing required inputs");
-      const res = await fetch("http://localhost:4000/attribute", {
+      const res = await api("/attribute", {
         method: "POST",
         headers: {
           'Content-Type': 'application/json',
@@ -97,7 +112,7 @@ export const addEntity = createAsyncThunk(
     try {
       const { entity, entityType } = input;
       if (!entity || !entityType) throw new Error("Missing required inputs");
-      const res = await fetch("http://localhost:4000/entity", {
+      const res = await api("/entity", {
         method: "POST",
         headers: {
           'Content-Type': 'application/json',
@@ -118,7 +133,7 @@ export const addValue = createAsyncThunk(
     try {
       const { entityId, attrId } = input;
       if (!entityId || !attrId) throw new Error("Missing required inputs");
-      const res = await fetch("http://localhost:4000/value", {
+      const res = await api("/value", {
         method: "POST",
         headers: {
           'Content-Type': 'application/json',
@@ -140,7 +155,7 @@ export const updateValue = createAsyncThunk(
       const { valueId, valueStr, valueInt, valueFloat, valueTime, valueBool } = input;
       if (!valueId) throw new Error("Missing required inputs");
       const body = { id: valueId, valueStr, valueInt, valueFloat, valueTime, valueBool };
-      const res = await fetch("http://localhost:4000/value", {
+      const res = await api("/value", {
         method: "PUT",
         headers: {
           'Content-Type': 'application/json',
@@ -190,6 +205,63 @@ export const eavSlice = createSlice({
     setActiveEntity: (state, action) => {
       const [active] = state.entities.filter(x => x.id === action.payload);
       if (active) state.activeEntity = active;
+    },
+    // delta pushed by GET /changes, own mutations arrive here too so every case is idempotent
+    applyChange: (state, action) => {
+      const { action: kind, target, ids, data } = action.payload;
+      if (target === "ENTITY_TYPE") {
+        if (kind === "DELETED") state.entityTypes = state.entityTypes.filter(x => !ids.includes(x.id));
+        else if (kind === "CREATED" && !state.entityTypes.some(x => x.id === data.id)) state.entityTypes.push(data);
+      } else if (target === "ENTITY") {
+        if (kind === "DELETED") {
+          state.entities = state.entities.filter(x => !ids.includes(x.id));
+          if (state.activeEntity && ids.includes(state.activeEntity.id)) {
+            state.activeEntity = null;
+            state.values = [];
+          }
+        } else if (kind === "CREATED") {
+          const activeType = state.activeEnType && state.activeEnType.id === data.entityTypeId;
+          if (activeType && !state.entities.some(x => x.id === data.id)) state.entities.push(data);
+        } else if (kind === "UPDATED") {
+          state.entities.forEach(x => { if (x.id === data.id) x.entity = data.entity });
+        }
+      } else if (target === "VALUE") {
+        if (kind === "DELETED") {
+          state.values.forEach(v => {
+            if (!ids.includes(v.valueId)) return;
+            v.valueId = null;
+            v.valueStr = null;
+            v.valueInt = null;
+            v.valueFloat = null;
+            v.valueTime = null;
+            v.valueBool = null;
+          });
+          return;
+        }
+        const rows = Array.isArray(data) ? data : [data];
+        rows.forEach(row => {
+          const patch = (v) => {
+            v.valueId = row.id;
+            v.valueStr = row.valueStr;
+            v.valueInt = row.valueInt;
+            v.valueFloat = row.valueFloat;
+            v.valueTime = row.valueTime;
+            v.valueBool = row.valueBool;
+          }
+          const existing = state.values.find(v => v.valueId === row.id);
+          if (existing) return patch(existing);
+          if (!state.activeEntity || state.activeEntity.id !== row.entityId) return;
+          // empty attribute row first, otherwise another row of a multi-value attribute
+          const empty = state.values.find(v => v.attrId === row.attrId && !v.valueId);
+          if (empty) return patch(empty);
+          const sibling = state.values.find(v => v.attrId === row.attrId);
+          if (sibling) {
+            const view = { ...sibling };
+            patch(view);
+            state.values.push(view);
+          }
+        });
+      }
     }
   },
   extraReducers: (builder) => {
@@ -327,6 +399,7 @@ export const {
   closeForm,
   setActiveEnType,
   setActiveEntity,
+  applyChange,
 } = eavSlice.actions;
 
 export default eavSlice.reducer;
\ No newline at end of file
@@ -16,6 +16,7 @@
 -- 
 -- 3.  create value for entity/attribute
 --       call create_eav_value(entity_id, attr_id, ...value);
+--     (create_* and update_eav_value procedures return the affected row)
 -- 
 -- 4.  view all existing entities, all possible attributes per entity, and values if exist
 --       select * from all_possible_eav_data;
@@ -32,6 +33,8 @@ use localdb;
 -- -------------------------- --
 
 -- delete old tables
+drop table if exists eav_migrations;
+drop table if exists eav_wide_tables;
 drop table if exists eav_values;
 drop table if exists eav_entities;
 drop table if exists eav_attrs;
@@ -51,6 +54,7 @@ create table eav_entities (
 	entity varchar(255) not null,
 	entity_type_id int unsigned not null, -- links entity to available attributes
 	primary key (id),
+	index idx_entities_name_type (entity, entity_type_id),
 	foreign key (entity_type_id) references eav_entity_types(id)
 );
 
@@ -76,6 +80,11 @@ create table eav_values (
 	value_time datetime,
 	value_bool bool,
 	primary key (id),
+	index idx_values_entity_attr (entity_id, attr_id), -- duplicate checks + view joins
+	index idx_values_attr_str (attr_id, value_str(32)), -- value lookups per attribute
+	index idx_values_attr_int (attr_id, value_int),
+	index idx_values_attr_float (attr_id, value_float),
+	index idx_values_attr_time (attr_id, value_time),
 	foreign key (entity_id) references eav_entities(id),
 	foreign key (attr_id) references eav_attrs(id)
 );
@@ -83,11 +92,13 @@ create table eav_values (
 -- -------------------------- --
 -- ------- PROCEDURES ------- --
 -- -------------------------- --
+-- DbMigrator reapplies this section (up to VIEWS) to databases created from an older version of this script
 
 -- delete old procedures
 drop procedure if exists create_eav_entity;
 drop procedure if exists create_eav_attr;
 drop procedure if exists create_eav_value;
+drop procedure if exists update_eav_value;
 drop procedure if exists delete_eav_entity;
 
 
@@ -112,6 +123,8 @@ begin
 	end if;
 	-- create entity
 	insert into eav_entities (entity, entity_type_id) values(entity_name, et_id);
+	-- return created row to avoid a second round trip
+	select * from eav_entities where id = last_insert_id();
 end //
 DELIMITER ;
 
@@ -142,6 +155,8 @@ begin
 		signal sqlstate '45000'
 		set message_text = 'ERR: Invalid value type';
 	end if;
+	-- return created row to avoid a second round trip
+	select * from eav_attrs where id = last_insert_id();
 end //
 DELIMITER ;
 
@@ -210,6 +225,23 @@ begin
 		end if;
 		insert into eav_values (entity_id, attr_id, value_bool) values (entity_id, attr_id, v5);
 	end if;
+	-- return created row to avoid a second round trip
+	select * from eav_values where id = last_insert_id();
+end //
+DELIMITER ;
+
+
+-- helper for updating values, returns the updated row
+DELIMITER //
+create procedure update_eav_value(value_id int unsigned, v1 varchar(255), v2 int, v3 float, v4 datetime, v5 bool)
+begin
+	update eav_values set value_str = v1, value_int = v2, value_float = v3, value_time = v4, value_bool = v5
+	where id = value_id;
+	if row_count() = 0 and not exists (select * from eav_values where id = value_id) then
+		signal sqlstate '45000'
+		set message_text = 'ERR: Value not found';
+	end if;
+	select * from eav_values where id = value_id;
 end //
 DELIMITER ;
 
@@ -0,0 +1,165 @@
+package org.bench;
+
+import org.database.DbSetup;
+import org.database.EavAttribute;
+import org.database.EavEntity;
+import org.database.EavInterface;
+import org.database.EavValue;
+import org.database.EavView;
+import org.database.ValueType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// baseline for the EavInterface hot paths against an embedded database
+// run with: mvn -Pbench compile exec:exec  (add -Dbench.args="-prof gc" for allocation rates)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EavInterfaceBenchmark {
+    private static final String ENTITY_TYPE = "bench";
+
+    // number of entities loaded before measuring, each with one value per attribute
+    @Param({"100", "1000", "10000"})
+    public int entities;
+
+    private EavInterface eav;
+    private List<EavEntity> loaded;
+    private EavAttribute multiAttr;
+    private final AtomicInteger counter = new AtomicInteger(0);
+
+    @Setup(Level.Trial)
+    public void load() throws Exception {
+        DbSetup setup = EmbeddedDb.create();
+        eav = new EavInterface(setup);
+
+        EavEntity first = eav.createEntity(ENTITY_TYPE, "entity-0");
+        int typeId = first.getEntityTypeId();
+        List<EavAttribute> attrs = new ArrayList<>();
+        for (ValueType vt : ValueType.values()) {
+            attrs.add(eav.createAttribute(typeId, "attr_" + vt.getValue(), vt, false));
+        }
+        multiAttr = eav.createAttribute(typeId, "tags", ValueType.STR, true);
+
+        loaded = new ArrayList<>();
+        loaded.add(first);
+        for (int i = 1; i < entities; i++) {
+            loaded.add(eav.createEntity(ENTITY_TYPE, "entity-" + i));
+        }
+        List<EavValue> values = new ArrayList<>();
+        for (EavEntity e : loaded) {
+            for (EavAttribute a : attrs) {
+                values.add(sampleValue(e, a));
+            }
+        }
+        eav.createValues(values);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        eav.close();
+    }
+
+    // fresh entities for every deleteEntities call, created outside the measurement
+    @State(Scope.Thread)
+    public static class DeleteState {
+        List<EavEntity> toDelete;
+
+        @Setup(Level.Invocation)
+        public void prepare(EavInterfaceBenchmark b) {
+            toDelete = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                toDelete.add(b.eav.createEntity(ENTITY_TYPE, "delete-" + b.counter.incrementAndGet()));
+            }
+        }
+    }
+
+    @Benchmark
+    public EavEntity createEntity() {
+        return eav.createEntity(ENTITY_TYPE, "new-" + counter.incrementAndGet());
+    }
+
+    @Benchmark
+    public EavValue createValue() {
+        EavEntity e = randomEntity();
+        return eav.createValue(e, multiAttr, "tag-" + counter.incrementAndGet());
+    }
+
+    @Benchmark
+    public EavValue unsafeCreateValue() {
+        EavValue v = new EavValue();
+        v.setEntityId(randomEntity().getId());
+        v.setAttrId(multiAttr.getId());
+        v.setValueStr("tag-" + counter.incrementAndGet());
+        return eav.unsafeCreateValue(v);
+    }
+
+    @Benchmark
+    public List<EavView> getEntityViewById() {
+        return eav.getEntityViewById(randomEntity().getId());
+    }
+
+    @Benchmark
+    public List<EavView> getEverything() {
+        return eav.getEverything();
+    }
+
+    @Benchmark
+    public List<EavAttribute> getAttributes() {
+        return eav.getAttributes(randomEntity());
+    }
+
+    @Benchmark
+    public boolean deleteEntities(DeleteState state) {
+        return eav.deleteEntities(state.toDelete);
+    }
+
+    private EavEntity randomEntity() {
+        return loaded.get(ThreadLocalRandom.current().nextInt(loaded.size()));
+    }
+
+    private static EavValue sampleValue(EavEntity e, EavAttribute a) {
+        EavValue v = new EavValue();
+        v.setEntityId(e.getId());
+        v.setAttrId(a.getId());
+        int n = ThreadLocalRandom.current().nextInt(1000);
+        switch (a.getValueType()) {
+            case STR:
+                v.setValueStr("value-" + n);
+                break;
+            case INT:
+                v.setValueInt(n);
+                break;
+            case FLOAT:
+                v.setValueFloat(n / 10f);
+                break;
+            case TIME:
+                v.setValueTime(Instant.ofEpochSecond(1_700_000_000L + n * 60L));
+                break;
+            case BOOL:
+                v.setValueBool(n % 2 == 0);
+                break;
+        }
+        return v;
+    }
+}
@@ -0,0 +1,68 @@
+package org.bench;
+
+import org.database.DbSetup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// in-memory h2 (MySQL mode) database built from the tables and views in setup.sql
+public class EmbeddedDb {
+    private static final AtomicInteger COUNTER = new AtomicInteger(0);
+
+    // stored procedures are mysql-only, h2 gets java ports instead
+    private static final String[] ALIASES = {
+            "CREATE ALIAS create_eav_entity FOR \"org.bench.H2Procedures.createEntity\"",
+            "CREATE ALIAS create_eav_attr FOR \"org.bench.H2Procedures.createAttr\"",
+            "CREATE ALIAS create_eav_value FOR \"org.bench.H2Procedures.createValue\"",
+            "CREATE ALIAS update_eav_value FOR \"org.bench.H2Procedures.updateValue\"",
+    };
+
+    public static DbSetup create() throws IOException, SQLException {
+        String url = "jdbc:h2:mem:eav_bench_" + COUNTER.incrementAndGet()
+                + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+        String script = new String(Files.readAllBytes(Paths.get(System.getProperty("bench.setupSql", "setup.sql"))),
+                StandardCharsets.UTF_8);
+
+        try (Connection conn = DriverManager.getConnection(url, "sa", "sa"); Statement st = conn.createStatement()) {
+            for (String sql : schemaStatements(script)) {
+                if (!sql.trim().isEmpty()) st.execute(sql);
+            }
+            for (String sql : ALIASES) {
+                st.execute(sql);
+            }
+        }
+
+        DbSetup setup = new DbSetup();
+        setup.jdbcUrl = url;
+        setup.user = "sa";
+        setup.password = "sa";
+        // information_schema checks in DbMigrator are mysql specific
+        setup.runMigrations = false;
+        return setup;
+    }
+
+    // tables + views from setup.sql, skipping the procedures section
+    private static String[] schemaStatements(String script) {
+        int tables = script.indexOf("-- ------- EAV TABLES");
+        int procedures = script.indexOf("-- ------- PROCEDURES");
+        int views = script.indexOf("-- ---------- VIEWS");
+        String sql = script.substring(tables, procedures) + script.substring(views);
+        StringBuilder out = new StringBuilder();
+        for (String line : sql.split("\n")) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("--") || trimmed.startsWith("drop ")) continue;
+            // h2 has no index prefix lengths
+            if (trimmed.startsWith("index ")) line = line.replaceAll("\\((\\d+)\\)", "");
+            int comment = line.indexOf("--");
+            out.append(comment >= 0 ? line.substring(0, comment) : line).append('\n');
+        }
+        return out.toString().split(";");
+    }
+}
@@ -0,0 +1,126 @@
+package org.bench;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+// java ports of the setup.sql stored procedures, registered in h2 with CREATE ALIAS
+@SuppressWarnings("unused")
+public class H2Procedures {
+    // h2 calls result set functions once with this url just to read the column list
+    private static final String COLUMN_LIST_URL = "jdbc:columnlist:connection";
+
+    public static ResultSet createEntity(Connection conn, String entityType, String entity) throws SQLException {
+        if (isColumnList(conn)) return empty(conn, "eav_entities");
+        Integer etId = scalar(conn, "SELECT id FROM eav_entity_types WHERE entity_type = ?", entityType);
+        if (etId == null) {
+            update(conn, "INSERT INTO eav_entity_types (entity_type) VALUES (?)", entityType);
+            etId = scalar(conn, "SELECT id FROM eav_entity_types WHERE entity_type = ?", entityType);
+        } else if (scalar(conn, "SELECT id FROM eav_entities WHERE entity = ? AND entity_type_id = ?", entity, etId) != null) {
+            throw new SQLException("ERR: Entity already exists", "45000");
+        }
+        int id = insert(conn, "INSERT INTO eav_entities (entity, entity_type_id) VALUES (?, ?)", entity, etId);
+        return row(conn, "eav_entities", id);
+    }
+
+    public static ResultSet createAttr(Connection conn, String attr, String attrType, Integer entityTypeId,
+                                       Boolean allowMultiple) throws SQLException {
+        if (isColumnList(conn)) return empty(conn, "eav_attrs");
+        if (entityTypeId == null) throw new SQLException("ERR: No entity type selected", "45000");
+        if (scalar(conn, "SELECT id FROM eav_attrs WHERE attr = ? AND entity_type_id = ?", attr, entityTypeId) != null) {
+            throw new SQLException("ERR: Attribute already exists", "45000");
+        }
+        int id = insert(conn, "INSERT INTO eav_attrs (attr, value_type, entity_type_id, allow_multiple) VALUES (?, ?, ?, ?)",
+                attr, attrType, entityTypeId, allowMultiple);
+        return row(conn, "eav_attrs", id);
+    }
+
+    public static ResultSet createValue(Connection conn, Integer entityId, Integer attrId, String v1, Integer v2,
+                                        Float v3, Timestamp v4, Boolean v5) throws SQLException {
+        if (isColumnList(conn)) return empty(conn, "eav_values");
+        Integer etId = scalar(conn, "SELECT entity_type_id FROM eav_entities WHERE id = ?", entityId);
+        if (etId == null) throw new SQLException("ERR: Entity not found", "45000");
+        String valueType;
+        boolean allowMultiple;
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT value_type, allow_multiple FROM eav_attrs WHERE id = ? AND entity_type_id = ?")) {
+            ps.setInt(1, attrId);
+            ps.setInt(2, etId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) throw new SQLException("ERR: Attribute not found", "45000");
+                valueType = rs.getString(1);
+                allowMultiple = rs.getBoolean(2);
+            }
+        }
+        if (!allowMultiple && scalar(conn, "SELECT id FROM eav_values WHERE entity_id = ? AND attr_id = ?",
+                entityId, attrId) != null) {
+            throw new SQLException("ERR: Attribute does not allow multiple entries", "45000");
+        }
+        String column = "value_" + valueType;
+        Object value = "str".equals(valueType) ? v1 : "int".equals(valueType) ? v2
+                : "float".equals(valueType) ? v3 : "time".equals(valueType) ? v4 : v5;
+        if (value == null) throw new SQLException("ERR: " + valueType + " value not provided", "45000");
+        int id = insert(conn, "INSERT INTO eav_values (entity_id, attr_id, " + column + ") VALUES (?, ?, ?)",
+                entityId, attrId, value);
+        return row(conn, "eav_values", id);
+    }
+
+    public static ResultSet updateValue(Connection conn, Integer valueId, String v1, Integer v2,
+                                        Float v3, Timestamp v4, Boolean v5) throws SQLException {
+        if (isColumnList(conn)) return empty(conn, "eav_values");
+        try (PreparedStatement ps = prepare(conn, "UPDATE eav_values SET value_str = ?, value_int = ?, "
+                + "value_float = ?, value_time = ?, value_bool = ? WHERE id = ?", v1, v2, v3, v4, v5, valueId)) {
+            if (ps.executeUpdate() == 0) throw new SQLException("ERR: Value not found", "45000");
+        }
+        return row(conn, "eav_values", valueId);
+    }
+
+    private static Integer scalar(Connection conn, String sql, Object... params) throws SQLException {
+        try (PreparedStatement ps = prepare(conn, sql, params); ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : null;
+        }
+    }
+
+    private static int insert(Connection conn, String sql, Object... params) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            for (int i = 0; i < params.length; i++) {
+                ps.setObject(i + 1, params[i]);
+            }
+            ps.executeUpdate();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                keys.next();
+                return keys.getInt(1);
+            }
+        }
+    }
+
+    // left open, h2 reads and closes the result set returned by the alias
+    private static ResultSet row(Connection conn, String table, int id) throws SQLException {
+        return prepare(conn, "SELECT * FROM " + table + " WHERE id = ?", id).executeQuery();
+    }
+
+    private static ResultSet empty(Connection conn, String table) throws SQLException {
+        return conn.createStatement().executeQuery("SELECT * FROM " + table + " WHERE 1 = 0");
+    }
+
+    private static boolean isColumnList(Connection conn) throws SQLException {
+        return COLUMN_LIST_URL.equals(conn.getMetaData().getURL());
+    }
+
+    private static void update(Connection conn, String sql, Object... params) throws SQLException {
+        try (PreparedStatement ps = prepare(conn, sql, params)) {
+            ps.executeUpdate();
+        }
+    }
+
+    private static PreparedStatement prepare(Connection conn, String sql, Object... params) throws SQLException {
+        PreparedStatement ps = conn.prepareStatement(sql);
+        for (int i = 0; i < params.length; i++) {
+            ps.setObject(i + 1, params[i]);
+        }
+        return ps;
+    }
+}
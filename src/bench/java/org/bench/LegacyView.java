@@ -0,0 +1,51 @@
+package org.bench;
+
+import lombok.Data;
+
+import javax.persistence.Column;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+// EavView as it was mapped before EavRowMappers: reflective sql2o mapping into String columns,
+// with value_time parsed (and a formatter built) on every getValueTime call
+@Data
+public class LegacyView {
+    @Column(name = "entity_type_id")
+    private Integer entityTypeId = null;
+    @Column(name = "entity_type")
+    private String entityType = null;
+    @Column(name = "entity_id")
+    private Integer entityId = null;
+    @Column(name = "entity")
+    private String entity = null;
+    @Column(name = "attr_id")
+    private Integer attrId = null;
+    @Column(name = "attr")
+    private String attr = null;
+    @Column(name = "value_type")
+    private String valueType = null;
+    @Column(name = "allow_multiple")
+    private Boolean allowMultiple = null;
+    @Column(name = "value_id")
+    private Integer valueId = null;
+    @Column(name = "created_at")
+    private String createdAt = null;
+    @Column(name = "value_str")
+    private String valueStr = null;
+    @Column(name = "value_int")
+    private Integer valueInt = null;
+    @Column(name = "value_float")
+    private Float valueFloat = null;
+    @Column(name = "value_time")
+    private String valueTime = null;
+    @Column(name = "value_bool")
+    private Boolean valueBool = null;
+
+    public Instant parsedValueTime() {
+        if (valueTime == null || valueTime.isEmpty()) return null;
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm[:ss]");
+        return LocalDateTime.parse(valueTime, formatter).toInstant(ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,100 @@
+package org.bench;
+
+import org.database.DbSetup;
+import org.database.EavAttribute;
+import org.database.EavEntity;
+import org.database.EavInterface;
+import org.database.EavValue;
+import org.database.EavView;
+import org.database.ValueType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// reflective sql2o mapping (LegacyView) against EavRowMappers on the full view, every row's time read once
+// compare gc.alloc.rate.norm: mvn -Pbench compile exec:exec -Dbench.args="RowMappingBenchmark -prof gc"
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RowMappingBenchmark {
+    private static final String QUERY = "SELECT * FROM all_possible_eav_data";
+
+    @Param({"1000", "10000"})
+    public int entities;
+
+    private EavInterface eav;
+    private Sql2o db;
+
+    @Setup(Level.Trial)
+    public void load() throws Exception {
+        DbSetup setup = EmbeddedDb.create();
+        eav = new EavInterface(setup);
+        db = new Sql2o(setup.jdbcUrl, setup.user, setup.password);
+
+        EavEntity first = eav.createEntity("mapping", "entity-0");
+        List<EavAttribute> attrs = new ArrayList<>();
+        for (ValueType vt : ValueType.values()) {
+            attrs.add(eav.createAttribute(first.getEntityTypeId(), "attr_" + vt.getValue(), vt, false));
+        }
+        List<EavValue> values = new ArrayList<>();
+        for (int i = 0; i < entities; i++) {
+            EavEntity e = i == 0 ? first : eav.createEntity("mapping", "entity-" + i);
+            for (EavAttribute a : attrs) {
+                EavValue v = new EavValue();
+                v.setEntityId(e.getId());
+                v.setAttrId(a.getId());
+                switch (a.getValueType()) {
+                    case STR: v.setValueStr("value-" + i); break;
+                    case INT: v.setValueInt(i); break;
+                    case FLOAT: v.setValueFloat(i / 10f); break;
+                    case TIME: v.setValueTime(Instant.ofEpochSecond(1_700_000_000L + i * 61L)); break;
+                    default: v.setValueBool(i % 2 == 0);
+                }
+                values.add(v);
+            }
+        }
+        eav.createValues(values);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        eav.close();
+    }
+
+    @Benchmark
+    public void reflective(Blackhole bh) {
+        try (Connection conn = db.open()) {
+            for (LegacyView v : conn.createQuery(QUERY).executeAndFetch(LegacyView.class)) {
+                bh.consume(v.parsedValueTime());
+            }
+        }
+    }
+
+    @Benchmark
+    public void precompiled(Blackhole bh) {
+        for (EavView v : eav.getEverything()) {
+            bh.consume(v.getValueTime());
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.access;
+
+import org.database.EavChange;
+import org.database.EavChangeBus;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// one /changes subscriber: the bus listener only queues, a dedicated thread writes to the client
+// a client that falls MAX_QUEUED changes behind is disconnected and resumes with Last-Event-ID
+class ChangeFeed implements Consumer<EavChange> {
+    private static final int MAX_QUEUED = 1000;
+    // comment line sent when idle, so dead connections are noticed and proxies keep the stream open
+    private static final long HEARTBEAT_MS = 15_000;
+
+    private final EavChangeBus bus;
+    private final SseEmitter emitter = new SseEmitter(0L);
+    private final Integer entityTypeId;
+    private final Integer entityId;
+    private final BlockingQueue<EavChange> queue = new LinkedBlockingQueue<>(MAX_QUEUED);
+    private volatile boolean closed = false;
+    private volatile Thread sender;
+
+    ChangeFeed(EavChangeBus bus, Integer entityTypeId, Integer entityId) {
+        this.bus = bus;
+        this.entityTypeId = entityTypeId;
+        this.entityId = entityId;
+        emitter.onCompletion(this::close);
+        emitter.onTimeout(this::close);
+        emitter.onError(e -> close());
+    }
+
+    EavChangeBus getBus() {
+        return bus;
+    }
+
+    SseEmitter getEmitter() {
+        return emitter;
+    }
+
+    // subscribes and starts sending; lastEventId null for live changes only
+    void start(String lastEventId, Runnable onExit) {
+        List<EavChange> missed = bus.subscribe(this, lastEventId);
+        // one daemon thread per subscriber, it spends its life blocked on the queue
+        Thread t = new Thread(() -> {
+            try {
+                if (missed == null) {
+                    // resume point fell out of history or came from another bus, the client has to reload its views
+                    emitter.send(SseEmitter.event().name("reset").id(bus.eventId(bus.getSeq())).data("reset"));
+                } else {
+                    for (EavChange c : missed) {
+                        if (c.matches(entityTypeId, entityId)) send(c);
+                    }
+                }
+                while (!closed) {
+                    EavChange c = queue.poll(HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+                    if (c != null) send(c);
+                    else if (!closed) emitter.send(SseEmitter.event().comment("ping"));
+                }
+                emitter.complete();
+            } catch (IOException | IllegalStateException | InterruptedException e) {
+                // client went away, fell behind or the interface was swapped; completing twice is a no-op
+                emitter.complete();
+            } finally {
+                close();
+                onExit.run();
+            }
+        }, "eav-changes");
+        t.setDaemon(true);
+        sender = t;
+        t.start();
+    }
+
+    @Override
+    public void accept(EavChange change) {
+        if (closed || !change.matches(entityTypeId, entityId)) return;
+        if (!queue.offer(change)) close();
+    }
+
+    void close() {
+        if (closed) return;
+        closed = true;
+        bus.unsubscribe(this);
+        Thread t = sender;
+        if (t != null && t != Thread.currentThread()) t.interrupt();
+    }
+
+    private void send(EavChange c) throws IOException {
+        emitter.send(SseEmitter.event()
+                .id(bus.eventId(c.getSeq()))
+                .data(c, MediaType.APPLICATION_JSON));
+    }
+}
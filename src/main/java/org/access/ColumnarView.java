@@ -0,0 +1,113 @@
+package org.access;
+
+import lombok.Data;
+import org.database.EavView;
+import org.database.ValueType;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// compact shape for EavView result sets, sent for Accept: application/vnd.eav.columnar+json
+// names are sent once in dictionaries and rows point into them by index (-1 = null);
+// values sit in one array per value type, holding only the rows that have a value (valueId != null),
+// in row order, so a reader walks the row's attribute value type to find the next entry
+@Data
+public class ColumnarView {
+    public static final String MEDIA_TYPE = "application/vnd.eav.columnar+json";
+
+    private int rows;
+    // cursor for the next page on paged endpoints
+    private String next = null;
+
+    // dictionaries
+    private List<Integer> entityTypeIds = new ArrayList<>();
+    private List<String> entityTypeNames = new ArrayList<>();
+    private List<Integer> entityIds = new ArrayList<>();
+    private List<String> entityNames = new ArrayList<>();
+    private List<Integer> attrIds = new ArrayList<>();
+    private List<String> attrNames = new ArrayList<>();
+    private List<String> attrValueTypes = new ArrayList<>();
+    private List<Boolean> attrAllowMultiple = new ArrayList<>();
+
+    // per row
+    private int[] entityType;
+    private int[] entity;
+    private int[] attr;
+    private List<Integer> valueId = new ArrayList<>();
+    private List<String> createdAt = new ArrayList<>();
+
+    // per value, by type
+    private List<String> str = new ArrayList<>();
+    private List<Integer> ints = new ArrayList<>();
+    private List<Float> floats = new ArrayList<>();
+    private List<Instant> times = new ArrayList<>();
+    private List<Boolean> bools = new ArrayList<>();
+
+    public static ColumnarView of(List<EavView> views) {
+        ColumnarView out = new ColumnarView();
+        out.rows = views.size();
+        out.entityType = new int[views.size()];
+        out.entity = new int[views.size()];
+        out.attr = new int[views.size()];
+        Map<Integer, Integer> types = new HashMap<>();
+        Map<Integer, Integer> entities = new HashMap<>();
+        Map<Integer, Integer> attrs = new HashMap<>();
+
+        for (int i = 0; i < views.size(); i++) {
+            EavView v = views.get(i);
+            out.entityType[i] = index(types, v.getEntityTypeId(), out.entityTypeIds, () -> out.entityTypeNames.add(v.getEntityType()));
+            out.entity[i] = index(entities, v.getEntityId(), out.entityIds, () -> out.entityNames.add(v.getEntity()));
+            out.attr[i] = index(attrs, v.getAttrId(), out.attrIds, () -> {
+                out.attrNames.add(v.getAttr());
+                out.attrValueTypes.add(v.getValueType() == null ? null : v.getValueType().getValue());
+                out.attrAllowMultiple.add(v.getAllowMultiple());
+            });
+            out.valueId.add(v.getValueId());
+            out.createdAt.add(v.getCreatedAt());
+            if (v.getValueId() == null || v.getValueType() == null) continue;
+            ValueType vt = v.getValueType();
+            switch (vt) {
+                case STR:
+                    out.str.add(v.getValueStr());
+                    break;
+                case INT:
+                    out.ints.add(v.getValueInt());
+                    break;
+                case FLOAT:
+                    out.floats.add(v.getValueFloat());
+                    break;
+                case TIME:
+                    out.times.add(v.getValueTime());
+                    break;
+                default:
+                    out.bools.add(v.getValueBool());
+            }
+        }
+        return out;
+    }
+
+    public static ColumnarView of(List<EavView> views, String next) {
+        ColumnarView out = of(views);
+        out.next = next;
+        return out;
+    }
+
+    public static boolean accepts(String accept) {
+        return accept != null && accept.contains(MEDIA_TYPE);
+    }
+
+    // first sighting appends the id (and, via onNew, the names) to the dictionary
+    private static int index(Map<Integer, Integer> seen, Integer id, List<Integer> ids, Runnable onNew) {
+        if (id == null) return -1;
+        Integer idx = seen.get(id);
+        if (idx != null) return idx;
+        idx = ids.size();
+        seen.put(id, idx);
+        ids.add(id);
+        onNew.run();
+        return idx;
+    }
+}
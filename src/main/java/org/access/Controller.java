@@ -1,21 +1,53 @@
 package org.access;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import jakarta.servlet.http.HttpServletRequest;
 import org.database.*;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.util.AnsiColors;
 import org.util.Fn;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
-@SuppressWarnings("unused")
 @RestController
-@CrossOrigin
+@CrossOrigin(exposedHeaders=EavRegistry.HEADER)
 public class Controller {
+    private static final String SESSION_HEADER = "X-Eav-Session";
 
-    EavInterface eav;
+    private final EavRegistry registry;
+    private final ObjectWriter rowWriter;
+    private final EavMetrics httpMetrics;
+    // open /changes streams, closed when the registry closes their interface (and with it the change bus)
+    private final Set<ChangeFeed> feeds = ConcurrentHashMap.newKeySet();
+
+    public Controller(ObjectMapper mapper, EavMetrics httpMetrics, EavRegistry registry) {
+        rowWriter = mapper.writer();
+        this.httpMetrics = httpMetrics;
+        this.registry = registry;
+        registry.setOnEvict(closed -> {
+            for (ChangeFeed feed : feeds) {
+                if (feed.getBus() == closed.getChangeBus()) feed.close();
+            }
+        });
+    }
 
     @RequestMapping(method=RequestMethod.POST, path="/connect")
     public ResponseEntity<?> login(@RequestBody DbAccess auth) {
@@ -24,103 +56,253 @@ public class Controller {
         setup.dbName = auth.getDbName();
         setup.user = auth.getUser();
         setup.password = auth.getPassword();
+        if (auth.getReplicas() != null) setup.replicas = auth.getReplicas();
+        if (auth.getReplicaSelection() != null) setup.replicaSelection = auth.getReplicaSelection();
+        if (auth.getRunMigrations() != null) setup.runMigrations = auth.getRunMigrations();
+        if (auth.getReplicaUnconfiguredIsCurrent() != null) setup.replicaUnconfiguredIsCurrent = auth.getReplicaUnconfiguredIsCurrent();
+        if (auth.getValueLayout() != null) setup.valueLayout = auth.getValueLayout();
         if (!setup.isValid()) {
             return ResponseEntity.status(400).body("Missing required info");
         }
-        // use existing connection if available
-        if (eav != null && eav.server == setup.server && eav.dbName == setup.dbName) {
-            Fn.printColor(AnsiColors.GREEN, "Already connected to DB");
-            return ResponseEntity.status(200).body("OK");
-        }
-        // connect to database
+        // reuses the pooled interface for the same host, db and user, the token is sent back on every request
         try {
-            eav = new EavInterface(setup);
-            Fn.printColor(AnsiColors.GREEN, "Connected to DB");
-            return ResponseEntity.status(200).body("OK");
+            String token = registry.connect(setup);
+            return ResponseEntity.status(200).header(EavRegistry.HEADER, token).body("OK");
+        } catch(IllegalArgumentException e) {
+            return ResponseEntity.status(409).body(e.getMessage());
         } catch(Exception e) {
             Fn.printColor(AnsiColors.RED, "Err: Could not connect to DB -- " + e.getMessage());
             return ResponseEntity.status(500).body("Could not connect to DB");
         }
     }
 
+    // pool stats of the caller's connection only, other connections are not listed
+    @RequestMapping(method=RequestMethod.GET, path="/connections")
+    public Map<String, Object> getConnection() {
+        Map<String, Object> stats = registry.stats(token());
+        if (stats == null) throw new EavException();
+        return stats;
+    }
+
+    // revokes the caller's token, the pool closes with its last token
+    @RequestMapping(method=RequestMethod.DELETE, path="/connections")
+    public boolean disconnect() {
+        return registry.disconnect(token());
+    }
+
+    // interface picked by the token in the X-Eav-Db header
+    private EavInterface eav() {
+        EavInterface e = selected();
+        if (e == null) throw new EavException();
+        return e;
+    }
+
+    // also names the read-your-writes session (X-Eav-Session, the client address without it) for replica routing
+    private EavInterface selected() {
+        RequestAttributes attrs = RequestContextHolder.getRequestAttributes();
+        if (!(attrs instanceof ServletRequestAttributes)) return null;
+        HttpServletRequest req = ((ServletRequestAttributes) attrs).getRequest();
+        EavInterface e = registry.get(token(req));
+        if (e != null) {
+            String session = req.getHeader(SESSION_HEADER);
+            e.getReplicas().bind(session != null && !session.isEmpty() ? session : req.getRemoteAddr());
+            // unbound by ReplicaSessionInterceptor once the request is done with this thread
+            req.setAttribute(ReplicaSessionInterceptor.BOUND, e.getReplicas());
+        }
+        return e;
+    }
+
+    private String token() {
+        RequestAttributes attrs = RequestContextHolder.getRequestAttributes();
+        if (!(attrs instanceof ServletRequestAttributes)) return null;
+        return token(((ServletRequestAttributes) attrs).getRequest());
+    }
+
+    // EventSource cannot set headers, so /changes clients pass the token as ?db= instead
+    private static String token(HttpServletRequest req) {
+        String token = req.getHeader(EavRegistry.HEADER);
+        return token != null && !token.isEmpty() ? token : req.getParameter("db");
+    }
+
     @RequestMapping(method=RequestMethod.GET, path="/view/all")
-    public List<EavView> getAll() {
-        if (eav == null) throw new EavException();
-        return eav.getEverything();
+    public ResponseEntity<?> getAll(@RequestHeader(name="Accept", required=false) String accept) {
+        EavInterface eav = eav();
+        return view(accept, eav.getEverything());
+    }
+
+    @RequestMapping(method=RequestMethod.GET, path="/view/all/page")
+    public ResponseEntity<?> getAllPage(@RequestParam(name="after", required=false) String after,
+                                        @RequestParam(name="limit", defaultValue="500") int limit,
+                                        @RequestHeader(name="Accept", required=false) String accept) {
+        EavInterface eav = eav();
+        return view(accept, eav.getEverything(after, limit));
+    }
+
+    @RequestMapping(method=RequestMethod.GET, path="/view/values/page")
+    public ResponseEntity<?> getValuesPage(@RequestParam(name="after", required=false) String after,
+                                           @RequestParam(name="limit", defaultValue="500") int limit,
+                                           @RequestHeader(name="Accept", required=false) String accept) {
+        EavInterface eav = eav();
+        return view(accept, eav.getEveryValue(after, limit));
+    }
+
+    @RequestMapping(method=RequestMethod.GET, path="/view/all/stream")
+    public ResponseEntity<StreamingResponseBody> streamAll() {
+        EavInterface e = eav();
+        return ndjson(e, out -> e.streamEverything(row -> writeRow(out, row)));
+    }
+
+    @RequestMapping(method=RequestMethod.GET, path="/view/values/stream")
+    public ResponseEntity<StreamingResponseBody> streamValues() {
+        EavInterface e = eav();
+        return ndjson(e, out -> e.streamEveryValue(row -> writeRow(out, row)));
     }
 
     @RequestMapping(method=RequestMethod.GET, path="/view/entities")
-    public List<EavView> getViewEntities() {
-        if (eav == null) throw new EavException();
-        List<EavEntityType> entityTypes = eav.getEntityTypes();
-        List<EavEntity> entities = eav.getEntities();
-
-        // build views
-        List<EavView> views = new ArrayList<>();
-        for (EavEntity entity : entities) {
-            List<EavEntityType> etList = entityTypes.stream()
-                    .filter(x -> x.getId() == entity.getEntityTypeId())
-                    .collect(Collectors.toList());
-            EavView v = new EavView();
-            v.setEntityTypeId(Integer.valueOf(entity.getEntityTypeId()));
-            v.setEntityId(Integer.valueOf(entity.getId()));
-            v.setEntity(entity.getEntity());
-            v.setCreatedAt(entity.getCreatedAt());
-            if (!etList.isEmpty()) v.setEntityType(etList.get(0).getEntityType());
-            views.add(v);
-        }
+    public ResponseEntity<?> getViewEntities(@RequestParam(name="type", required=false) Integer typeId,
+                                             @RequestHeader(name="Accept", required=false) String accept) {
+        EavInterface eav = eav();
+        return view(accept, eav.getEntitySummaries(typeId));
+    }
 
-        return views;
+    @RequestMapping(method=RequestMethod.GET, path="/view/entities/page")
+    public ResponseEntity<?> getViewEntitiesPage(@RequestParam(name="type", required=false) Integer typeId,
+                                                 @RequestParam(name="after", required=false) String after,
+                                                 @RequestParam(name="limit", defaultValue="500") int limit,
+                                                 @RequestHeader(name="Accept", required=false) String accept) {
+        EavInterface eav = eav();
+        return view(accept, eav.getEntitySummaries(typeId, after, limit));
     }
 
     @RequestMapping(method=RequestMethod.GET, path="/view/entity/{id}")
-    public List<EavView> getViewEntity(@PathVariable("id") Integer entityId) {
-        if (eav == null) throw new EavException();
-        List<EavView> views = eav.getEntityViewById(entityId);
-        return views;
+    public ResponseEntity<?> getViewEntity(@PathVariable("id") Integer entityId,
+                                           @RequestHeader(name="If-None-Match", required=false) String ifNoneMatch,
+                                           @RequestHeader(name="Accept", required=false) String accept) {
+        EavInterface e = eav();
+        if (!ColumnarView.accepts(accept)) {
+            return conditional(e, e.getVersions().entityViewTag(entityId), ifNoneMatch, () -> e.getEntityViewById(entityId));
+        }
+        // separate tag per representation
+        String tag = e.getVersions().entityViewTag(entityId).replaceFirst("\"$", "-c\"");
+        return conditional(e, tag, ifNoneMatch, () -> ColumnarView.of(e.getEntityViewById(entityId)));
+    }
+
+    @RequestMapping(method=RequestMethod.GET, path="/wide")
+    public Set<Integer> getWideTables() {
+        EavInterface eav = eav();
+        return eav.getWideTables();
+    }
+
+    @RequestMapping(method=RequestMethod.PUT, path="/wide/{type_id}")
+    public ResponseEntity<?> enableWideTable(@PathVariable("type_id") Integer typeId) {
+        EavInterface eav = eav();
+        eav.enableWideTable(typeId);
+        return ResponseEntity.status(200).body("OK");
+    }
+
+    @RequestMapping(method=RequestMethod.DELETE, path="/wide/{type_id}")
+    public boolean disableWideTable(@PathVariable("type_id") Integer typeId) {
+        EavInterface eav = eav();
+        return eav.disableWideTable(typeId);
+    }
+
+    @RequestMapping(method=RequestMethod.GET, path="/wide/{type_id}/page")
+    public EavPage<Map<String, Object>> getWidePage(@PathVariable("type_id") Integer typeId,
+                                                    @RequestParam(name="after", required=false) String after,
+                                                    @RequestParam(name="limit", defaultValue="500") int limit) {
+        EavInterface eav = eav();
+        return eav.getWideRows(typeId, after, limit);
+    }
+
+    @RequestMapping(method=RequestMethod.GET, path="/wide/{type_id}/entity/{entity_id}")
+    public ResponseEntity<?> getWideRow(@PathVariable("type_id") Integer typeId,
+                                        @PathVariable("entity_id") Integer entityId) {
+        EavInterface eav = eav();
+        Map<String, Object> row = eav.getWideRow(typeId, entityId);
+        if (row == null) return ResponseEntity.status(404).body("Entity not found");
+        return ResponseEntity.status(200).body(row);
     }
 
     @RequestMapping(method=RequestMethod.GET, path="/entity-types")
     public List<EavEntityType> getAllEntityTypes() {
-        if (eav == null) throw new EavException();
+        EavInterface eav = eav();
         return eav.getEntityTypes();
     }
 
     @RequestMapping(method=RequestMethod.GET, path="/entities")
     public List<EavEntity> getAllEntities() {
-        if (eav == null) throw new EavException();
+        EavInterface eav = eav();
         return eav.getEntities();
     }
 
     @RequestMapping(method=RequestMethod.POST, path="/entity")
     public EavEntity createEntity(@RequestBody EavView builder) {
-        if (eav == null) throw new EavException();
+        EavInterface eav = eav();
         return eav.createEntity(builder.getEntityType(), builder.getEntity());
     }
 
     @RequestMapping(method=RequestMethod.PUT, path="/entity")
     public EavEntity updateEntity(@RequestBody EavEntity entity) {
-        if (eav == null) throw new EavException();
+        EavInterface eav = eav();
         return eav.updateEntity(entity);
     }
 
     @RequestMapping(method=RequestMethod.GET, path="/entities/{type_id}")
-    public List<EavEntity> getEntitiesForType(@PathVariable("type_id") Integer typeId) {
-        if (eav == null) throw new EavException();
-        EavEntityType et = eav.getEntityTypeById(typeId);
-        return eav.getEntities(et);
+    public ResponseEntity<?> getEntitiesForType(@PathVariable("type_id") Integer typeId,
+                                                @RequestHeader(name="If-None-Match", required=false) String ifNoneMatch) {
+        EavInterface e = eav();
+        return conditional(e, e.getVersions().entityTypeTag(typeId), ifNoneMatch, () -> {
+            EavEntityType et = e.getEntityTypeById(typeId);
+            return e.getEntities(et);
+        });
     }
 
     @RequestMapping(method=RequestMethod.GET, path="/attributes/{entity_id}")
-    public List<EavAttribute> getAttrsForEntity(@PathVariable("entity_id") Integer entityId) {
-        if (eav == null) throw new EavException();
-        EavEntity e = eav.getEntityById(entityId);
-        return eav.getAttributes(e);
+    public ResponseEntity<?> getAttrsForEntity(@PathVariable("entity_id") Integer entityId,
+                                               @RequestHeader(name="If-None-Match", required=false) String ifNoneMatch) {
+        EavInterface e = eav();
+        return conditional(e, e.getVersions().attributesTag(entityId), ifNoneMatch, () -> {
+            EavEntity entity = e.getEntityById(entityId);
+            return e.getAttributes(entity);
+        });
+    }
+
+    // columnar shape when the client asks for it, the row objects otherwise
+    private static ResponseEntity<?> view(String accept, List<EavView> rows) {
+        if (!ColumnarView.accepts(accept)) return ResponseEntity.status(200).varyBy("Accept").body(rows);
+        return ResponseEntity.status(200).varyBy("Accept")
+                .contentType(MediaType.parseMediaType(ColumnarView.MEDIA_TYPE))
+                .body(ColumnarView.of(rows));
+    }
+
+    private static ResponseEntity<?> view(String accept, EavPage<EavView> page) {
+        if (!ColumnarView.accepts(accept)) return ResponseEntity.status(200).varyBy("Accept").body(page);
+        return ResponseEntity.status(200).varyBy("Accept")
+                .contentType(MediaType.parseMediaType(ColumnarView.MEDIA_TYPE))
+                .body(ColumnarView.of(page.getRows(), page.getNext()));
+    }
+
+    // the tag is taken before the query runs, so a write racing the query only costs the client a refetch.
+    // tags come from the primary's counters, so the body is read from the primary too
+    private static ResponseEntity<?> conditional(EavInterface e, String etag, String ifNoneMatch, Supplier<Object> body) {
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                // If-None-Match uses weak comparison, e.g. when a proxy weakened the tag while compressing
+                String t = candidate.trim();
+                if (t.startsWith("W/")) t = t.substring(2);
+                if (t.equals("*") || t.equals(etag)) return ResponseEntity.status(304).eTag(etag).cacheControl(CacheControl.noCache()).build();
+            }
+        }
+        // no-cache: browsers keep the body but revalidate every time
+        Object out = e.getReplicas().onPrimary(body);
+        ResponseEntity.BodyBuilder ok = ResponseEntity.status(200).eTag(etag).cacheControl(CacheControl.noCache()).varyBy("Accept");
+        if (out instanceof ColumnarView) ok.contentType(MediaType.parseMediaType(ColumnarView.MEDIA_TYPE));
+        return ok.body(out);
     }
 
     @RequestMapping(method=RequestMethod.POST, path="/attribute")
     public EavAttribute createAttribute(@RequestBody EavView builder) {
-        if (eav == null) throw new EavException();
+        EavInterface eav = eav();
         Integer entityTypeId;
         if (builder.getEntityTypeId() != null) {
             entityTypeId = builder.getEntityTypeId();
@@ -135,19 +317,204 @@ public class Controller {
 
     @RequestMapping(method=RequestMethod.PUT, path="/attribute")
     public EavAttribute updateAttribute(@RequestBody EavAttribute attr) {
-        if (eav == null) throw new EavException();
+        EavInterface eav = eav();
         return eav.updateAttribute(attr);
     }
 
     @RequestMapping(method=RequestMethod.POST, path="/value")
     public EavValue createValue(@RequestBody EavValue v) {
-        if (eav == null) throw new EavException();
+        EavInterface eav = eav();
         return eav.unsafeCreateValue(v);
     }
 
+    @RequestMapping(method=RequestMethod.POST, path="/values/batch")
+    public EavBatchResult createValues(@RequestBody List<EavValue> values) {
+        EavInterface eav = eav();
+        return eav.createValues(values);
+    }
+
     @RequestMapping(method=RequestMethod.PUT, path="/value")
-    public EavValue updateValue(@RequestBody EavValue v) {
-        if (eav == null) throw new EavException();
-        return eav.updateValue(v);
+    public ResponseEntity<EavValue> updateValue(@RequestBody EavValue v) {
+        EavInterface eav = eav();
+        // buffered updates are accepted, not yet written
+        if (eav.getWriteBuffer() != null) return ResponseEntity.status(202).body(eav.bufferValueUpdate(v));
+        return ResponseEntity.status(200).body(eav.updateValue(v));
+    }
+
+    @RequestMapping(method=RequestMethod.POST, path="/values/flush")
+    public int flushValues() {
+        EavInterface eav = eav();
+        return eav.flushValueUpdates();
+    }
+
+    @RequestMapping(method=RequestMethod.DELETE, path="/entity-type/{id}")
+    public ResponseEntity<?> deleteEntityType(@PathVariable("id") Integer typeId,
+                                              @RequestParam(name="async", defaultValue="true") boolean async) {
+        EavInterface eav = eav();
+        EavEntityType et = eav.getEntityTypeById(typeId);
+        if (et == null) return ResponseEntity.status(404).body("Entity type not found");
+        if (async) return ResponseEntity.status(202).body(eav.deleteEntityTypeAsync(et));
+        return ResponseEntity.status(200).body(eav.deleteEntityTypeCascade(et));
+    }
+
+    @RequestMapping(method=RequestMethod.DELETE, path="/entities")
+    public ResponseEntity<?> deleteEntities(@RequestBody List<Integer> ids,
+                                            @RequestParam(name="async", defaultValue="false") boolean async) {
+        EavInterface eav = eav();
+        List<EavEntity> entities = new ArrayList<>(ids.size());
+        for (Integer id : ids) {
+            EavEntity e = new EavEntity();
+            e.setId(id);
+            entities.add(e);
+        }
+        if (async) return ResponseEntity.status(202).body(eav.deleteEntitiesAsync(entities));
+        return ResponseEntity.status(200).body(eav.deleteEntities(entities));
+    }
+
+    @RequestMapping(method=RequestMethod.GET, path="/jobs/delete")
+    public List<EavDeleteJob> getDeleteJobs() {
+        EavInterface eav = eav();
+        return eav.getDeleteJobs();
+    }
+
+    @RequestMapping(method=RequestMethod.GET, path="/jobs/delete/{id}")
+    public ResponseEntity<?> getDeleteJob(@PathVariable("id") String jobId) {
+        EavInterface eav = eav();
+        EavDeleteJob job = eav.getDeleteJob(jobId);
+        if (job == null) return ResponseEntity.status(404).body("Job not found");
+        return ResponseEntity.status(200).body(job);
+    }
+
+    @RequestMapping(method=RequestMethod.POST, path="/query")
+    public EavQueryResult query(@RequestBody EavQuery q) {
+        EavInterface eav = eav();
+        return eav.queryEntities(q);
+    }
+
+    @RequestMapping(method=RequestMethod.GET, path="/aggregate")
+    public EavAggregate aggregate(@RequestParam(name="type") Integer typeId,
+                                  @RequestParam(name="attr") String attr,
+                                  @RequestParam(name="group_by", required=false) String groupBy) {
+        EavInterface eav = eav();
+        return eav.aggregate(typeId, attr, groupBy);
+    }
+
+    @RequestMapping(method=RequestMethod.POST, path="/query/scan")
+    public List<Integer> scan(@RequestBody EavQuery q) {
+        EavInterface eav = eav();
+        return eav.scanEntities(q);
+    }
+
+    @RequestMapping(method=RequestMethod.GET, path="/search")
+    public EavPage<EavSearchIndex.Hit> search(@RequestParam(name="q") String q,
+                                              @RequestParam(name="after", required=false) String after,
+                                              @RequestParam(name="limit", defaultValue="50") int limit) {
+        EavInterface eav = eav();
+        return eav.search(q, after, limit);
+    }
+
+    @RequestMapping(method=RequestMethod.GET, path="/columns/{attr_id}/summary")
+    public EavColumnStore.Summary getColumnSummary(@PathVariable("attr_id") Integer attrId) {
+        EavInterface eav = eav();
+        return eav.summarizeColumn(attrId);
+    }
+
+    // server-sent events, one json EavChange per event; filters are optional
+    @RequestMapping(method=RequestMethod.GET, path="/changes", produces=MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter changes(@RequestParam(name="type", required=false) Integer typeId,
+                              @RequestParam(name="entity", required=false) Integer entityId,
+                              @RequestHeader(name="Last-Event-ID", required=false) String lastEventId) {
+        EavInterface e = eav();
+        ChangeFeed feed = new ChangeFeed(e.getChangeBus(), typeId, entityId);
+        feeds.add(feed);
+        feed.start(lastEventId, () -> feeds.remove(feed));
+        return feed.getEmitter();
+    }
+
+    @RequestMapping(method=RequestMethod.GET, path="/metrics")
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("http", httpMetrics.snapshot());
+        out.put("connections", registry.size());
+        EavInterface e = selected();
+        if (e != null) {
+            out.put("db", e.getMetrics().snapshot());
+            Map<String, Object> pool = new LinkedHashMap<>();
+            pool.put("total", e.getPool().getTotalConnections());
+            pool.put("active", e.getPool().getActiveConnections());
+            pool.put("idle", e.getPool().getIdleConnections());
+            pool.put("pending", e.getPool().getPendingBorrows());
+            out.put("pool", pool);
+            Map<String, Object> cache = new LinkedHashMap<>();
+            cache.put("hits", e.getSchemaCache().getHits());
+            cache.put("misses", e.getSchemaCache().getMisses());
+            out.put("schemaCache", cache);
+            out.put("columns", e.getColumnStore().getLoaded().size());
+            out.put("searchDocs", e.getSearchIndex().getDocs());
+            out.put("searchState", e.getSearchIndex().getState());
+            Map<String, Object> aggregates = new LinkedHashMap<>();
+            aggregates.put("entries", e.getAggregateCache().getSize());
+            aggregates.put("hits", e.getAggregateCache().getHits());
+            aggregates.put("misses", e.getAggregateCache().getMisses());
+            out.put("aggregateCache", aggregates);
+            out.put("changeSubscribers", e.getChangeBus().getSubscribers());
+            if (!e.getReplicas().getReplicas().isEmpty()) {
+                Map<String, Object> reads = new LinkedHashMap<>();
+                reads.put("primaryReads", e.getReplicas().getPrimaryReads());
+                reads.put("replicas", e.getReplicas().stats());
+                out.put("replicas", reads);
+            }
+            EavWriteBuffer buffer = e.getWriteBuffer();
+            if (buffer != null) {
+                Map<String, Object> writes = new LinkedHashMap<>();
+                writes.put("pending", buffer.getPending());
+                writes.put("accepted", buffer.getAccepted());
+                writes.put("merged", buffer.getMerged());
+                writes.put("flushed", buffer.getFlushed());
+                writes.put("failed", buffer.getFailed());
+                out.put("writeBehind", writes);
+            }
+        }
+        return out;
+    }
+
+    @RequestMapping(method=RequestMethod.GET, path="/metrics/prometheus", produces="text/plain")
+    public String getPrometheusMetrics() {
+        StringBuilder out = new StringBuilder(httpMetrics.toPrometheus("eav_http"));
+        EavInterface e = selected();
+        if (e != null) {
+            out.append(e.getMetrics().toPrometheus("eav_db"));
+            out.append("eav_pool_active ").append(e.getPool().getActiveConnections()).append('\n');
+            out.append("eav_pool_idle ").append(e.getPool().getIdleConnections()).append('\n');
+            out.append("eav_pool_pending ").append(e.getPool().getPendingBorrows()).append('\n');
+            out.append("eav_schema_cache_hits_total ").append(e.getSchemaCache().getHits()).append('\n');
+            out.append("eav_schema_cache_misses_total ").append(e.getSchemaCache().getMisses()).append('\n');
+        }
+        return out.toString();
+    }
+
+    // the body is written on an async thread, the caller's session goes along for read-your-writes
+    private static ResponseEntity<StreamingResponseBody> ndjson(EavInterface e, StreamingResponseBody body) {
+        String session = e.getReplicas().currentSession();
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .body(out -> {
+                    e.getReplicas().bind(session);
+                    try {
+                        body.writeTo(out);
+                    } finally {
+                        e.getReplicas().bind(null);
+                    }
+                });
+    }
+
+    // one json document per line
+    private void writeRow(OutputStream out, Object row) {
+        try {
+            out.write(rowWriter.writeValueAsBytes(row));
+            out.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 }
@@ -1,6 +1,9 @@
 package org.access;
 
 import lombok.Data;
+import org.database.DbSetup;
+
+import java.util.List;
 
 @Data
 public class DbAccess {
@@ -8,4 +11,13 @@ public class DbAccess {
     private String dbName;
     private String user;
     private String password;
+    // optional read replicas, host:port of the same database
+    private List<String> replicas;
+    private DbSetup.ReplicaSelection replicaSelection;
+    // apply pending DbMigrator versions while connecting
+    private Boolean runMigrations;
+    // use replicas without replication configured as if they were current
+    private Boolean replicaUnconfiguredIsCurrent;
+    // TYPED once the database was converted with EavLayoutMigrator
+    private DbSetup.ValueLayout valueLayout;
 }
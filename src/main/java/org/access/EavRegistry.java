@@ -0,0 +1,275 @@
+package org.access;
+
+import org.database.ConnectionPool;
+import org.database.DbSetup;
+import org.database.EavInterface;
+import org.util.AnsiColors;
+import org.util.Fn;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// connected databases, one pooled EavInterface per (host, dbName, user)
+// every /connect that passes the password check gets a random token for its interface, requests pick the
+// interface with that token in the X-Eav-Db header; there is no default interface.
+// least recently used interfaces are closed past maxSize, and any interface or token idle for longer than idleTimeoutMs
+@SuppressWarnings("unused")
+public class EavRegistry implements AutoCloseable {
+    public static final String HEADER = "X-Eav-Db";
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final boolean writeBehind;
+    private final int maxSize;
+    private final long idleTimeoutMs;
+    // access ordered, eldest = least recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // serializes connects, so a slow connect never blocks lookups
+    private final Object connectLock = new Object();
+    private final ScheduledExecutorService evictor;
+    // token -> interface, entries hold their own tokens so closing one revokes them
+    private final Map<String, Token> tokens = new ConcurrentHashMap<>();
+    private volatile Consumer<EavInterface> onEvict = e -> {};
+
+    private static class Entry {
+        final String key;
+        final EavInterface eav;
+        final byte[] password;
+        // replicas and value layout the interface was built with, see settings()
+        final String settings;
+        final long connectedAt = System.currentTimeMillis();
+        // guarded by entries
+        final Set<String> tokens = new HashSet<>();
+        volatile long lastUsed = connectedAt;
+
+        Entry(String key, EavInterface eav, DbSetup setup) {
+            this.key = key;
+            this.eav = eav;
+            this.password = setup.password.getBytes(StandardCharsets.UTF_8);
+            this.settings = settings(setup);
+        }
+    }
+
+    private static class Token {
+        final Entry entry;
+        volatile long lastUsed = System.currentTimeMillis();
+
+        Token(Entry entry) {
+            this.entry = entry;
+        }
+    }
+
+    public EavRegistry(boolean writeBehind, int maxSize, long idleTimeoutMs) {
+        if (maxSize < 1 || idleTimeoutMs < 1) {
+            throw new IllegalArgumentException("Err: invalid registry size");
+        }
+        this.writeBehind = writeBehind;
+        this.maxSize = maxSize;
+        this.idleTimeoutMs = idleTimeoutMs;
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "eav-registry-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, Math.min(60_000, idleTimeoutMs / 2));
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public static String key(DbSetup setup) {
+        return setup.user + "@" + setup.server + "/" + setup.dbName;
+    }
+
+    // connect options that change how the interface reads and writes, a reused interface has to match them
+    private static String settings(DbSetup setup) {
+        return setup.valueLayout + " " + setup.replicaSelection + " " + setup.replicas + " " + setup.replicaUnconfiguredIsCurrent;
+    }
+
+    // called with every interface the registry closes, before it is closed
+    public void setOnEvict(Consumer<EavInterface> onEvict) {
+        this.onEvict = onEvict;
+    }
+
+    // reuses the pooled interface for the same key and password, connects otherwise; returns a new token for it
+    public String connect(DbSetup setup) {
+        String key = key(setup);
+        synchronized (connectLock) {
+            Entry existing;
+            synchronized (entries) {
+                existing = entries.get(key);
+            }
+            if (existing != null && MessageDigest.isEqual(existing.password, setup.password.getBytes(StandardCharsets.UTF_8))) {
+                if (!existing.settings.equals(settings(setup))) {
+                    throw new IllegalArgumentException("Err: " + key + " is connected with other replicas or value layout");
+                }
+                existing.lastUsed = System.currentTimeMillis();
+                Fn.printColor(AnsiColors.GREEN, "Already connected to " + key);
+                return issueToken(existing);
+            }
+            // different password: reconnect and replace the old interface on success
+            if (existing != null && existing.eav.getWriteBuffer() != null) {
+                // the new interface replays the write-behind log, so the old one has to flush and let go of it first;
+                // check the password before that, a wrong one must not take the working interface down
+                EavInterface.checkCredentials(setup);
+                remove(existing);
+            }
+            setup.writeBehind = writeBehind;
+            if (writeBehind && setup.writeBehindLog == null) {
+                // one log per registry key, databases with the same name on different hosts must not share one
+                setup.writeBehindLog = "eav-write-behind-" + key.replaceAll("[^A-Za-z0-9_-]", "_");
+            }
+            Entry entry = new Entry(key, new EavInterface(setup), setup);
+            List<Entry> evicted = new ArrayList<>();
+            synchronized (entries) {
+                Entry replaced = entries.put(key, entry);
+                if (replaced != null) evicted.add(replaced);
+                Iterator<Entry> it = entries.values().iterator();
+                while (entries.size() > maxSize && it.hasNext()) {
+                    Entry eldest = it.next();
+                    if (eldest == entry) continue;
+                    it.remove();
+                    evicted.add(eldest);
+                }
+            }
+            for (Entry e : evicted) close(e, "replaced or least recently used");
+            Fn.printColor(AnsiColors.GREEN, "Connected to " + key);
+            return issueToken(entry);
+        }
+    }
+
+    // interface the token was issued for, null for unknown, revoked or expired tokens
+    public EavInterface get(String token) {
+        Entry e = entry(token);
+        if (e == null) return null;
+        e.lastUsed = System.currentTimeMillis();
+        return e.eav;
+    }
+
+    // revokes the token, and closes its interface once no other token uses it
+    public boolean disconnect(String token) {
+        Entry e = entry(token);
+        if (e == null) return false;
+        boolean last;
+        synchronized (entries) {
+            e.tokens.remove(token);
+            tokens.remove(token);
+            last = e.tokens.isEmpty() && entries.remove(e.key, e);
+        }
+        if (last) close(e, "disconnected");
+        return true;
+    }
+
+    // pool stats of the token's interface, null for unknown tokens
+    public Map<String, Object> stats(String token) {
+        Entry e = entry(token);
+        if (e == null) return null;
+        ConnectionPool pool = e.eav.getPool();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("connectedAt", e.connectedAt);
+        m.put("idleMs", System.currentTimeMillis() - e.lastUsed);
+        m.put("total", pool.getTotalConnections());
+        m.put("active", pool.getActiveConnections());
+        m.put("idle", pool.getIdleConnections());
+        m.put("pending", pool.getPendingBorrows());
+        return m;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    // interfaces with borrowed connections (e.g. a running stream) are in use, whatever their last lookup
+    private void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleTimeoutMs;
+        List<Entry> evicted = new ArrayList<>();
+        synchronized (entries) {
+            Iterator<Map.Entry<String, Token>> tokenIt = tokens.entrySet().iterator();
+            while (tokenIt.hasNext()) {
+                Map.Entry<String, Token> t = tokenIt.next();
+                if (t.getValue().lastUsed < cutoff) {
+                    t.getValue().entry.tokens.remove(t.getKey());
+                    tokenIt.remove();
+                }
+            }
+            Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext()) {
+                Entry e = it.next();
+                if (e.lastUsed < cutoff && e.eav.getPool().getActiveConnections() == 0) {
+                    it.remove();
+                    evicted.add(e);
+                }
+            }
+        }
+        for (Entry e : evicted) close(e, "idle");
+    }
+
+    private Entry entry(String token) {
+        if (token == null || token.isEmpty()) return null;
+        Token t = tokens.get(token);
+        if (t == null) return null;
+        t.lastUsed = System.currentTimeMillis();
+        return t.entry;
+    }
+
+    // 256 random bits, url safe so EventSource clients can pass it as a query parameter
+    private String issueToken(Entry e) {
+        byte[] bytes = new byte[32];
+        RANDOM.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        synchronized (entries) {
+            e.tokens.add(token);
+            tokens.put(token, new Token(e));
+        }
+        return token;
+    }
+
+    private void remove(Entry e) {
+        synchronized (entries) {
+            entries.remove(e.key, e);
+        }
+        close(e, "reconnecting");
+    }
+
+    private void close(Entry e, String reason) {
+        synchronized (entries) {
+            for (String t : e.tokens) tokens.remove(t);
+            e.tokens.clear();
+        }
+        try {
+            onEvict.accept(e.eav);
+        } catch (RuntimeException ex) {
+            Fn.printColor(AnsiColors.YELLOW, "Err: evict listener failed -- " + ex.getMessage());
+        }
+        try {
+            e.eav.close();
+            Fn.printColor(AnsiColors.YELLOW, "Closed " + e.key + " (" + reason + ")");
+        } catch (RuntimeException ex) {
+            Fn.printColor(AnsiColors.RED, "Err: failed to close " + e.key + " -- " + ex.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        evictor.shutdownNow();
+        List<Entry> all;
+        synchronized (entries) {
+            all = new ArrayList<>(entries.values());
+            entries.clear();
+        }
+        for (Entry e : all) close(e, "shutdown");
+    }
+}
@@ -0,0 +1,35 @@
+package org.access;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.database.EavMetrics;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+// times every Controller endpoint, keyed by method + route pattern
+public class MetricsInterceptor implements HandlerInterceptor {
+    private static final String START = MetricsInterceptor.class.getName() + ".start";
+
+    private final EavMetrics metrics;
+
+    public MetricsInterceptor(EavMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest req, HttpServletResponse res, Object handler) {
+        req.setAttribute(START, System.nanoTime());
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest req, HttpServletResponse res, Object handler, Exception ex) {
+        Object start = req.getAttribute(START);
+        if (start == null) return;
+        Object pattern = req.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        String op = req.getMethod() + " " + (pattern != null ? pattern : req.getRequestURI());
+        long nanos = System.nanoTime() - (Long) start;
+        if (ex != null || res.getStatus() >= 500) metrics.recordError(op, nanos);
+        else metrics.record(op, nanos);
+    }
+}
@@ -0,0 +1,28 @@
+package org.access;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.database.EavReplicas;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+// clears the read-your-writes session Controller binds to the request thread, so a pooled thread does not carry
+// it into the next request; streamed bodies bind it again on their own thread
+public class ReplicaSessionInterceptor implements AsyncHandlerInterceptor {
+    public static final String BOUND = ReplicaSessionInterceptor.class.getName() + ".bound";
+
+    @Override
+    public void afterCompletion(HttpServletRequest req, HttpServletResponse res, Object handler, Exception ex) {
+        unbind(req);
+    }
+
+    // the request thread is handed back while an async body is still being written
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest req, HttpServletResponse res, Object handler) {
+        unbind(req);
+    }
+
+    private static void unbind(HttpServletRequest req) {
+        Object replicas = req.getAttribute(BOUND);
+        if (replicas instanceof EavReplicas) ((EavReplicas) replicas).bind(null);
+    }
+}
@@ -0,0 +1,32 @@
+package org.access;
+
+import org.database.EavMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    // endpoint timings, shared across database reconnects
+    @Bean
+    public EavMetrics httpMetrics() {
+        return new EavMetrics();
+    }
+
+    // connected databases, closed with the application
+    @Bean(destroyMethod = "close")
+    public EavRegistry eavRegistry(@Value("${eav.write-behind.enabled:false}") boolean writeBehind,
+                                   @Value("${eav.registry.max-size:8}") int maxSize,
+                                   @Value("${eav.registry.idle-timeout-ms:1800000}") long idleTimeoutMs) {
+        return new EavRegistry(writeBehind, maxSize, idleTimeoutMs);
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new MetricsInterceptor(httpMetrics()));
+        registry.addInterceptor(new ReplicaSessionInterceptor());
+    }
+}
@@ -0,0 +1,289 @@
+package org.database;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+// bounded jdbc connection pool, leased out to sql2o one call at a time
+@SuppressWarnings("unused")
+public class ConnectionPool implements DataSource, AutoCloseable {
+    // connections idle for less than this are handed out without a validation round trip
+    private static final long VALIDATION_GRACE_MS = 500;
+    private static final int VALIDATION_TIMEOUT_SEC = 2;
+    public static final String WAIT_METRIC = "pool.wait";
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final int minIdle;
+    private final long borrowTimeoutMs;
+    private final long idleTimeoutMs;
+
+    // most recently returned connections sit at the head, eviction works from the tail
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Semaphore permits;
+    private final AtomicInteger total = new AtomicInteger(0);
+    private final ScheduledExecutorService evictor;
+    private final EavMetrics metrics;
+    private volatile boolean closed = false;
+
+    public ConnectionPool(String url, DbSetup setup, EavMetrics metrics) {
+        if (setup.poolMaxSize < 1 || setup.poolMinIdle < 0 || setup.poolMinIdle > setup.poolMaxSize) {
+            throw new IllegalArgumentException("Err: invalid pool size");
+        }
+        this.url = url;
+        this.user = setup.user;
+        this.password = setup.password;
+        this.maxSize = setup.poolMaxSize;
+        this.minIdle = setup.poolMinIdle;
+        this.borrowTimeoutMs = setup.poolTimeoutMs;
+        this.idleTimeoutMs = setup.poolIdleTimeoutMs;
+        this.permits = new Semaphore(maxSize, true);
+        this.metrics = metrics;
+
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "eav-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, idleTimeoutMs / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    // region DataSource
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) throw new SQLException("Err: connection pool is closed");
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMs, TimeUnit.MILLISECONDS)) {
+                metrics.recordError(WAIT_METRIC, System.nanoTime() - start);
+                throw new SQLTransientConnectionException(
+                        "Err: timed out waiting for a connection after " + borrowTimeoutMs + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Err: interrupted waiting for a connection", e);
+        }
+        metrics.record(WAIT_METRIC, System.nanoTime() - start);
+
+        try {
+            PooledConnection pc;
+            while ((pc = idle.pollFirst()) != null) {
+                if (validate(pc)) return pc.lease();
+                discard(pc);
+            }
+            pc = new PooledConnection(DriverManager.getConnection(url, user, password));
+            total.incrementAndGet();
+            return pc.lease();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Err: pool credentials are fixed by DbSetup");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() { return null; }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {}
+
+    @Override
+    public void setLoginTimeout(int seconds) {}
+
+    @Override
+    public int getLoginTimeout() { return 0; }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) return iface.cast(this);
+        throw new SQLException("Err: not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+    // endregion DataSource
+
+    // region stats
+    public int getTotalConnections() { return total.get(); }
+
+    public int getIdleConnections() { return idle.size(); }
+
+    public int getActiveConnections() { return maxSize - permits.availablePermits(); }
+
+    public int getPendingBorrows() { return permits.getQueueLength(); }
+
+    public int getMaxSize() { return maxSize; }
+    // endregion stats
+
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            discard(pc);
+        }
+    }
+
+    private boolean validate(PooledConnection pc) {
+        try {
+            if (pc.raw.isClosed()) return false;
+            if (System.currentTimeMillis() - pc.lastUsed < VALIDATION_GRACE_MS) return true;
+            return pc.raw.isValid(VALIDATION_TIMEOUT_SEC);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(PooledConnection pc) {
+        boolean reusable = !closed;
+        try {
+            if (reusable && !pc.raw.isClosed()) {
+                // undo whatever state the borrower left behind
+                if (!pc.raw.getAutoCommit()) {
+                    pc.raw.rollback();
+                    pc.raw.setAutoCommit(true);
+                }
+                if (pc.raw.isReadOnly()) pc.raw.setReadOnly(false);
+                pc.raw.clearWarnings();
+            } else {
+                reusable = false;
+            }
+        } catch (SQLException e) {
+            reusable = false;
+        }
+
+        if (reusable) {
+            pc.lastUsed = System.currentTimeMillis();
+            idle.offerFirst(pc);
+        } else {
+            discard(pc);
+        }
+        permits.release();
+    }
+
+    private void discard(PooledConnection pc) {
+        total.decrementAndGet();
+        try {
+            pc.raw.close();
+        } catch (SQLException ignored) {
+            // connection is being dropped anyway
+        }
+    }
+
+    // closes connections idle past the timeout down to minIdle, then opens new ones back up to minIdle
+    // (connections dropped by validation or by a failed reset leave the pool short otherwise)
+    void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleTimeoutMs;
+        Iterator<PooledConnection> it = idle.descendingIterator();
+        while (it.hasNext() && idle.size() > minIdle) {
+            PooledConnection pc = it.next();
+            if (pc.lastUsed < cutoff && idle.removeFirstOccurrence(pc)) {
+                discard(pc);
+            }
+        }
+        replenish();
+    }
+
+    private void replenish() {
+        while (!closed && idle.size() < minIdle) {
+            int t = total.get();
+            if (t >= maxSize) return;
+            if (!total.compareAndSet(t, t + 1)) continue;
+            try {
+                PooledConnection pc = new PooledConnection(DriverManager.getConnection(url, user, password));
+                idle.offerLast(pc);
+                // close() drained the idle list meanwhile
+                if (closed && idle.removeFirstOccurrence(pc)) discard(pc);
+            } catch (SQLException e) {
+                // the server is unreachable, borrowers will report it; try again on the next run
+                total.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+    // physical connection kept by the pool, handed out as a proxy whose close() returns it
+    private class PooledConnection {
+        private final Connection raw;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        PooledConnection(Connection raw) {
+            this.raw = raw;
+        }
+
+        Connection lease() {
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    new Lease(this)
+            );
+        }
+    }
+
+    private class Lease implements InvocationHandler {
+        private final PooledConnection pc;
+        // close() may race itself (a statement closing its connection while the borrower does), only one returns it
+        private final AtomicBoolean returned = new AtomicBoolean(false);
+
+        Lease(PooledConnection pc) {
+            this.pc = pc;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (returned.compareAndSet(false, true)) release(pc);
+                    return null;
+                case "isClosed":
+                    return returned.get() || pc.raw.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + pc.raw + "]";
+                default:
+                    break;
+            }
+            if (returned.get()) throw new SQLException("Err: connection already returned to pool");
+            try {
+                return method.invoke(pc.raw, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
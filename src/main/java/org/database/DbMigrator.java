@@ -0,0 +1,229 @@
+package org.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+import org.sql2o.Sql2oException;
+import org.sql2o.data.Row;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// versioned schema migrations, applied once per database on connect when DbSetup.runMigrations is set
+// every step must be idempotent so a half-applied version can simply be rerun. concurrent runs against the
+// same database (several app instances connecting at once) take turns on a named lock
+@SuppressWarnings("unused")
+public class DbMigrator {
+    private static final Logger log = LoggerFactory.getLogger(DbMigrator.class);
+    public static final String MIGRATION_TABLE = "eav_migrations";
+    // setup.sql is packaged as db/setup.sql, its PROCEDURES section is the one copy of the procedure bodies
+    public static final String SETUP_SCRIPT = "db/setup.sql";
+    private static final String PROCEDURES_START = "-- ------- PROCEDURES";
+    private static final String PROCEDURES_END = "-- ---------- VIEWS";
+    private static final int LOCK_TIMEOUT_SEC = 60;
+
+    private final Sql2o db;
+    private final String entityTable;
+    private final String valueTable;
+    private final List<Migration> migrations = new ArrayList<>();
+
+    public DbMigrator(Sql2o db, DbSetup setup) {
+        this.db = db;
+        this.entityTable = setup.entityTable;
+        this.valueTable = setup.valueTable;
+
+        migrations.add(new Migration(1, "index eav access paths", conn -> {
+            ensureIndex(conn, valueTable, "idx_values_entity_attr", "entity_id, attr_id");
+            ensureIndex(conn, valueTable, "idx_values_attr_str", "attr_id, value_str(32)");
+            ensureIndex(conn, valueTable, "idx_values_attr_int", "attr_id, value_int");
+            ensureIndex(conn, valueTable, "idx_values_attr_float", "attr_id, value_float");
+            ensureIndex(conn, valueTable, "idx_values_attr_time", "attr_id, value_time");
+            ensureIndex(conn, entityTable, "idx_entities_name_type", "entity, entity_type_id");
+        }));
+        migrations.add(new Migration(2, "procedures return affected rows", conn -> {
+            // plain statements, procedure bodies are not meant for sql2o's :param parsing
+            try (Statement st = conn.getJdbcConnection().createStatement()) {
+                for (String sql : splitScript(proceduresSection(loadScript(SETUP_SCRIPT)))) {
+                    st.execute(sql);
+                }
+            } catch (SQLException e) {
+                throw new Sql2oException("Err: failed to apply the procedures of " + SETUP_SCRIPT, e);
+            }
+        }));
+    }
+
+    // applies every pending version in order, returns the versions applied
+    public List<Integer> migrate() {
+        try (Connection conn = db.open()) {
+            // named locks are server wide, the database name keeps databases on one server apart
+            String lock = MIGRATION_TABLE + "." + conn.createQuery("SELECT DATABASE()").executeScalar(String.class);
+            Integer locked = conn.createQuery("SELECT GET_LOCK(:l, :t)")
+                    .addParameter("l", lock)
+                    .addParameter("t", LOCK_TIMEOUT_SEC)
+                    .executeScalar(Integer.class);
+            if (locked == null || locked != 1) {
+                throw new IllegalStateException("Err: timed out waiting for another migration of " + lock);
+            }
+            try {
+                return migrate(conn);
+            } finally {
+                conn.createQuery("SELECT RELEASE_LOCK(:l)").addParameter("l", lock).executeScalar(Integer.class);
+            }
+        }
+    }
+
+    // with the lock held, so the version read here is still current when the pending ones are recorded
+    private List<Integer> migrate(Connection conn) {
+        List<Integer> applied = new ArrayList<>();
+        conn.createQuery("CREATE TABLE IF NOT EXISTS " + MIGRATION_TABLE + " ("
+                + "version int unsigned not null, "
+                + "description varchar(255) not null, "
+                + "applied_at datetime not null default NOW(), "
+                + "primary key (version))").executeUpdate();
+        int current = getVersion(conn);
+        List<Migration> pending = new ArrayList<>();
+        for (Migration m : migrations) {
+            if (m.version > current) pending.add(m);
+        }
+        if (pending.isEmpty()) return applied;
+
+        Map<String, String> before = explainAccessPaths(conn);
+        for (Migration m : pending) {
+            log.info("Applying migration {}: {}", m.version, m.description);
+            m.step.apply(conn);
+            conn.createQuery("INSERT INTO " + MIGRATION_TABLE + " (version, description) VALUES (:v, :d)")
+                    .addParameter("v", m.version)
+                    .addParameter("d", m.description)
+                    .executeUpdate();
+            applied.add(m.version);
+        }
+        Map<String, String> after = explainAccessPaths(conn);
+        for (String name : after.keySet()) {
+            log.info("EXPLAIN {}\n  before: {}\n  after:  {}", name, before.get(name), after.get(name));
+        }
+        return applied;
+    }
+
+    public int getVersion(Connection conn) {
+        Integer v = conn.createQuery("SELECT MAX(version) FROM " + MIGRATION_TABLE)
+                .executeScalar(Integer.class);
+        return v == null ? 0 : v;
+    }
+
+    // plans for the EavInterface queries the indexes are meant to serve
+    public Map<String, String> explainAccessPaths(Connection conn) {
+        Map<String, String> queries = new LinkedHashMap<>();
+        queries.put("create_eav_value duplicate check",
+                "SELECT * FROM " + valueTable + " WHERE entity_id = 1 AND attr_id = 1");
+        queries.put("createEntity lookup",
+                "SELECT * FROM " + entityTable + " WHERE entity = '' AND entity_type_id = 1");
+        queries.put("value lookup (int)",
+                "SELECT entity_id FROM " + valueTable + " WHERE attr_id = 1 AND value_int > 0");
+        queries.put("value lookup (str)",
+                "SELECT entity_id FROM " + valueTable + " WHERE attr_id = 1 AND value_str = ''");
+        queries.put("getEntityViewById",
+                "SELECT * FROM all_possible_eav_data WHERE entity_id = 1");
+
+        Map<String, String> plans = new LinkedHashMap<>();
+        for (Map.Entry<String, String> q : queries.entrySet()) {
+            StringBuilder plan = new StringBuilder();
+            try {
+                for (Row r : conn.createQuery("EXPLAIN " + q.getValue()).executeAndFetchTable().rows()) {
+                    plan.append("[").append(r.getString("table"))
+                            .append(" type=").append(r.getString("type"))
+                            .append(" key=").append(r.getString("key"))
+                            .append(" rows=").append(r.getString("rows")).append("] ");
+                }
+            } catch (RuntimeException e) {
+                plan.append("unavailable -- ").append(e.getMessage());
+            }
+            plans.put(q.getKey(), plan.toString().trim());
+        }
+        return plans;
+    }
+
+    // mysql has no CREATE INDEX IF NOT EXISTS
+    private static void ensureIndex(Connection conn, String table, String name, String columns) {
+        Integer exists = conn.createQuery("SELECT COUNT(*) FROM information_schema.statistics "
+                        + "WHERE table_schema = DATABASE() AND table_name = :t AND index_name = :i")
+                .addParameter("t", table)
+                .addParameter("i", name)
+                .executeScalar(Integer.class);
+        if (exists != null && exists > 0) return;
+        conn.createQuery("CREATE INDEX " + name + " ON " + table + " (" + columns + ")").executeUpdate();
+    }
+
+    static String loadScript(String resource) {
+        try (InputStream in = DbMigrator.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) throw new IllegalStateException("Err: missing migration script " + resource);
+            StringBuilder out = new StringBuilder();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.append(new String(buf, 0, n, StandardCharsets.UTF_8));
+            }
+            return out.toString();
+        } catch (IOException e) {
+            throw new IllegalStateException("Err: could not read migration script " + resource, e);
+        }
+    }
+
+    // the statements between the PROCEDURES and VIEWS headers of the setup script
+    static String proceduresSection(String script) {
+        int start = script.indexOf(PROCEDURES_START);
+        int end = script.indexOf(PROCEDURES_END);
+        if (start < 0 || end < start) {
+            throw new IllegalStateException("Err: " + SETUP_SCRIPT + " has no PROCEDURES section");
+        }
+        return script.substring(start, end);
+    }
+
+    // DELIMITER is a mysql client command, so the script is split here the way the client would
+    static List<String> splitScript(String script) {
+        List<String> statements = new ArrayList<>();
+        String delimiter = ";";
+        StringBuilder current = new StringBuilder();
+        for (String line : script.split("\r?\n")) {
+            String trimmed = line.trim();
+            if (trimmed.toUpperCase().startsWith("DELIMITER ")) {
+                delimiter = trimmed.substring("DELIMITER ".length()).trim();
+                continue;
+            }
+            if (current.length() == 0 && (trimmed.isEmpty() || trimmed.startsWith("--"))) continue;
+            current.append(line).append('\n');
+            if (trimmed.endsWith(delimiter)) {
+                String sql = current.toString().trim();
+                sql = sql.substring(0, sql.length() - delimiter.length()).trim();
+                if (!sql.isEmpty()) statements.add(sql);
+                current.setLength(0);
+            }
+        }
+        String rest = current.toString().trim();
+        if (!rest.isEmpty()) statements.add(rest);
+        return statements;
+    }
+
+    private interface Step {
+        void apply(Connection conn);
+    }
+
+    private static class Migration {
+        final int version;
+        final String description;
+        final Step step;
+
+        Migration(int version, String description, Step step) {
+            this.version = version;
+            this.description = description;
+            this.step = step;
+        }
+    }
+}
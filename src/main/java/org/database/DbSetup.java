@@ -1,14 +1,53 @@
 package org.database;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class DbSetup {
+    public enum ReplicaSelection { ROUND_ROBIN, LEAST_LOADED }
+    public enum ValueLayout { WIDE, TYPED }
+
     public String server = "localhost:3306";
     public String dbName = "localdb";
     public String user = "root";
     public String password = "password";
+    // full jdbc url, overrides server/dbName when set (e.g. an embedded database)
+    public String jdbcUrl = null;
     public String entityTypeTable = "eav_entity_types";
     public String entityTable = "eav_entities";
     public String attributeTable = "eav_attrs";
     public String valueTable = "eav_values";
+    // TYPED keeps values in one table per value type, the database has to be converted with EavLayoutMigrator first
+    public ValueLayout valueLayout = ValueLayout.WIDE;
+    // in-memory text search over entity names and string values (EavSearchIndex), read on connect
+    public boolean searchIndex = true;
+    // apply pending DbMigrator versions on connect, off by default: schema changes are run deliberately
+    public boolean runMigrations = false;
+    // connection pool
+    public int poolMaxSize = 10;
+    public int poolMinIdle = 1;
+    public long poolTimeoutMs = 30_000;
+    public long poolIdleTimeoutMs = 600_000;
+    // driver prepared statement cache, per pooled connection (ignored when jdbcUrl is set)
+    public int statementCacheSize = 250;
+    public int statementCacheSqlLimit = 2048;
+    // read replicas (host:port of the same database, or full jdbc urls), reads go to the primary when empty
+    public List<String> replicas = new ArrayList<>();
+    public ReplicaSelection replicaSelection = ReplicaSelection.ROUND_ROBIN;
+    // replicas further behind than this are skipped until they catch up
+    public int replicaMaxLagSec = 5;
+    public long replicaLagCheckMs = 1000;
+    // a replica that reports no replication status (an independent copy) counts as current instead of failing the check
+    public boolean replicaUnconfiguredIsCurrent = false;
+    // write-behind value updates (EavWriteBuffer), off by default
+    public boolean writeBehind = false;
+    // log file prefix, eav-write-behind-<db name> in the working directory when not set
+    public String writeBehindLog = null;
+    public int writeBehindLogBytes = 8 * 1024 * 1024;
+    public int writeBehindMaxPending = 1000;
+    public long writeBehindFlushMs = 200;
+    // force the log to disk on every accepted update instead of once per flush interval
+    public boolean writeBehindSyncEachUpdate = false;
 
     public boolean isValid() {
         return !server.isEmpty() &&
@@ -18,6 +57,17 @@ public class DbSetup {
                 !entityTypeTable.isEmpty() &&
                 !entityTable.isEmpty() &&
                 !attributeTable.isEmpty() &&
-                !valueTable.isEmpty();
+                !valueTable.isEmpty() &&
+                valueLayout != null &&
+                poolMaxSize > 0 &&
+                poolMinIdle >= 0 &&
+                poolMinIdle <= poolMaxSize &&
+                statementCacheSize > 0 &&
+                statementCacheSqlLimit > 0 &&
+                replicas != null &&
+                replicaSelection != null &&
+                replicaMaxLagSec >= 0 &&
+                replicaLagCheckMs > 0 &&
+                (!writeBehind || (writeBehindMaxPending > 0 && writeBehindFlushMs > 0 && writeBehindLogBytes > 0));
     }
 }
@@ -0,0 +1,35 @@
+package org.database;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// aggregates of one attribute's values across the entities of its type, optionally split by another attribute
+@Data
+public class EavAggregate {
+    private int entityTypeId;
+    private int attrId;
+    private String attr;
+    private String valueType;
+    // attribute whose value keys the groups, null for a single group over every value
+    private Integer groupByAttrId = null;
+    private String groupBy = null;
+    private List<Group> groups = new ArrayList<>();
+    // more than EavInterface.MAX_PAGE_SIZE groups, only the first ones are returned
+    private boolean truncated = false;
+
+    @Data
+    public static class Group {
+        // group attribute value, null for entities without one (and for the ungrouped aggregate)
+        private Object key = null;
+        private long count = 0;
+        private long entities = 0;
+        private long distinct = 0;
+        private Object min = null;
+        private Object max = null;
+        // only for int / float / bool attributes, bools sum to the number of true values
+        private Number sum = null;
+        private Double avg = null;
+    }
+}
@@ -0,0 +1,61 @@
+package org.database;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// computed aggregates keyed by (attribute, group by attribute)
+// value writes drop every entry reading the written attribute, structural changes drop everything
+// puts and invalidations hold the cache lock, so a put cannot land after an invalidation it raced with
+public class EavAggregateCache {
+    // cleared outright when full, aggregates are cheap to recompute compared to tracking recency
+    private static final int MAX_ENTRIES = 512;
+
+    private final Map<String, EavAggregate> entries = new ConcurrentHashMap<>();
+    // bumped by every invalidation so loads that raced a write are not cached
+    private final AtomicLong generation = new AtomicLong(0);
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+
+    public static String key(int attrId, Integer groupByAttrId) {
+        return attrId + ":" + (groupByAttrId == null ? "" : groupByAttrId);
+    }
+
+    public EavAggregate get(String key) {
+        EavAggregate agg = entries.get(key);
+        if (agg == null) misses.incrementAndGet();
+        else hits.incrementAndGet();
+        return agg;
+    }
+
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    public synchronized void put(String key, EavAggregate agg, long loadedAt) {
+        if (generation.get() != loadedAt) return;
+        if (entries.size() >= MAX_ENTRIES) entries.clear();
+        entries.put(key, agg);
+    }
+
+    // region invalidation
+    public synchronized void invalidateAttribute(int attrId) {
+        generation.incrementAndGet();
+        entries.values().removeIf(a -> a.getAttrId() == attrId
+                || (a.getGroupByAttrId() != null && a.getGroupByAttrId() == attrId));
+    }
+
+    public synchronized void clear() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+    // endregion invalidation
+
+    // region stats
+    public int getSize() { return entries.size(); }
+
+    public long getHits() { return hits.get(); }
+
+    public long getMisses() { return misses.get(); }
+    // endregion stats
+}
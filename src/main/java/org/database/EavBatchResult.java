@@ -0,0 +1,36 @@
+package org.database;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// outcome of a bulk write, ids line up with the submitted rows (null where the row failed)
+@Data
+public class EavBatchResult {
+    private List<Integer> ids = new ArrayList<>();
+    private List<RowError> errors = new ArrayList<>();
+
+    public EavBatchResult(int size) {
+        for (int i = 0; i < size; i++) ids.add(null);
+    }
+
+    public void fail(int index, String message) {
+        ids.set(index, null);
+        errors.add(new RowError(index, message));
+    }
+
+    public int getCreated() {
+        return ids.size() - errors.size();
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class RowError {
+        private int index;
+        private String message;
+    }
+}
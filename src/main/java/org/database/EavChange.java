@@ -0,0 +1,46 @@
+package org.database;
+
+import lombok.Data;
+
+import java.util.List;
+
+// one mutation as published on EavChangeBus
+@Data
+public class EavChange {
+    public enum Action { CREATED, UPDATED, DELETED }
+    public enum Target { ENTITY_TYPE, ENTITY, ATTRIBUTE, VALUE }
+
+    // assigned by the bus, increasing, used as the sse event id
+    private long seq;
+    private Action action;
+    private Target target;
+    // null when the mutator did not know it (bulk deletes by id)
+    private Integer entityTypeId = null;
+    // owning entity for entity / value changes on a single entity
+    private Integer entityId = null;
+    // ids of the changed rows of the target
+    private List<Integer> ids;
+    // the row after the change, null for deletes and bulk changes
+    private Object data = null;
+
+    public EavChange(Action action, Target target, Integer entityTypeId, Integer entityId, List<Integer> ids, Object data) {
+        this.action = action;
+        this.target = target;
+        this.entityTypeId = entityTypeId;
+        this.entityId = entityId;
+        this.ids = ids;
+        this.data = data;
+    }
+
+    // unknown types / entities match every filter, subscribers would otherwise miss the delete
+    public boolean matches(Integer typeFilter, Integer entityFilter) {
+        if (typeFilter != null && entityTypeId != null && !typeFilter.equals(entityTypeId)) return false;
+        if (entityFilter != null) {
+            if (target == Target.ENTITY) return ids.contains(entityFilter);
+            if (entityId != null) return entityFilter.equals(entityId);
+            // attribute / entity type changes concern every entity of the type
+            return target != Target.VALUE || entityTypeId == null;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,91 @@
+package org.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+// in-process fan out of EavInterface mutations
+// listeners run on the mutating thread, so they should only hand the change off (e.g. to a queue)
+@SuppressWarnings("unused")
+public class EavChangeBus {
+    private static final Logger log = LoggerFactory.getLogger(EavChangeBus.class);
+    // recent changes kept for subscribers resuming after a reconnect (sse Last-Event-ID)
+    private static final int HISTORY = 1000;
+
+    // seq restarts at 0 with every bus, event ids carry this so ids from an earlier bus are never resumed from
+    private final String epoch = Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+    private final List<Consumer<EavChange>> listeners = new CopyOnWriteArrayList<>();
+    // guarded by this
+    private final Deque<EavChange> history = new ArrayDeque<>(HISTORY);
+    private long seq = 0;
+
+    // delivered under the lock, so every listener sees changes in seq order
+    public synchronized void publish(EavChange change) {
+        change.setSeq(++seq);
+        if (history.size() == HISTORY) history.removeFirst();
+        history.addLast(change);
+        for (Consumer<EavChange> l : listeners) {
+            try {
+                l.accept(change);
+            } catch (RuntimeException e) {
+                log.warn("Change listener failed", e);
+            }
+        }
+    }
+
+    // registers the listener and returns the changes after `since` still in history, in order,
+    // atomically with respect to publish so nothing is missed or seen twice;
+    // null when `since` has already dropped out of history or is ahead of seq
+    public synchronized List<EavChange> subscribe(Consumer<EavChange> listener, long since) {
+        listeners.add(listener);
+        List<EavChange> missed = new ArrayList<>();
+        if (since > seq) return null;
+        if (since < 0 || since == seq) return missed;
+        if (history.isEmpty() || history.peekFirst().getSeq() > since + 1) return null;
+        for (EavChange c : history) {
+            if (c.getSeq() > since) missed.add(c);
+        }
+        return missed;
+    }
+
+    // same as above for an sse Last-Event-ID (null for live changes only);
+    // null when the id is malformed or was issued by another bus, e.g. before a restart or reconnect
+    public List<EavChange> subscribe(Consumer<EavChange> listener, String lastEventId) {
+        if (lastEventId == null || lastEventId.isEmpty()) return subscribe(listener, -1);
+        long since = -1;
+        String prefix = epoch + "-";
+        if (lastEventId.startsWith(prefix)) {
+            try {
+                since = Long.parseLong(lastEventId.substring(prefix.length()));
+            } catch (NumberFormatException ignored) {
+                // treated as unknown below
+            }
+        }
+        // still registers the listener, the caller resets the client and continues live
+        return subscribe(listener, since < 0 ? Long.MAX_VALUE : since);
+    }
+
+    // sse id for a seq of this bus
+    public String eventId(long seq) {
+        return epoch + "-" + seq;
+    }
+
+    public void unsubscribe(Consumer<EavChange> listener) {
+        listeners.remove(listener);
+    }
+
+    public synchronized long getSeq() {
+        return seq;
+    }
+
+    public int getSubscribers() {
+        return listeners.size();
+    }
+}
@@ -0,0 +1,586 @@
+package org.database;
+
+import lombok.Data;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+import org.sql2o.Sql2oException;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntFunction;
+import java.util.regex.Pattern;
+
+// in-process columnar copy of the value table, one column per attribute, loaded on first use
+// values sit in primitive arrays by type (epoch seconds for TIME, a bitset for BOOL, dictionary codes
+// for STR) next to parallel value id / entity id arrays; EavInterface writes patch loaded columns in place
+@SuppressWarnings("unused")
+public class EavColumnStore {
+    // rows are only compacted once this many are tombstoned and they make up a quarter of the column
+    private static final int COMPACT_MIN_DELETED = 1024;
+
+    private final Sql2o db;
+    private final EavValueLayout layout;
+    private final IntFunction<EavAttribute> attributes;
+    private final Map<Integer, Column> columns = new ConcurrentHashMap<>();
+
+    public EavColumnStore(Sql2o db, DbSetup setup, IntFunction<EavAttribute> attributes) {
+        this.db = db;
+        this.layout = new EavValueLayout(setup);
+        this.attributes = attributes;
+    }
+
+    // region columns
+    // the column is registered before it is read, with its write lock held, so writes that
+    // race the load queue up behind it and are applied on top (upserts by value id are idempotent)
+    public Column column(int attrId) {
+        Column c = columns.get(attrId);
+        if (c != null) return c;
+        EavAttribute attr = attributes.apply(attrId);
+        if (attr == null) throw new IllegalArgumentException("Err: attribute not found: " + attrId);
+        Column fresh = new Column(attrId, attr.getValueType());
+        fresh.lock.writeLock().lock();
+        try {
+            Column existing = columns.putIfAbsent(attrId, fresh);
+            if (existing != null) return existing;
+            try {
+                load(fresh);
+            } catch (RuntimeException e) {
+                columns.remove(attrId, fresh);
+                throw e;
+            }
+            return fresh;
+        } finally {
+            fresh.lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isLoaded(int attrId) {
+        return columns.containsKey(attrId);
+    }
+
+    public Set<Integer> getLoaded() {
+        return new HashSet<>(columns.keySet());
+    }
+
+    public void evict(int attrId) {
+        columns.remove(attrId);
+    }
+
+    public void clear() {
+        columns.clear();
+    }
+
+    private void load(Column c) {
+        ValueType vt = c.type;
+        String query = "SELECT id, entity_id, " + vt.getColumn() + " FROM " + layout.table(vt)
+                + " WHERE attr_id = ? ORDER BY id";
+        try (Connection conn = db.open();
+             PreparedStatement ps = conn.getJdbcConnection().prepareStatement(query,
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            EavInterface.streamResults(ps);
+            ps.setInt(1, c.attrId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Object value = rs.getObject(3);
+                    if (value == null) continue;
+                    c.append(rs.getInt(1), rs.getInt(2), value);
+                }
+            }
+        } catch (SQLException e) {
+            throw new Sql2oException("Err: failed to load column for attribute " + c.attrId, e);
+        }
+    }
+    // endregion columns
+
+    // region writes
+    // created or updated value, ignored unless its column is loaded
+    public void onValueWritten(EavValue v) {
+        Column c = columns.get(v.getAttrId());
+        if (c == null) return;
+        Object value = typedValue(v, c.type);
+        c.lock.writeLock().lock();
+        try {
+            int row = c.rowOf(v.getId());
+            if (value == null) {
+                // updated to null, the load query skips these too
+                if (row >= 0) c.delete(row);
+            } else if (row >= 0) {
+                c.set(row, value);
+            } else {
+                c.append(v.getId(), v.getEntityId(), value);
+            }
+        } finally {
+            c.lock.writeLock().unlock();
+        }
+    }
+
+    public void onValuesDeleted(Collection<Integer> valueIds) {
+        if (columns.isEmpty() || valueIds.isEmpty()) return;
+        for (Column c : columns.values()) {
+            c.lock.writeLock().lock();
+            try {
+                for (Integer id : valueIds) {
+                    int row = c.rowOf(id);
+                    if (row >= 0) c.delete(row);
+                }
+                c.compactIfNeeded();
+            } finally {
+                c.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    public void onEntitiesDeleted(Collection<Integer> entityIds) {
+        if (columns.isEmpty() || entityIds.isEmpty()) return;
+        Set<Integer> ids = new HashSet<>(entityIds);
+        for (Column c : columns.values()) {
+            c.lock.writeLock().lock();
+            try {
+                for (int row = 0; row < c.size; row++) {
+                    if (!c.deleted.get(row) && ids.contains(c.entityIds[row])) c.delete(row);
+                }
+                c.compactIfNeeded();
+            } finally {
+                c.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    static Object typedValue(EavValue v, ValueType vt) {
+        switch (vt) {
+            case STR: return v.getValueStr();
+            case INT: return v.getValueInt();
+            case FLOAT: return v.getValueFloat();
+            case TIME: return v.getValueTime();
+            default: return v.getValueBool();
+        }
+    }
+    // endregion writes
+
+    // region queries
+    // sorted, distinct ids of entities with at least one value matching the predicate
+    // string comparisons ignore case, like mysql's default collation
+    public int[] filter(int attrId, EavQuery.Op op, Object value) {
+        Column c = column(attrId);
+        Object target = EavInterface.coerce(c.type, value);
+        if (op == EavQuery.Op.LIKE && c.type != ValueType.STR) {
+            throw new IllegalArgumentException("Err: LIKE is only supported for str attributes");
+        }
+        c.lock.readLock().lock();
+        try {
+            int[] out = new int[c.live];
+            int n = 0;
+            switch (c.type) {
+                case INT: {
+                    int t = (Integer) target;
+                    for (int row = 0; row < c.size; row++) {
+                        if (!c.deleted.get(row) && matches(op, Integer.compare(c.ints[row], t))) out[n++] = c.entityIds[row];
+                    }
+                    break;
+                }
+                case FLOAT: {
+                    float t = (Float) target;
+                    for (int row = 0; row < c.size; row++) {
+                        if (!c.deleted.get(row) && matches(op, Float.compare(c.floats[row], t))) out[n++] = c.entityIds[row];
+                    }
+                    break;
+                }
+                case TIME: {
+                    long t = ((Instant) target).getEpochSecond();
+                    for (int row = 0; row < c.size; row++) {
+                        if (!c.deleted.get(row) && matches(op, Long.compare(c.times[row], t))) out[n++] = c.entityIds[row];
+                    }
+                    break;
+                }
+                case BOOL: {
+                    boolean t = (Boolean) target;
+                    for (int row = 0; row < c.size; row++) {
+                        if (!c.deleted.get(row) && matches(op, Boolean.compare(c.bools.get(row), t))) out[n++] = c.entityIds[row];
+                    }
+                    break;
+                }
+                default: {
+                    // evaluate the predicate once per dictionary entry, then scan the codes
+                    boolean[] hit = matchingCodes(c, op, (String) target);
+                    for (int row = 0; row < c.size; row++) {
+                        if (!c.deleted.get(row) && hit[c.codes[row]]) out[n++] = c.entityIds[row];
+                    }
+                    break;
+                }
+            }
+            return distinct(out, n);
+        } finally {
+            c.lock.readLock().unlock();
+        }
+    }
+
+    // entities matching the predicate when the column is in memory, -1 when it is not (it is not loaded for this)
+    public int estimate(int attrId, EavQuery.Op op, Object value) {
+        if (!isLoaded(attrId)) return -1;
+        return filter(attrId, op, value).length;
+    }
+
+    public Summary summarize(int attrId) {
+        Column c = column(attrId);
+        c.lock.readLock().lock();
+        try {
+            Summary s = new Summary();
+            s.setAttrId(attrId);
+            s.setValueType(c.type.getValue());
+            s.setCount(c.live);
+            int[] entities = new int[c.live];
+            int n = 0;
+            for (int row = 0; row < c.size; row++) {
+                if (!c.deleted.get(row)) entities[n++] = c.entityIds[row];
+            }
+            s.setEntities(distinct(entities, n).length);
+            if (c.live == 0) return s;
+
+            switch (c.type) {
+                case INT: {
+                    int[] live = new int[c.live];
+                    long sum = 0;
+                    int k = 0;
+                    for (int row = 0; row < c.size; row++) {
+                        if (c.deleted.get(row)) continue;
+                        live[k++] = c.ints[row];
+                        sum += c.ints[row];
+                    }
+                    Arrays.sort(live);
+                    s.setMin(live[0]);
+                    s.setMax(live[k - 1]);
+                    s.setSum((double) sum);
+                    s.setAvg((double) sum / k);
+                    int distinct = 1;
+                    for (int i = 1; i < k; i++) if (live[i] != live[i - 1]) distinct++;
+                    s.setDistinct(distinct);
+                    break;
+                }
+                case FLOAT: {
+                    float[] live = new float[c.live];
+                    double sum = 0;
+                    int k = 0;
+                    for (int row = 0; row < c.size; row++) {
+                        if (c.deleted.get(row)) continue;
+                        live[k++] = c.floats[row];
+                        sum += c.floats[row];
+                    }
+                    Arrays.sort(live);
+                    s.setMin(live[0]);
+                    s.setMax(live[k - 1]);
+                    s.setSum(sum);
+                    s.setAvg(sum / k);
+                    int distinct = 1;
+                    for (int i = 1; i < k; i++) if (live[i] != live[i - 1]) distinct++;
+                    s.setDistinct(distinct);
+                    break;
+                }
+                case TIME: {
+                    long[] live = new long[c.live];
+                    int k = 0;
+                    for (int row = 0; row < c.size; row++) {
+                        if (!c.deleted.get(row)) live[k++] = c.times[row];
+                    }
+                    Arrays.sort(live);
+                    s.setMin(LocalDateTime.ofEpochSecond(live[0], 0, ZoneOffset.UTC).toString());
+                    s.setMax(LocalDateTime.ofEpochSecond(live[k - 1], 0, ZoneOffset.UTC).toString());
+                    int distinct = 1;
+                    for (int i = 1; i < k; i++) if (live[i] != live[i - 1]) distinct++;
+                    s.setDistinct(distinct);
+                    break;
+                }
+                case BOOL: {
+                    int trues = 0;
+                    for (int row = 0; row < c.size; row++) {
+                        if (!c.deleted.get(row) && c.bools.get(row)) trues++;
+                    }
+                    s.setMin(trues == c.live);
+                    s.setMax(trues > 0);
+                    s.setSum((double) trues);
+                    s.setDistinct(trues == 0 || trues == c.live ? 1 : 2);
+                    break;
+                }
+                default: {
+                    BitSet used = new BitSet(c.dictionary.size());
+                    for (int row = 0; row < c.size; row++) {
+                        if (!c.deleted.get(row)) used.set(c.codes[row]);
+                    }
+                    String min = null;
+                    String max = null;
+                    for (int code = used.nextSetBit(0); code >= 0; code = used.nextSetBit(code + 1)) {
+                        String v = c.dictionary.get(code);
+                        if (min == null || String.CASE_INSENSITIVE_ORDER.compare(v, min) < 0) min = v;
+                        if (max == null || String.CASE_INSENSITIVE_ORDER.compare(v, max) > 0) max = v;
+                    }
+                    s.setMin(min);
+                    s.setMax(max);
+                    s.setDistinct(used.cardinality());
+                    break;
+                }
+            }
+            return s;
+        } finally {
+            c.lock.readLock().unlock();
+        }
+    }
+
+    // merge of two sorted distinct id arrays, for ANDing filters
+    public static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static boolean matches(EavQuery.Op op, int cmp) {
+        switch (op) {
+            case EQ: return cmp == 0;
+            case NE: return cmp != 0;
+            case GT: return cmp > 0;
+            case GTE: return cmp >= 0;
+            case LT: return cmp < 0;
+            case LTE: return cmp <= 0;
+            default: throw new IllegalArgumentException("Err: unsupported operator " + op);
+        }
+    }
+
+    private static boolean[] matchingCodes(Column c, EavQuery.Op op, String target) {
+        boolean[] hit = new boolean[c.dictionary.size()];
+        Pattern like = op == EavQuery.Op.LIKE ? likePattern(target) : null;
+        for (int code = 0; code < hit.length; code++) {
+            String v = c.dictionary.get(code);
+            hit[code] = like != null
+                    ? like.matcher(v).matches()
+                    : matches(op, String.CASE_INSENSITIVE_ORDER.compare(v, target));
+        }
+        return hit;
+    }
+
+    // sql LIKE -> regex: % any run, _ one character, backslash escapes
+    private static Pattern likePattern(String like) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < like.length(); i++) {
+            char ch = like.charAt(i);
+            if (ch == '\\' && i + 1 < like.length()) {
+                regex.append(Pattern.quote(String.valueOf(like.charAt(++i))));
+            } else if (ch == '%') {
+                regex.append(".*");
+            } else if (ch == '_') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(ch)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.DOTALL);
+    }
+
+    private static int[] distinct(int[] ids, int n) {
+        if (n == 0) return new int[0];
+        int[] out = Arrays.copyOf(ids, n);
+        Arrays.sort(out);
+        int k = 1;
+        for (int i = 1; i < n; i++) {
+            if (out[i] != out[k - 1]) out[k++] = out[i];
+        }
+        return k == n ? out : Arrays.copyOf(out, k);
+    }
+    // endregion queries
+
+    // values of one attribute; rows stay in value id order so lookups by id are binary searches
+    public static class Column {
+        final int attrId;
+        final ValueType type;
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        int size = 0;
+        int live = 0;
+        int[] valueIds = new int[16];
+        int[] entityIds = new int[16];
+        BitSet deleted = new BitSet();
+
+        int[] ints;
+        float[] floats;
+        long[] times;
+        BitSet bools;
+        int[] codes;
+        List<String> dictionary;
+        Map<String, Integer> dictionaryIndex;
+
+        Column(int attrId, ValueType type) {
+            this.attrId = attrId;
+            this.type = type;
+            switch (type) {
+                case INT: ints = new int[16]; break;
+                case FLOAT: floats = new float[16]; break;
+                case TIME: times = new long[16]; break;
+                case BOOL: bools = new BitSet(); break;
+                default:
+                    codes = new int[16];
+                    dictionary = new ArrayList<>();
+                    dictionaryIndex = new HashMap<>();
+                    break;
+            }
+        }
+
+        public int getAttrId() { return attrId; }
+
+        public ValueType getType() { return type; }
+
+        public int getLive() { return live; }
+
+        int rowOf(int valueId) {
+            int row = Arrays.binarySearch(valueIds, 0, size, valueId);
+            return row >= 0 && !deleted.get(row) ? row : -1;
+        }
+
+        void append(int valueId, int entityId, Object value) {
+            // a value set to null and back gets its tombstoned row again, so ids stay unique
+            int existing = Arrays.binarySearch(valueIds, 0, size, valueId);
+            if (existing >= 0) {
+                if (deleted.get(existing)) {
+                    deleted.clear(existing);
+                    live++;
+                }
+                entityIds[existing] = entityId;
+                set(existing, value);
+                return;
+            }
+            if (size == valueIds.length) grow();
+            // concurrent inserts can be reported out of id order, shift them into place
+            int row = size;
+            while (row > 0 && valueIds[row - 1] > valueId) row--;
+            if (row < size) shift(row);
+            valueIds[row] = valueId;
+            entityIds[row] = entityId;
+            deleted.clear(row);
+            size++;
+            live++;
+            set(row, value);
+        }
+
+        void set(int row, Object value) {
+            switch (type) {
+                case INT: ints[row] = ((Number) value).intValue(); break;
+                case FLOAT: floats[row] = ((Number) value).floatValue(); break;
+                case TIME: times[row] = epochSeconds(value); break;
+                case BOOL: bools.set(row, toBoolean(value)); break;
+                default: codes[row] = code(value.toString()); break;
+            }
+        }
+
+        void delete(int row) {
+            deleted.set(row);
+            live--;
+        }
+
+        void compactIfNeeded() {
+            int dead = size - live;
+            if (dead < COMPACT_MIN_DELETED || dead * 4 < size) return;
+            int k = 0;
+            for (int row = 0; row < size; row++) {
+                if (deleted.get(row)) continue;
+                valueIds[k] = valueIds[row];
+                entityIds[k] = entityIds[row];
+                switch (type) {
+                    case INT: ints[k] = ints[row]; break;
+                    case FLOAT: floats[k] = floats[row]; break;
+                    case TIME: times[k] = times[row]; break;
+                    case BOOL: bools.set(k, bools.get(row)); break;
+                    default: codes[k] = codes[row]; break;
+                }
+                k++;
+            }
+            size = k;
+            deleted = new BitSet();
+            if (bools != null && bools.length() > k) bools.clear(k, bools.length());
+        }
+
+        private int code(String s) {
+            Integer code = dictionaryIndex.get(s);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add(s);
+                dictionaryIndex.put(s, code);
+            }
+            return code;
+        }
+
+        private void grow() {
+            int capacity = valueIds.length + (valueIds.length >> 1) + 1;
+            valueIds = Arrays.copyOf(valueIds, capacity);
+            entityIds = Arrays.copyOf(entityIds, capacity);
+            if (ints != null) ints = Arrays.copyOf(ints, capacity);
+            if (floats != null) floats = Arrays.copyOf(floats, capacity);
+            if (times != null) times = Arrays.copyOf(times, capacity);
+            if (codes != null) codes = Arrays.copyOf(codes, capacity);
+        }
+
+        private void shift(int row) {
+            int n = size - row;
+            System.arraycopy(valueIds, row, valueIds, row + 1, n);
+            System.arraycopy(entityIds, row, entityIds, row + 1, n);
+            if (ints != null) System.arraycopy(ints, row, ints, row + 1, n);
+            if (floats != null) System.arraycopy(floats, row, floats, row + 1, n);
+            if (times != null) System.arraycopy(times, row, times, row + 1, n);
+            if (codes != null) System.arraycopy(codes, row, codes, row + 1, n);
+            for (int i = size; i > row; i--) {
+                deleted.set(i, deleted.get(i - 1));
+                if (bools != null) bools.set(i, bools.get(i - 1));
+            }
+        }
+
+        private static boolean toBoolean(Object value) {
+            if (value instanceof Boolean) return (Boolean) value;
+            if (value instanceof Number) return ((Number) value).intValue() != 0;
+            return Boolean.parseBoolean(value.toString());
+        }
+
+        // datetime columns have no zone, they are read as utc like EavValue.parseTime does
+        private static long epochSeconds(Object value) {
+            if (value instanceof Timestamp) return ((Timestamp) value).toLocalDateTime().toEpochSecond(ZoneOffset.UTC);
+            if (value instanceof LocalDateTime) return ((LocalDateTime) value).toEpochSecond(ZoneOffset.UTC);
+            if (value instanceof Instant) return ((Instant) value).getEpochSecond();
+            String s = value.toString();
+            return s.endsWith("Z") ? Instant.parse(s).getEpochSecond() : LocalDateTime.parse(s).toEpochSecond(ZoneOffset.UTC);
+        }
+    }
+
+    @Data
+    public static class Summary {
+        private int attrId;
+        private String valueType;
+        // live values, distinct entities holding one, distinct values
+        private long count;
+        private int entities;
+        private int distinct;
+        private Object min;
+        private Object max;
+        // numeric (and bool, as count of true) only
+        private Double sum;
+        private Double avg;
+    }
+}
@@ -0,0 +1,48 @@
+package org.database;
+
+// keyset position in a view: rows without an entity come first, ordered by (entity_type_id, attr_id),
+// then entity rows ordered by (entity_type_id, entity_id, attr_id, value_id); null ids from the left joins are 0
+public class EavCursor {
+    public static final EavCursor START = new EavCursor(0, 0, 0, 0);
+
+    public final int entityTypeId;
+    public final int entityId;
+    public final int attrId;
+    public final int valueId;
+
+    public EavCursor(int entityTypeId, int entityId, int attrId, int valueId) {
+        this.entityTypeId = entityTypeId;
+        this.entityId = entityId;
+        this.attrId = attrId;
+        this.valueId = valueId;
+    }
+
+    public static EavCursor of(EavView v) {
+        return new EavCursor(orZero(v.getEntityTypeId()), orZero(v.getEntityId()),
+                orZero(v.getAttrId()), orZero(v.getValueId()));
+    }
+
+    // inverse of toString(), null/empty means start from the beginning
+    public static EavCursor parse(String s) {
+        if (s == null || s.isEmpty()) return START;
+        String[] parts = s.split("\\.");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("Err: invalid cursor: " + s);
+        }
+        try {
+            return new EavCursor(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+                    Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Err: invalid cursor: " + s);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return entityTypeId + "." + entityId + "." + attrId + "." + valueId;
+    }
+
+    private static int orZero(Integer i) {
+        return i == null ? 0 : i;
+    }
+}
@@ -0,0 +1,52 @@
+package org.database;
+
+import lombok.Data;
+
+import java.time.Instant;
+
+// progress of a background delete, written by the delete worker and polled by callers
+@Data
+public class EavDeleteJob {
+    public enum Status { RUNNING, DONE, FAILED }
+
+    private final String id;
+    private final String target;
+    // parent rows (entity types / entities / attributes / values) to delete
+    private volatile int total;
+    private final String startedAt = Instant.now().toString();
+
+    private volatile Status status = Status.RUNNING;
+    private volatile int deleted = 0;
+    private volatile long deletedValues = 0;
+    private volatile String finishedAt = null;
+    private volatile String error = null;
+
+    public EavDeleteJob(String id, String target, int total) {
+        this.id = id;
+        this.target = target;
+        this.total = total;
+    }
+
+    public boolean isFinished() {
+        return status != Status.RUNNING;
+    }
+
+    // only the delete worker writes, so plain volatile increments are enough
+    void addDeleted(int rows) {
+        deleted += rows;
+    }
+
+    void addDeletedValues(long rows) {
+        deletedValues += rows;
+    }
+
+    void finish(Throwable failure) {
+        if (failure != null) {
+            error = failure.getMessage();
+            status = Status.FAILED;
+        } else {
+            status = Status.DONE;
+        }
+        finishedAt = Instant.now().toString();
+    }
+}
@@ -1,15 +1,74 @@
 package org.database;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.sql2o.Connection;
+import org.sql2o.Query;
+import org.sql2o.ResultSetHandler;
 import org.sql2o.Sql2o;
+import org.sql2o.Sql2oException;
+import org.sql2o.data.Row;
+import org.util.Tuple;
 
 @SuppressWarnings("unused")
-public class EavInterface {
-    private final Connection conn;
+public class EavInterface implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(EavInterface.class);
+    // rows per bulk insert transaction / ids per IN (...) lookup
+    private static final int BATCH_CHUNK_SIZE = 1000;
+    public static final int MAX_PAGE_SIZE = 5000;
+    // parent ids per delete transaction / value rows per DELETE ... LIMIT statement
+    private static final int DELETE_CHUNK_SIZE = 500;
+    private static final int DELETE_VALUE_LIMIT = 5000;
+    // finished background deletes kept around for polling
+    private static final int DELETE_JOB_HISTORY = 100;
+
+    private final ConnectionPool pool;
+    private final Sql2o db;
+    private final EavValueLayout layout;
+    private final EavStatements sql;
+    private final EavReplicas replicas;
+    private final EavSchemaCache schema = new EavSchemaCache();
+    private final EavMetrics metrics = new EavMetrics();
+    private final EavAggregateCache aggregates = new EavAggregateCache();
+    private final EavChangeBus changes = new EavChangeBus();
+    private final EavVersions versions = new EavVersions();
+    private final EavWideTables wide;
+    private final EavColumnStore columns;
+    private final EavSearchIndex search;
+    // null unless setup.writeBehind
+    private final EavWriteBuffer writeBuffer;
+    private final Map<String, EavDeleteJob> deleteJobs = new ConcurrentHashMap<>();
+    // one worker, so background deletes never compete with each other for row locks
+    private final ExecutorService deleteWorker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "eav-delete");
+        t.setDaemon(true);
+        return t;
+    });
 
     public final String server;
     public final String dbName;
@@ -29,417 +88,1748 @@ public class EavInterface {
         valueTable = setup.valueTable;
         server = setup.server;
         dbName = setup.dbName;
+        layout = new EavValueLayout(setup);
+        sql = new EavStatements(setup, layout);
+
+        String url = setup.jdbcUrl != null ? setup.jdbcUrl : EavStatements.jdbcUrl(setup);
+        pool = new ConnectionPool(url, setup, metrics);
+        db = new Sql2o(pool);
+        // fail fast on bad credentials instead of on the first request
+        try (Connection conn = db.open()) {
+            conn.getJdbcConnection().isValid(2);
+        } catch (Exception e) {
+            pool.close();
+            throw new IllegalStateException("Err: could not connect to " + server + "/" + dbName, e);
+        }
+        // whatever was opened so far is closed again when a later step fails
+        EavReplicas openedReplicas = null;
+        EavWriteBuffer openedBuffer = null;
+        try {
+            openedReplicas = new EavReplicas(setup, metrics);
+            replicas = openedReplicas;
+            if (setup.runMigrations) {
+                new DbMigrator(db, setup).migrate();
+            }
+            checkValueLayout(setup);
+            wide = new EavWideTables(db, setup, metrics, this::getAttributesForType);
+            wide.load();
+            changes.subscribe(versions, -1);
+            columns = new EavColumnStore(db, setup, this::getAttributeById);
+            search = new EavSearchIndex(db, setup, this::getAttributeById);
+            // replays updates a previous run accepted but did not flush, before the search index reads the values
+            openedBuffer = setup.writeBehind ? new EavWriteBuffer(db, setup, metrics, this::afterBufferedWrites) : null;
+            writeBuffer = openedBuffer;
+            if (setup.searchIndex) search.loadInBackground();
+        } catch (RuntimeException e) {
+            if (openedBuffer != null) openedBuffer.close();
+            if (openedReplicas != null) openedReplicas.close();
+            deleteWorker.shutdownNow();
+            pool.close();
+            throw e;
+        }
+    }
+
+    // opens and closes a single connection with the setup's credentials, without building an interface
+    public static void checkCredentials(DbSetup setup) {
+        String url = setup.jdbcUrl != null ? setup.jdbcUrl : EavStatements.jdbcUrl(setup);
+        try (java.sql.Connection conn = java.sql.DriverManager.getConnection(url, setup.user, setup.password)) {
+            conn.isValid(2);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Err: could not connect to " + setup.server + "/" + setup.dbName, e);
+        }
+    }
 
-        Sql2o db = new Sql2o(
-                "jdbc:mysql://" + setup.server + "/" + setup.dbName + "?allowPublicKeyRetrieval=true",
-                setup.user, setup.password
-        );
-        try (Connection c = db.open()) {
-            c.setRollbackOnException(false);
-            conn = c;
+    // the layout has to match the database, writes would otherwise fail or land in the old tables
+    private void checkValueLayout(DbSetup setup) {
+        boolean converted;
+        try (Connection conn = db.open()) {
+            converted = new EavLayoutMigrator(db, setup).isConverted(conn);
+        }
+        if (converted != layout.typed) {
+            throw new IllegalStateException(converted
+                    ? "Err: " + dbName + " uses the typed value layout, connect with valueLayout TYPED"
+                    : "Err: " + dbName + " has not been converted to the typed value layout, run EavLayoutMigrator first");
         }
     }
 
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
+    public EavSchemaCache getSchemaCache() {
+        return schema;
+    }
+
+    public EavMetrics getMetrics() {
+        return metrics;
+    }
+
+    public EavSearchIndex getSearchIndex() {
+        return search;
+    }
+
+    public EavColumnStore getColumnStore() {
+        return columns;
+    }
+
+    public EavAggregateCache getAggregateCache() {
+        return aggregates;
+    }
+
+    public EavWriteBuffer getWriteBuffer() {
+        return writeBuffer;
+    }
+
+    public EavChangeBus getChangeBus() {
+        return changes;
+    }
+
+    public EavVersions getVersions() {
+        return versions;
+    }
+
+    public EavReplicas getReplicas() {
+        return replicas;
+    }
+
+    @Override
+    public void close() {
+        if (writeBuffer != null) writeBuffer.close();
+        deleteWorker.shutdownNow();
+        replicas.close();
+        pool.close();
+    }
+
+    // replica (or the primary) for uncached reads. reads that fill a cache (schema, aggregates, column store,
+    // wide tables) stay on the primary, a lagging replica would put rows older than the invalidation back into it
+    private Sql2o reader() {
+        return replicas.reader(db);
+    }
+
     public <T> List<T> get(Class<T> schema, String target) {
-        if (target.isEmpty()) {
-            throw new IllegalArgumentException("Query target not provided");
+        return timed("get", () -> {
+            if (target.isEmpty()) {
+                throw new IllegalArgumentException("Query target not provided");
+            }
+            try (Connection conn = db.open()) {
+                String query = "SELECT * FROM " + target;
+                return conn.createQuery(query).executeAndFetch(schema);
+            }
+        });
+    }
+
+    // times the call and counts rows handed back to the caller
+    private <T> T timed(String op, Supplier<T> body) {
+        T result;
+        try {
+            result = metrics.time(op, body);
+        } finally {
+            // failed writes may still have changed some rows
+            if (isWrite(op)) replicas.markWrite();
+        }
+        if (result instanceof Collection) {
+            metrics.addFetched(op, ((Collection<?>) result).size());
+        } else if (result instanceof EavPage) {
+            metrics.addFetched(op, ((EavPage<?>) result).getRows().size());
+        } else if (result instanceof EavQueryResult) {
+            metrics.addFetched(op, ((EavQueryResult) result).getValues().size());
+        } else if (result instanceof EavBatchResult) {
+            metrics.addAffected(op, ((EavBatchResult) result).getCreated());
+        } else if (result != null && op.startsWith("get")) {
+            metrics.addFetched(op, 1);
+        } else if (result != null && (op.startsWith("create") || op.startsWith("update"))) {
+            metrics.addAffected(op, 1);
         }
-        String query = "SELECT * FROM " + target;
-        return conn.createQuery(query).executeAndFetch(schema);
+        return result;
     }
 
-    private Integer getLastId() {
-        return conn.createQuery("SELECT last_insert_id();").executeAndFetchFirst(Integer.class);
+    private static boolean isWrite(String op) {
+        return op.startsWith("create") || op.startsWith("update") || op.startsWith("delete")
+                || op.startsWith("unsafeCreate") || op.equals("bufferValueUpdate") || op.equals("flushValueUpdates");
     }
 
     // region entityType
     public List<EavEntityType> getEntityTypes() {
-        String query = "SELECT * FROM " + entityTypeTable;
-        return conn.createQuery(query).executeAndFetch(EavEntityType.class);
+        return timed("getEntityTypes", () -> {
+            List<EavEntityType> cached = schema.getEntityTypes();
+            if (cached != null) return cached;
+            long generation = schema.getGeneration();
+            try (Connection conn = db.open()) {
+                String query = sql.entityTypes;
+                List<EavEntityType> list = conn.createQuery(query).executeAndFetch(EavRowMappers.ENTITY_TYPE);
+                schema.putEntityTypes(list, generation);
+                return list;
+            }
+        });
     }
 
     public List<EavEntityType> getEntityTypesByIds(Collection<Integer> ids) {
-        String query = "SELECT * FROM " + entityTypeTable + " WHERE id IN (:ids)";
-        StringBuilder idsStr = new StringBuilder();
-        for (Integer id : ids) {
-            idsStr.append(id.toString()).append(",");
-        }
-        idsStr.deleteCharAt(idsStr.length() - 1);
-        return conn.createQuery(query)
-                .addParameter("ids", idsStr)
-                .executeAndFetch(EavEntityType.class);
+        return timed("getEntityTypesByIds", () -> {
+            try (Connection conn = db.open()) {
+                if (ids.isEmpty()) return new ArrayList<EavEntityType>();
+                String query = sql.entityTypesByIds;
+                return conn.createQuery(query)
+                        .addParameter("ids", new ArrayList<>(ids))
+                        .executeAndFetch(EavRowMappers.ENTITY_TYPE);
+            }
+        });
     }
 
     public EavEntityType getEntityTypeById(int id) {
-        String query = "SELECT * FROM " + entityTypeTable + " WHERE id = :id";
-        return conn.createQuery(query)
-                .addParameter("id", id)
-                .executeAndFetchFirst(EavEntityType.class);
+        return timed("getEntityTypeById", () -> {
+            EavEntityType cached = schema.getEntityType(id);
+            if (cached != null) return cached;
+            long generation = schema.getGeneration();
+            try (Connection conn = db.open()) {
+                String query = sql.entityTypeById;
+                EavEntityType et = conn.createQuery(query)
+                        .addParameter("id", id)
+                        .executeAndFetchFirst(EavRowMappers.ENTITY_TYPE);
+                schema.putEntityType(et, generation);
+                return et;
+            }
+        });
     }
 
-    public EavEntityType createEntityType(String name) {
-        String query = "INSERT INTO " + entityTypeTable + " (entity_type) "
-                + "VALUES (:entity_type)";
-        conn.createQuery(query)
-                .addParameter("entity_type", name)
-                .executeUpdate();
+    public EavEntityType getEntityTypeByName(String name) {
+        return timed("getEntityTypeByName", () -> {
+            EavEntityType cached = schema.getEntityType(name);
+            if (cached != null) return cached;
+            long generation = schema.getGeneration();
+            try (Connection conn = db.open()) {
+                String query = sql.entityTypeByName;
+                EavEntityType et = conn.createQuery(query)
+                        .addParameter("entity_type", name)
+                        .executeAndFetchFirst(EavRowMappers.ENTITY_TYPE);
+                schema.putEntityType(et, generation);
+                return et;
+            }
+        });
+    }
 
-        return getEntityTypeById(getLastId());
+    public EavEntityType createEntityType(String name) {
+        return timed("createEntityType", () -> {
+            EavEntityType et;
+            try (Connection conn = db.open()) {
+                String query = sql.insertEntityType;
+                int id = conn.createQuery(query, true)
+                        .addParameter("entity_type", name)
+                        .executeUpdate()
+                        .getKey(Integer.class);
+                // read back created_at as the database set it
+                et = conn.createQuery(sql.entityTypeById)
+                        .addParameter("id", id)
+                        .executeAndFetchFirst(EavRowMappers.ENTITY_TYPE);
+            }
+            if (et == null) {
+                throw new RuntimeException("Err: Failed to create entity type");
+            }
+            schema.invalidateEntityTypeList();
+            publish(EavChange.Action.CREATED, EavChange.Target.ENTITY_TYPE, et.getId(), null, et.getId(), et);
+            return et;
+        });
     }
 
     public boolean deleteEntityType(EavEntityType entityType) {
-        String query1 = "DELETE FROM " + entityTypeTable + " WHERE id = :id";
-        int results = conn.createQuery(query1)
-                .addParameter("id", entityType.getId())
-                .executeUpdate()
-                .getResult();
+        return timed("deleteEntityType", () -> {
+            try (Connection conn = db.open()) {
+                String query1 = sql.deleteEntityType;
+                int results = conn.createQuery(query1)
+                        .addParameter("id", entityType.getId())
+                        .executeUpdate()
+                        .getResult();
+                schema.invalidateEntityType(entityType.getId());
+                metrics.addAffected("deleteEntityType", results);
+                if (results > 0) {
+                    wide.disable(entityType.getId());
+                    publish(EavChange.Action.DELETED, EavChange.Target.ENTITY_TYPE, entityType.getId(), null, entityType.getId(), null);
+                }
+
+                return results > 0;
+            }
+        });
+    }
 
-        return results > 0;
+    // removes the type with all of its entities, attributes and values
+    public boolean deleteEntityTypeCascade(EavEntityType entityType) {
+        return timed("deleteEntityTypeCascade", () -> cascadeEntityType(entityType, null));
+    }
+
+    public EavDeleteJob deleteEntityTypeAsync(EavEntityType entityType) {
+        // total is filled in once the cascade has counted the children
+        return submitDelete("entityType:" + entityType.getId(), 0, job -> cascadeEntityType(entityType, job));
+    }
+
+    private boolean cascadeEntityType(EavEntityType entityType, EavDeleteJob job) {
+        String op = "deleteEntityTypeCascade";
+        List<Integer> entityIds;
+        List<Integer> attrIds;
+        try (Connection conn = db.open()) {
+            entityIds = conn.createQuery(sql.entityIdsByType)
+                    .addParameter("id", entityType.getId())
+                    .executeScalarList(Integer.class);
+            attrIds = conn.createQuery(sql.attributeIdsByType)
+                    .addParameter("id", entityType.getId())
+                    .executeScalarList(Integer.class);
+        }
+        if (job != null) job.setTotal(entityIds.size() + attrIds.size() + 1);
+        try {
+            deleteChunked(op, "entity_id", entityTable, entityIds, job);
+            deleteChunked(op, "attr_id", attributeTable, attrIds, job);
+            int results = deleteChunked(op, null, entityTypeTable,
+                    Collections.singletonList(entityType.getId()), job);
+            return results > 0;
+        } finally {
+            schema.invalidateEntityType(entityType.getId());
+            wide.disable(entityType.getId());
+        }
     }
     // endregion entityType
 
     // region entity
     public List<EavEntity> getEntities() {
-        String query = "SELECT * FROM " + entityTable;
-        return conn.createQuery(query).executeAndFetch(EavEntity.class);
+        return timed("getEntities", () -> {
+            try (Connection conn = reader().open()) {
+                String query = sql.entities;
+                return conn.createQuery(query).executeAndFetch(EavRowMappers.ENTITY);
+            }
+        });
     }
 
     public List<EavEntity> getEntities(EavEntityType entityType) {
-        String query = "SELECT * FROM " + entityTable + " WHERE entity_type_id = " + entityType.getId();
-        return conn.createQuery(query).executeAndFetch(EavEntity.class);
+        return timed("getEntities.byType", () -> {
+            try (Connection conn = reader().open()) {
+                return conn.createQuery(sql.entitiesByType)
+                        .addParameter("id", entityType.getId())
+                        .executeAndFetch(EavRowMappers.ENTITY);
+            }
+        });
     }
 
     public EavEntity getEntityById(int entityId) {
-        String query = "SELECT * FROM " + entityTable + " WHERE id = :id";
-        return conn.createQuery(query)
-                .addParameter("id", entityId)
-                .executeAndFetchFirst(EavEntity.class);
+        return timed("getEntityById", () -> {
+            try (Connection conn = reader().open()) {
+                String query = sql.entityById;
+                return conn.createQuery(query)
+                        .addParameter("id", entityId)
+                        .executeAndFetchFirst(EavRowMappers.ENTITY);
+            }
+        });
     }
 
     public EavEntity createEntity(String entity_type, String entity) {
-        if (entity.isEmpty() || entity_type.isEmpty()) {
-            throw new IllegalArgumentException("Err: parameters cannot be empty");
-        }
-        String query = "CALL create_eav_entity(:entity_type, :entity);";
-        conn.createQuery(query)
-                .addParameter("entity_type", entity_type)
-                .addParameter("entity", entity)
-                .executeUpdate();
+        return timed("createEntity", () -> {
+            if (entity.isEmpty() || entity_type.isEmpty()) {
+                throw new IllegalArgumentException("Err: parameters cannot be empty");
+            }
+            try (Connection conn = db.open()) {
+                // procedure returns the created row
+                String query = sql.createEntity;
+                EavEntity created = conn.createQuery(query)
+                        .addParameter("entity_type", entity_type)
+                        .addParameter("entity", entity)
+                        .executeAndFetchFirst(EavRowMappers.ENTITY);
+                if (created == null) {
+                    throw new RuntimeException("Err: Failed to create entity");
+                }
 
-        // fetch new resources
-        String query_a = "SELECT * FROM " + entityTypeTable + " WHERE entity_type = :entity_type";
-        List<EavEntityType> list_a = conn.createQuery(query_a)
-                .addParameter("entity_type", entity_type)
-                .executeAndFetch(EavEntityType.class);
-        if (list_a.isEmpty()) {
-            throw new RuntimeException("Err: Failed to create entity_type");
-        }
-
-        String query_b = "SELECT * FROM " + entityTable + " WHERE entity = :entity AND entity_type_id = :entity_type_id";
-        List<EavEntity> list_b = conn.createQuery(query_b)
-                .addParameter("entity", entity)
-                .addParameter("entity_type_id", list_a.get(0).getId())
-                .executeAndFetch(EavEntity.class);
-        if (list_b.isEmpty()) {
-            throw new RuntimeException("Err: Failed to create entity");
-        }
+                // procedure may have created the entity type
+                if (schema.getEntityType(entity_type) == null) {
+                    schema.invalidateEntityTypeList();
+                }
+                wide.refreshEntities(created.getEntityTypeId(), Collections.singletonList(created.getId()));
+                search.onEntityWritten(created.getId(), created.getEntity());
+                publish(EavChange.Action.CREATED, EavChange.Target.ENTITY, created.getEntityTypeId(), created.getId(), created.getId(), created);
 
-        return list_b.get(0);
+                return created;
+            }
+        });
     }
 
     public EavEntity updateEntity(EavEntity updated) {
-        String query = "UPDATE " + entityTable + " SET entity = :entity WHERE id = :id";
-        conn.createQuery(query)
-                .addParameter("entity", updated.getEntity())
-                .addParameter("id", updated.getId())
-                .executeUpdate();
-        return getEntityById(getLastId());
+        return timed("updateEntity", () -> {
+            EavEntity row;
+            try (Connection conn = db.open()) {
+                String query = sql.updateEntity;
+                conn.createQuery(query)
+                        .addParameter("entity", updated.getEntity())
+                        .addParameter("id", updated.getId())
+                        .executeUpdate();
+                // the caller only sends id and name, return the stored row with its type and created_at
+                row = conn.createQuery(sql.entityById)
+                        .addParameter("id", updated.getId())
+                        .executeAndFetchFirst(EavRowMappers.ENTITY);
+            }
+            if (row == null) {
+                throw new IllegalArgumentException("Err: entity not found");
+            }
+            wide.refreshEntities(row.getEntityTypeId(), Collections.singletonList(row.getId()));
+            search.onEntityWritten(row.getId(), row.getEntity());
+            publish(EavChange.Action.UPDATED, EavChange.Target.ENTITY, row.getEntityTypeId(),
+                    row.getId(), row.getId(), row);
+            return row;
+        });
     }
 
     public boolean deleteEntity(EavEntity entity) {
-        // delete all values for entity
-        String query1 = "DELETE FROM " + valueTable + " WHERE entity_id = :entity_id";
-        int results = conn.createQuery(query1)
-                .addParameter("entity_id", entity.getId())
-                .executeUpdate()
-                .getResult();
-        System.out.println("Deleted values: " + results);
-        // delete entity
-        String query2 = "DELETE FROM " + entityTable + " WHERE id = :entity_id";
-        int results2 = conn.createQuery(query2)
-                .addParameter("entity_id", entity.getId())
-                .executeUpdate()
-                .getResult();
-        System.out.println("Deleted entity: " + results2);
-
-        return results2 > 0;
+        return timed("deleteEntity", () -> {
+            int results = deleteChunked("deleteEntity", "entity_id", entityTable,
+                    Collections.singletonList(entity.getId()), null);
+            return results > 0;
+        });
     }
 
     public boolean deleteEntities(Collection<EavEntity> entities) {
-        if (entities.isEmpty()) {
-            return true;
-        }
+        return timed("deleteEntities", () -> {
+            if (entities.isEmpty()) {
+                return true;
+            }
+
+            int results = deleteChunked("deleteEntities", "entity_id", entityTable, entityIds(entities), null);
+            return results > 0;
+        });
+    }
 
-        StringBuilder idList = new StringBuilder();
+    public EavDeleteJob deleteEntitiesAsync(Collection<EavEntity> entities) {
+        List<Integer> ids = entityIds(entities);
+        return submitDelete("entities", ids.size(),
+                job -> deleteChunked("deleteEntities", "entity_id", entityTable, ids, job) > 0);
+    }
+
+    private static List<Integer> entityIds(Collection<EavEntity> entities) {
+        List<Integer> ids = new ArrayList<>(entities.size());
         for (EavEntity e : entities) {
-            idList.append(e.getId()).append(",");
-        }
-        idList.deleteCharAt(idList.length() - 1);
-
-        // delete all values for entities
-        String query1 = "DELETE FROM " + valueTable + " WHERE entity_id IN (:entity_ids)";
-        int results = conn.createQuery(query1)
-                .addParameter("entity_ids", idList)
-                .executeUpdate()
-                .getResult();
-        System.out.println("Deleted values: " + results);
-        // delete entity
-        String query2 = "DELETE FROM " + entityTable + " WHERE id IN (:entity_ids)";
-        int results2 = conn.createQuery(query2)
-                .addParameter("entity_ids", idList)
-                .executeUpdate()
-                .getResult();
-        System.out.println("Deleted entities: " + results2);
-
-        return results2 > 0;
+            ids.add(e.getId());
+        }
+        return ids;
     }
     // endregion entity
 
+    // region entity summary
+    // entity + entity type name, one row per entity, for listings
+    public List<EavView> getEntitySummaries(Integer entityTypeId) {
+        return timed("getEntitySummaries", () -> {
+            String query = entityTypeId != null ? sql.entitySummariesByType : sql.entitySummaries;
+            try (Connection conn = reader().open()) {
+                Query q = conn.createQuery(query);
+                if (entityTypeId != null) q.addParameter("t", entityTypeId);
+                return q.executeAndFetch(EavRowMappers.VIEW);
+            }
+        });
+    }
+
+    // pages by entity id, the type name comes from a hash join against the cached entity types
+    public EavPage<EavView> getEntitySummaries(Integer entityTypeId, String after, int limit) {
+        return timed("getEntitySummaries.page", () -> {
+            if (limit < 1 || limit > MAX_PAGE_SIZE) {
+                throw new IllegalArgumentException("Err: limit must be between 1 and " + MAX_PAGE_SIZE);
+            }
+            int afterId = parseIdCursor(after);
+            // (entity_type_id) index carries the primary key, so both forms are index range scans in id order
+            String query = entityTypeId != null ? sql.entityPageByType : sql.entityPage;
+            List<EavEntity> entities;
+            try (Connection conn = reader().open()) {
+                Query q = conn.createQuery(query)
+                        .addParameter("after", afterId)
+                        .addParameter("limit", limit);
+                if (entityTypeId != null) q.addParameter("t", entityTypeId);
+                entities = q.executeAndFetch(EavRowMappers.ENTITY);
+            }
+
+            Map<Integer, EavEntityType> types = entityTypeIndex();
+            for (EavEntity e : entities) {
+                if (!types.containsKey(e.getEntityTypeId())) {
+                    // type created since the cache was filled
+                    schema.invalidateEntityTypeList();
+                    types = entityTypeIndex();
+                    break;
+                }
+            }
+            List<EavView> rows = new ArrayList<>(entities.size());
+            for (EavEntity e : entities) {
+                rows.add(toSummary(e, types.get(e.getEntityTypeId())));
+            }
+            String next = entities.size() < limit ? null : String.valueOf(entities.get(entities.size() - 1).getId());
+            return new EavPage<>(rows, next);
+        });
+    }
+
+    // cursor for pages ordered by entity id, null/empty means start from the beginning
+    private static int parseIdCursor(String after) {
+        if (after == null || after.isEmpty()) return 0;
+        try {
+            return Integer.parseInt(after);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Err: invalid cursor: " + after);
+        }
+    }
+
+    private Map<Integer, EavEntityType> entityTypeIndex() {
+        List<EavEntityType> list = getEntityTypes();
+        Map<Integer, EavEntityType> out = new HashMap<>(list.size() * 2);
+        for (EavEntityType t : list) {
+            out.put(t.getId(), t);
+        }
+        return out;
+    }
+
+    private static EavView toSummary(EavEntity entity, EavEntityType type) {
+        EavView v = new EavView();
+        v.setEntityTypeId(entity.getEntityTypeId());
+        v.setEntityId(entity.getId());
+        v.setEntity(entity.getEntity());
+        v.setCreatedAt(entity.getCreatedAt());
+        if (type != null) v.setEntityType(type.getEntityType());
+        return v;
+    }
+    // endregion entity summary
+
     // region attribute
     public List<EavAttribute> getAttributes() {
-        String query = "SELECT * FROM " + attributeTable;
-        return conn.createQuery(query).executeAndFetch(EavAttribute.class);
+        return timed("getAttributes", () -> {
+            try (Connection conn = reader().open()) {
+                String query = sql.attributes;
+                return conn.createQuery(query).executeAndFetch(EavRowMappers.ATTRIBUTE);
+            }
+        });
     }
 
     public List<EavAttribute> getAttributes(EavEntityType entityType) {
-        String query = "SELECT * FROM " + attributeTable + " WHERE entity_type_id = :id";
-        return conn.createQuery(query)
-                .addParameter("id", entityType.getId())
-                .executeAndFetch(EavAttribute.class);
+        return timed("getAttributes.byType", () -> {
+            return getAttributesForType(entityType.getId());
+        });
     }
 
     public List<EavAttribute> getAttributes(EavEntity entity) {
-        String query = "SELECT * FROM " + attributeTable + " WHERE entity_type_id = :id";
-        return conn.createQuery(query)
-                .addParameter("id", entity.getEntityTypeId())
-                .executeAndFetch(EavAttribute.class);
+        return timed("getAttributes.byEntity", () -> {
+            return getAttributesForType(entity.getEntityTypeId());
+        });
+    }
+
+    public List<EavAttribute> getAttributesForType(int entityTypeId) {
+        return timed("getAttributesForType", () -> {
+            List<EavAttribute> cached = schema.getAttributes(entityTypeId);
+            if (cached != null) return cached;
+            long generation = schema.getGeneration();
+            try (Connection conn = db.open()) {
+                String query = sql.attributesByType;
+                List<EavAttribute> list = conn.createQuery(query)
+                        .addParameter("id", entityTypeId)
+                        .executeAndFetch(EavRowMappers.ATTRIBUTE);
+                schema.putAttributes(entityTypeId, list, generation);
+                return list;
+            }
+        });
     }
 
     public EavAttribute getAttributeById(int attrId) {
-        String query = "SELECT * FROM " + attributeTable + " WHERE id = :id";
-        return conn.createQuery(query)
-                .addParameter("id", attrId)
-                .executeAndFetchFirst(EavAttribute.class);
+        return timed("getAttributeById", () -> {
+            EavAttribute cached = schema.getAttribute(attrId);
+            if (cached != null) return cached;
+            long generation = schema.getGeneration();
+            try (Connection conn = db.open()) {
+                String query = sql.attributeById;
+                EavAttribute attr = conn.createQuery(query)
+                        .addParameter("id", attrId)
+                        .executeAndFetchFirst(EavRowMappers.ATTRIBUTE);
+                schema.putAttribute(attr, generation);
+                return attr;
+            }
+        });
     }
 
     public EavAttribute createAttribute(Integer entityTypeId, String attributeName, ValueType attributeType, boolean allowMultiple) {
-        if (entityTypeId == null || attributeName.isEmpty() || attributeType == null) {
-            throw new IllegalArgumentException("Err: invalid parameters");
-        }
-        String query = "CALL create_eav_attr(:attr, :attr_type, :entity_type_id, :allow_multiple);";
-        conn.createQuery(query)
-                .addParameter("attr", attributeName)
-                .addParameter("attr_type", attributeType.getValue())
-                .addParameter("entity_type_id", entityTypeId)
-                .addParameter("allow_multiple", allowMultiple)
-                .executeUpdate();
-
-        return getAttributeById(getLastId());
+        return timed("createAttribute", () -> {
+            if (entityTypeId == null || attributeName.isEmpty() || attributeType == null) {
+                throw new IllegalArgumentException("Err: invalid parameters");
+            }
+            EavAttribute created;
+            try (Connection conn = db.open()) {
+                // procedure returns the created row
+                String query = sql.createAttribute;
+                created = conn.createQuery(query)
+                        .addParameter("attr", attributeName)
+                        .addParameter("attr_type", attributeType.getValue())
+                        .addParameter("entity_type_id", entityTypeId)
+                        .addParameter("allow_multiple", allowMultiple)
+                        .executeAndFetchFirst(EavRowMappers.ATTRIBUTE);
+            }
+            if (created == null) {
+                throw new RuntimeException("Err: Failed to create attribute");
+            }
+            schema.invalidateAttribute(created.getId(), entityTypeId);
+            schema.putAttribute(created, schema.getGeneration());
+            wide.invalidate(entityTypeId);
+            publish(EavChange.Action.CREATED, EavChange.Target.ATTRIBUTE, entityTypeId, null, created.getId(), created);
+            return created;
+        });
     }
 
     public EavAttribute updateAttribute(EavAttribute updated) {
-        String query = "UPDATE " + attributeTable + " SET value_type = :vt, allow_multiple = :am WHERE id = :id";
-        conn.createQuery(query)
-                .addParameter("vt", updated.getValueType())
-                .addParameter("am", updated.isAllowMultiple())
-                .addParameter("id", updated.getId())
-                .executeUpdate();
-        return getAttributeById(getLastId());
+        return timed("updateAttribute", () -> {
+            if (updated.getValueType() == null) {
+                throw new IllegalArgumentException("Err: invalid parameters");
+            }
+            EavAttribute previous = schema.getAttribute(updated.getId());
+            EavAttribute result;
+            try (Connection conn = db.open()) {
+                String query = sql.updateAttribute;
+                int matched = conn.createQuery(query)
+                        .addParameter("vt", updated.getValueType().getValue())
+                        .addParameter("am", updated.isAllowMultiple())
+                        .addParameter("id", updated.getId())
+                        .executeUpdate()
+                        .getResult();
+                // read the row back, name, entity type and created_at are not part of the request
+                result = matched == 0 ? null : conn.createQuery(sql.attributeById)
+                        .addParameter("id", updated.getId())
+                        .executeAndFetchFirst(EavRowMappers.ATTRIBUTE);
+            } finally {
+                if (previous != null) {
+                    schema.invalidateAttribute(previous.getId(), previous.getEntityTypeId());
+                }
+            }
+            if (result == null) {
+                throw new IllegalArgumentException("Err: attribute not found");
+            }
+            schema.invalidateAttribute(result.getId(), result.getEntityTypeId());
+            invalidateWide(Collections.singletonList(result));
+            schema.putAttribute(result, schema.getGeneration());
+            if (previous == null || previous.getValueType() != result.getValueType()) {
+                search.onAttributeChanged(result.getId(), result.getValueType());
+            }
+            publish(EavChange.Action.UPDATED, EavChange.Target.ATTRIBUTE, nullIfZero(result.getEntityTypeId()),
+                    null, result.getId(), result);
+            return result;
+        });
     }
 
     public boolean deleteAttribute(EavAttribute attribute) {
-        // delete all values for attribute
-        String query1 = "DELETE FROM " + valueTable + " WHERE attr_id = :attr_id";
-        int results = conn.createQuery(query1)
-                .addParameter("attr_id", attribute.getId())
-                .executeUpdate()
-                .getResult();
-        System.out.println("Deleted values: " + results);
-        // delete attribute
-        String query2 = "DELETE FROM " + attributeTable + " WHERE id = :attr_id";
-        int results2 = conn.createQuery(query2)
-                .addParameter("attr_id", attribute.getId())
-                .executeUpdate()
-                .getResult();
-        System.out.println("Deleted attribute: " + results2);
-
-        return results2 > 0;
+        return timed("deleteAttribute", () -> {
+            try {
+                int results = deleteChunked("deleteAttribute", "attr_id", attributeTable,
+                        Collections.singletonList(attribute.getId()), null);
+                return results > 0;
+            } finally {
+                schema.invalidateAttribute(attribute.getId(), attribute.getEntityTypeId());
+                invalidateWide(Collections.singletonList(attribute));
+            }
+        });
     }
 
     public boolean deleteAttributes(Collection<EavAttribute> attributes) {
-        if (attributes.isEmpty()) {
-            return true;
+        return timed("deleteAttributes", () -> {
+            if (attributes.isEmpty()) {
+                return true;
+            }
+
+            try {
+                int results = deleteChunked("deleteAttributes", "attr_id", attributeTable, attributeIds(attributes), null);
+                return results > 0;
+            } finally {
+                schema.invalidateAttributes(attributes);
+                invalidateWide(attributes);
+            }
+        });
+    }
+
+    public EavDeleteJob deleteAttributesAsync(Collection<EavAttribute> attributes) {
+        List<Integer> ids = attributeIds(attributes);
+        List<EavAttribute> copy = new ArrayList<>(attributes);
+        return submitDelete("attributes", ids.size(), job -> {
+            try {
+                return deleteChunked("deleteAttributes", "attr_id", attributeTable, ids, job) > 0;
+            } finally {
+                schema.invalidateAttributes(copy);
+                invalidateWide(copy);
+            }
+        });
+    }
+
+    // attributes passed in by id only carry no entity type, every wide table has to be rebuilt then
+    private void invalidateWide(Collection<EavAttribute> attributes) {
+        for (EavAttribute a : attributes) {
+            columns.evict(a.getId());
+            aggregates.invalidateAttribute(a.getId());
         }
+        for (EavAttribute a : attributes) {
+            if (a.getEntityTypeId() == 0) {
+                for (Integer typeId : wide.getEnabledTypes()) wide.invalidate(typeId);
+                return;
+            }
+            wide.invalidate(a.getEntityTypeId());
+        }
+    }
 
-        StringBuilder idList = new StringBuilder();
+    private static List<Integer> attributeIds(Collection<EavAttribute> attributes) {
+        List<Integer> ids = new ArrayList<>(attributes.size());
         for (EavAttribute a : attributes) {
-            idList.append(a.getId()).append(",");
-        }
-        idList.deleteCharAt(idList.length() - 1);
-
-        // delete all values for entities
-        String query1 = "DELETE FROM " + valueTable + " WHERE attr_id IN (:attr_ids)";
-        int results = conn.createQuery(query1)
-                .addParameter("attr_ids", idList)
-                .executeUpdate()
-                .getResult();
-        System.out.println("Deleted values: " + results);
-        // delete entity
-        String query2 = "DELETE FROM " + attributeTable + " WHERE id IN (:attr_ids)";
-        int results2 = conn.createQuery(query2)
-                .addParameter("attr_ids", idList)
-                .executeUpdate()
-                .getResult();
-        System.out.println("Deleted attributes: " + results2);
-
-        return results2 > 0;
+            ids.add(a.getId());
+        }
+        return ids;
     }
     // endregion attribute
 
     // region value
     public List<EavValue> getValues(EavEntity entity) {
-        String query = "SELECT * FROM " + valueTable + " WHERE entity_id = " + entity.getId();
-        return conn.createQuery(query).executeAndFetch(EavValue.class);
+        return timed("getValues", () -> {
+            try (Connection conn = reader().open()) {
+                return conn.createQuery(sql.valuesByEntity)
+                        .addParameter("id", entity.getId())
+                        .executeAndFetch(EavRowMappers.VALUE);
+            }
+        });
     }
 
     public EavValue getValueById(int valueId) {
-        String query = "SELECT * FROM " + valueTable + " WHERE id = :id";
-        return conn.createQuery(query)
-                .addParameter("id", valueId)
-                .executeAndFetchFirst(EavValue.class);
+        return timed("getValueById", () -> {
+            try (Connection conn = reader().open()) {
+                String query = sql.valueById;
+                return conn.createQuery(query)
+                        .addParameter("id", valueId)
+                        .executeAndFetchFirst(EavRowMappers.VALUE);
+            }
+        });
     }
 
     public EavValue createValue(EavEntity entity, EavAttribute attribute, Object value) {
-        if (entity.getId() == 0 || attribute.getId() == 0 || entity.getEntityTypeId() != attribute.getEntityTypeId()) {
-            throw new IllegalArgumentException("Err: invalid parameters");
-        }
-
-        String v1 = null;
-        Integer v2 = null;
-        Float v3 = null;
-        Instant v4 = null;
-        Boolean v5 = null;
+        return timed("createValue", () -> {
+            if (entity.getId() == 0 || attribute.getId() == 0 || entity.getEntityTypeId() != attribute.getEntityTypeId()) {
+                throw new IllegalArgumentException("Err: invalid parameters");
+            }
 
-        // fill value
-        if (value instanceof String && attribute.getValueType() == ValueType.STR) v1 = (String) value;
-        else if (value instanceof Integer && attribute.getValueType() == ValueType.INT) v2 = (Integer) value;
-        else if (value instanceof Float && attribute.getValueType() == ValueType.FLOAT) v3 = (Float) value;
-        else if (value instanceof Instant && attribute.getValueType() == ValueType.TIME) v4 = (Instant) value;
-        else if (value instanceof Boolean && attribute.getValueType() == ValueType.BOOL) v5 = (Boolean) value;
-        else {
-            throw new IllegalArgumentException("Err: invalid value provided");
-        }
+            try (Connection conn = db.open()) {
+                String v1 = null;
+                Integer v2 = null;
+                Float v3 = null;
+                Instant v4 = null;
+                Boolean v5 = null;
 
-        String query = "CALL create_eav_value(:entity_id, :attr_id, :v1, :v2, :v3, :v4, :v5);";
-        conn.createQuery(query)
-                .addParameter("entity_id", entity.getId())
-                .addParameter("attr_id", attribute.getId())
-                .addParameter("v1", v1)
-                .addParameter("v2", v2)
-                .addParameter("v3", v3)
-                .addParameter("v4", v4)
-                .addParameter("v5", v5)
-                .executeUpdate()
-                .getKey();
+                // fill value
+                if (value instanceof String && attribute.getValueType() == ValueType.STR) v1 = (String) value;
+                else if (value instanceof Integer && attribute.getValueType() == ValueType.INT) v2 = (Integer) value;
+                else if (value instanceof Float && attribute.getValueType() == ValueType.FLOAT) v3 = (Float) value;
+                else if (value instanceof Instant && attribute.getValueType() == ValueType.TIME) v4 = (Instant) value;
+                else if (value instanceof Boolean && attribute.getValueType() == ValueType.BOOL) v5 = (Boolean) value;
+                else {
+                    throw new IllegalArgumentException("Err: invalid value provided");
+                }
 
-        return getValueById(getLastId());
+                // procedure returns the created row
+                String query = sql.createValue;
+                return afterValueWrite(conn.createQuery(query)
+                        .addParameter("entity_id", entity.getId())
+                        .addParameter("attr_id", attribute.getId())
+                        .addParameter("v1", v1)
+                        .addParameter("v2", v2)
+                        .addParameter("v3", v3)
+                        .addParameter("v4", v4)
+                        .addParameter("v5", v5)
+                        .executeAndFetchFirst(EavRowMappers.VALUE), EavChange.Action.CREATED);
+            }
+        });
     }
 
     // bypass java validation
     public EavValue unsafeCreateValue(EavValue value) {
-        String query = "CALL create_eav_value(:entity_id, :attr_id, :v1, :v2, :v3, :v4, :v5);";
-        conn.createQuery(query)
-                .addParameter("entity_id", value.getEntityId())
-                .addParameter("attr_id", value.getAttrId())
-                .addParameter("v1", value.getValueStr())
-                .addParameter("v2", value.getValueInt())
-                .addParameter("v3", value.getValueFloat())
-                .addParameter("v4", value.getValueTime())
-                .addParameter("v5", value.getValueBool())
-                .executeUpdate();
+        return timed("unsafeCreateValue", () -> {
+            try (Connection conn = db.open()) {
+                // procedure returns the created row
+                String query = sql.createValue;
+                return afterValueWrite(conn.createQuery(query)
+                        .addParameter("entity_id", value.getEntityId())
+                        .addParameter("attr_id", value.getAttrId())
+                        .addParameter("v1", value.getValueStr())
+                        .addParameter("v2", value.getValueInt())
+                        .addParameter("v3", value.getValueFloat())
+                        .addParameter("v4", value.getValueTime())
+                        .addParameter("v5", value.getValueBool())
+                        .executeAndFetchFirst(EavRowMappers.VALUE), EavChange.Action.CREATED);
+            }
+        });
+    }
+
+    // bulk insert, validated in java and written as batched multi-row inserts in chunked transactions
+    public EavBatchResult createValues(List<EavValue> values) {
+        return timed("createValues", () -> {
+            EavBatchResult result = new EavBatchResult(values.size());
+            if (values.isEmpty()) {
+                return result;
+            }
+
+            // load definitions for everything referenced by the batch
+            Set<Integer> attrIds = new HashSet<>();
+            Set<Integer> entityIds = new HashSet<>();
+            for (EavValue v : values) {
+                attrIds.add(v.getAttrId());
+                entityIds.add(v.getEntityId());
+            }
+            Map<Integer, EavAttribute> attrs = new HashMap<>();
+            Map<Integer, Integer> entityTypes = new HashMap<>();
+            Set<Long> taken = new HashSet<>();
+            List<Integer> uncached = new ArrayList<>();
+            for (Integer attrId : attrIds) {
+                EavAttribute a = schema.getAttribute(attrId);
+                if (a != null) attrs.put(attrId, a);
+                else uncached.add(attrId);
+            }
+            long generation = schema.getGeneration();
+            try (Connection conn = db.open()) {
+                for (List<Integer> chunk : chunks(uncached)) {
+                    String query = sql.attributesByIds;
+                    for (EavAttribute a : conn.createQuery(query)
+                            .addParameter("ids", chunk)
+                            .executeAndFetch(EavRowMappers.ATTRIBUTE)) {
+                        attrs.put(a.getId(), a);
+                        schema.putAttribute(a, generation);
+                    }
+                }
+                for (List<Integer> chunk : chunks(entityIds)) {
+                    String query = sql.entitiesByIds;
+                    for (EavEntity e : conn.createQuery(query)
+                            .addParameter("ids", chunk)
+                            .executeAndFetch(EavRowMappers.ENTITY)) {
+                        entityTypes.put(e.getId(), e.getEntityTypeId());
+                    }
+                }
+                // single-valued attributes that already hold a value for an entity
+                List<Integer> singleAttrIds = new ArrayList<>();
+                for (EavAttribute a : attrs.values()) {
+                    if (!a.isAllowMultiple()) singleAttrIds.add(a.getId());
+                }
+                if (!singleAttrIds.isEmpty()) {
+                    for (List<Integer> chunk : chunks(entityTypes.keySet())) {
+                        String query = sql.valuesTaken;
+                        for (EavValue v : conn.createQuery(query)
+                                .addParameter("attr_ids", singleAttrIds)
+                                .addParameter("entity_ids", chunk)
+                                .executeAndFetch(EavRowMappers.VALUE)) {
+                            taken.add(pairKey(v.getEntityId(), v.getAttrId()));
+                        }
+                    }
+                }
+            }
+
+            // validate rows in java
+            List<Integer> valid = new ArrayList<>();
+            for (int i = 0; i < values.size(); i++) {
+                EavValue v = values.get(i);
+                Integer entityTypeId = entityTypes.get(v.getEntityId());
+                EavAttribute attr = attrs.get(v.getAttrId());
+                if (entityTypeId == null) {
+                    result.fail(i, "ERR: Entity not found");
+                } else if (attr == null || attr.getEntityTypeId() != entityTypeId) {
+                    result.fail(i, "ERR: Attribute not found");
+                } else if (!hasTypedValue(v, attr.getValueType())) {
+                    result.fail(i, "ERR: " + attr.getValueType().getValue() + " value not provided");
+                } else if (!attr.isAllowMultiple() && !taken.add(pairKey(v.getEntityId(), v.getAttrId()))) {
+                    result.fail(i, "ERR: Attribute does not allow multiple entries");
+                } else {
+                    valid.add(i);
+                }
+            }
+
+            // write valid rows, one transaction per chunk
+            for (List<Integer> chunk : chunks(valid)) {
+                // one batched insert per target table (a single one in the wide layout)
+                Map<String, List<Integer>> byQuery = new LinkedHashMap<>();
+                for (Integer i : chunk) {
+                    ValueType vt = attrs.get(values.get(i).getAttrId()).getValueType();
+                    byQuery.computeIfAbsent(sql.insertValue(vt), q -> new ArrayList<>()).add(i);
+                }
+                List<Integer> rows = new ArrayList<>(chunk.size());
+                List<Integer> keys = new ArrayList<>(chunk.size());
+                boolean committed = false;
+                Connection conn = db.beginTransaction();
+                try {
+                    for (Map.Entry<String, List<Integer>> batch : byQuery.entrySet()) {
+                        Query insert = conn.createQuery(batch.getKey(), true);
+                        for (Integer i : batch.getValue()) {
+                            EavValue v = values.get(i);
+                            bindValue(insert.addParameter("entity_id", v.getEntityId())
+                                    .addParameter("attr_id", v.getAttrId()), v, attrs.get(v.getAttrId()).getValueType())
+                                    .addToBatch();
+                        }
+                        List<Integer> batchKeys = insert.executeBatch().getKeys(Integer.class);
+                        rows.addAll(batch.getValue().subList(0, Math.min(batchKeys.size(), batch.getValue().size())));
+                        keys.addAll(batchKeys.subList(0, Math.min(batchKeys.size(), batch.getValue().size())));
+                    }
+                    conn.commit();
+                    committed = true;
+                } catch (RuntimeException e) {
+                    for (Integer i : chunk) {
+                        result.fail(i, "ERR: Batch insert failed -- " + e.getMessage());
+                    }
+                    continue;
+                } finally {
+                    // rollback also gives the connection back to the pool
+                    if (!committed) conn.rollback();
+                }
+
+                Map<Integer, List<EavValue>> written = new LinkedHashMap<>();
+                for (int k = 0; k < rows.size(); k++) {
+                    EavValue v = withId(values.get(rows.get(k)), keys.get(k));
+                    result.getIds().set(rows.get(k), keys.get(k));
+                    written.computeIfAbsent(v.getEntityId(), id -> new ArrayList<>()).add(v);
+                }
+                afterValuesCreated(written, entityTypes);
+            }
+
+            return result;
+        });
+    }
+
+    // the chunk is committed at this point, a failing projection must not report the rows as failed
+    private void afterValuesCreated(Map<Integer, List<EavValue>> written, Map<Integer, Integer> entityTypes) {
+        try {
+            for (List<EavValue> rows : written.values()) {
+                for (EavValue v : rows) {
+                    columns.onValueWritten(v);
+                    search.onValueWritten(v);
+                    aggregates.invalidateAttribute(v.getAttrId());
+                }
+            }
+            Map<Integer, List<Integer>> byType = new HashMap<>();
+            for (Integer entityId : written.keySet()) {
+                Integer typeId = entityTypes.get(entityId);
+                if (typeId != null) byType.computeIfAbsent(typeId, t -> new ArrayList<>()).add(entityId);
+            }
+            refreshWide(byType);
+            // one change per entity, carrying that entity's new rows
+            for (Map.Entry<Integer, List<EavValue>> e : written.entrySet()) {
+                List<Integer> ids = new ArrayList<>(e.getValue().size());
+                for (EavValue v : e.getValue()) ids.add(v.getId());
+                changes.publish(new EavChange(EavChange.Action.CREATED, EavChange.Target.VALUE,
+                        entityTypes.get(e.getKey()), e.getKey(), ids, e.getValue()));
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not refresh projections after a batch insert", e);
+        }
+    }
+
+    // the attribute's typed value: :v for a typed table, :v1 .. :v5 (others null) for the wide table
+    private Query bindValue(Query q, EavValue v, ValueType vt) {
+        if (layout.typed) return q.addParameter("v", EavColumnStore.typedValue(v, vt));
+        return q.addParameter("v1", vt == ValueType.STR ? v.getValueStr() : null)
+                .addParameter("v2", vt == ValueType.INT ? v.getValueInt() : null)
+                .addParameter("v3", vt == ValueType.FLOAT ? v.getValueFloat() : null)
+                .addParameter("v4", vt == ValueType.TIME ? v.getValueTime() : null)
+                .addParameter("v5", vt == ValueType.BOOL ? v.getValueBool() : null);
+    }
+
+    // copy of a submitted row with its generated key, the caller's object is left untouched
+    private static EavValue withId(EavValue v, int id) {
+        EavValue out = new EavValue();
+        out.setId(id);
+        out.setEntityId(v.getEntityId());
+        out.setAttrId(v.getAttrId());
+        out.setValueStr(v.getValueStr());
+        out.setValueInt(v.getValueInt());
+        out.setValueFloat(v.getValueFloat());
+        out.setValueTime(v.getValueTime());
+        out.setValueBool(v.getValueBool());
+        return out;
+    }
+
+    private static boolean hasTypedValue(EavValue v, ValueType vt) {
+        switch (vt) {
+            case STR:
+                return v.getValueStr() != null;
+            case INT:
+                return v.getValueInt() != null;
+            case FLOAT:
+                return v.getValueFloat() != null;
+            case TIME:
+                return v.getValueTime() != null;
+            case BOOL:
+                return v.getValueBool() != null;
+            default:
+                return false;
+        }
+    }
+
+    private static long pairKey(int entityId, int attrId) {
+        return ((long) entityId << 32) | (attrId & 0xffffffffL);
+    }
 
-        return getValueById(getLastId());
+    private static List<List<Integer>> chunks(Collection<Integer> ids) {
+        return chunks(ids, BATCH_CHUNK_SIZE);
+    }
+
+    private static List<List<Integer>> chunks(Collection<Integer> ids, int size) {
+        List<List<Integer>> out = new ArrayList<>();
+        List<Integer> current = new ArrayList<>(Math.min(ids.size(), size));
+        for (Integer id : ids) {
+            current.add(id);
+            if (current.size() == size) {
+                out.add(current);
+                current = new ArrayList<>(size);
+            }
+        }
+        if (!current.isEmpty()) out.add(current);
+        return out;
     }
 
     public EavValue updateValue(EavValue updated) {
-        String query = "UPDATE " + valueTable + " SET " +
-                " value_str = :v1, value_int = :v2, value_float = :v3, value_time = :v4, value_bool = :v5 " +
-                "WHERE id = :id";
-        conn.createQuery(query)
-                .addParameter("v1", updated.getValueStr())
-                .addParameter("v2", updated.getValueInt())
-                .addParameter("v3", updated.getValueFloat())
-                .addParameter("v4", updated.getValueTime())
-                .addParameter("v5", updated.getValueBool())
-                .addParameter("id", updated.getId())
-                .executeUpdate();
-        return getValueById(getLastId());
+        return timed("updateValue", () -> {
+            try (Connection conn = db.open()) {
+                // procedure returns the updated row
+                String query = sql.updateValue;
+                return afterValueWrite(conn.createQuery(query)
+                        .addParameter("id", updated.getId())
+                        .addParameter("v1", updated.getValueStr())
+                        .addParameter("v2", updated.getValueInt())
+                        .addParameter("v3", updated.getValueFloat())
+                        .addParameter("v4", updated.getValueTime())
+                        .addParameter("v5", updated.getValueBool())
+                        .executeAndFetchFirst(EavRowMappers.VALUE), EavChange.Action.UPDATED);
+            }
+        });
+    }
+
+    // write-behind: acknowledged once logged, written to the db by the next flush
+    // falls back to updateValue when write-behind is off
+    public EavValue bufferValueUpdate(EavValue updated) {
+        if (writeBuffer == null) return updateValue(updated);
+        return timed("bufferValueUpdate", () -> writeBuffer.update(updated, bufferedValueType(updated)));
+    }
+
+    // type the buffered update has to hold, from the stored row when the caller left attr_id out
+    private ValueType bufferedValueType(EavValue v) {
+        int attrId = v.getAttrId();
+        if (attrId == 0) {
+            try (Connection conn = db.open()) {
+                EavValue stored = conn.createQuery(sql.valueById)
+                        .addParameter("id", v.getId())
+                        .executeAndFetchFirst(EavRowMappers.VALUE);
+                if (stored == null) {
+                    throw new IllegalArgumentException("Err: value not found");
+                }
+                attrId = stored.getAttrId();
+            }
+        }
+        EavAttribute attr = getAttributeById(attrId);
+        if (attr == null) {
+            throw new IllegalArgumentException("Err: attribute not found");
+        }
+        return attr.getValueType();
+    }
+
+    public int flushValueUpdates() {
+        if (writeBuffer == null) return 0;
+        return timed("flushValueUpdates", writeBuffer::flush);
     }
 
     public boolean deleteValue(EavValue value) {
-        String query1 = "DELETE FROM " + valueTable + " WHERE entity_id = :value_id";
-        int result = conn.createQuery(query1)
-                .addParameter("entity_id", value.getId())
-                .executeUpdate()
-                .getResult();
+        return timed("deleteValue", () -> {
+            Map<Integer, List<Integer>> owners = wideOwners(sql.valueOwners, Collections.singletonList(value.getId()));
+            int result = 0;
+            try (Connection conn = db.open()) {
+                // typed layout: one statement per value table, the id is in at most one of them
+                for (String query1 : sql.deleteValue) {
+                    result += conn.createQuery(query1)
+                            .addParameter("value_id", value.getId())
+                            .executeUpdate()
+                            .getResult();
+                }
+                metrics.addAffected("deleteValue", result);
+            }
+            refreshWide(owners);
+            columns.onValuesDeleted(Collections.singletonList(value.getId()));
+            search.onValuesDeleted(Collections.singletonList(value.getId()));
+            if (value.getAttrId() != 0) aggregates.invalidateAttribute(value.getAttrId());
+            else aggregates.clear();
+            if (result > 0) {
+                EavAttribute attr = value.getAttrId() == 0 ? null : getAttributeById(value.getAttrId());
+                publish(EavChange.Action.DELETED, EavChange.Target.VALUE, attr == null ? null : attr.getEntityTypeId(),
+                        nullIfZero(value.getEntityId()), value.getId(), null);
+            }
 
-        return result > 0;
+            return result > 0;
+        });
     }
 
     public boolean deleteValues(Collection<EavValue> values) {
-        if (values.isEmpty()) {
-            return true;
+        return timed("deleteValues", () -> {
+            if (values.isEmpty()) {
+                return true;
+            }
+
+            List<Integer> ids = new ArrayList<>(values.size());
+            for (EavValue v : values) {
+                ids.add(v.getId());
+            }
+            int results = deleteChunked("deleteValues", null, valueTable, ids, null);
+            return results > 0;
+        });
+    }
+
+    // keeps the derived projections (wide tables, column store) in step with a single value write
+    private EavValue afterValueWrite(EavValue written, EavChange.Action action) {
+        if (written != null) {
+            EavAttribute attr = getAttributeById(written.getAttrId());
+            if (attr != null) wide.refreshEntities(attr.getEntityTypeId(), Collections.singletonList(written.getEntityId()));
+            columns.onValueWritten(written);
+            search.onValueWritten(written);
+            aggregates.invalidateAttribute(written.getAttrId());
+            publishValue(action, written);
         }
+        return written;
+    }
 
-        StringBuilder idList = new StringBuilder();
-        for (EavValue v : values) {
-            idList.append(v.getId()).append(",");
+    private void publishValue(EavChange.Action action, EavValue v) {
+        EavAttribute attr = getAttributeById(v.getAttrId());
+        publish(action, EavChange.Target.VALUE, attr == null ? null : attr.getEntityTypeId(), v.getEntityId(), v.getId(), v);
+    }
+
+    private void publish(EavChange.Action action, EavChange.Target target, Integer entityTypeId, Integer entityId,
+                         int id, Object data) {
+        changes.publish(new EavChange(action, target, entityTypeId, entityId, Collections.singletonList(id), data));
+    }
+
+    private static Integer nullIfZero(int id) {
+        return id == 0 ? null : id;
+    }
+
+    // buffered updates only carry the value columns, reread the rows for the derived projections
+    private void afterBufferedWrites(List<Integer> valueIds) {
+        Map<Integer, Set<Integer>> byType = new HashMap<>();
+        for (List<Integer> chunk : chunks(valueIds)) {
+            List<EavValue> rows;
+            try (Connection conn = db.open()) {
+                rows = conn.createQuery(sql.valuesByIds)
+                        .addParameter("ids", chunk)
+                        .executeAndFetch(EavRowMappers.VALUE);
+            }
+            for (EavValue v : rows) {
+                EavAttribute attr = getAttributeById(v.getAttrId());
+                if (attr != null) byType.computeIfAbsent(attr.getEntityTypeId(), t -> new HashSet<>()).add(v.getEntityId());
+                columns.onValueWritten(v);
+                search.onValueWritten(v);
+                aggregates.invalidateAttribute(v.getAttrId());
+                publishValue(EavChange.Action.UPDATED, v);
+            }
         }
-        idList.deleteCharAt(idList.length() - 1);
+        refreshWide(byType);
+    }
 
-        String query1 = "DELETE FROM " + valueTable + " WHERE id IN (:ids)";
-        int results = conn.createQuery(query1)
-                .addParameter("ids", idList)
-                .executeUpdate()
-                .getResult();
+    // entity ids by entity type for a query selecting (entity_type_id, entity_id), looked up before a delete
+    // so the wide rows of the owners can be refreshed after it
+    private Map<Integer, List<Integer>> wideOwners(String query, List<Integer> ids) {
+        if (wide.isEmpty() || ids.isEmpty()) return Collections.emptyMap();
+        Map<Integer, List<Integer>> out = new HashMap<>();
+        try (Connection conn = db.open()) {
+            for (Row r : conn.createQuery(query).addParameter("ids", ids).executeAndFetchTable().rows()) {
+                out.computeIfAbsent(r.getInteger("entity_type_id"), t -> new ArrayList<>()).add(r.getInteger("entity_id"));
+            }
+        }
+        return out;
+    }
 
-        return results > 0;
+    private void refreshWide(Map<Integer, ? extends Collection<Integer>> entityIdsByType) {
+        for (Map.Entry<Integer, ? extends Collection<Integer>> e : entityIdsByType.entrySet()) {
+            wide.refreshEntities(e.getKey(), e.getValue());
+        }
     }
     // endregion value
 
+    // region aggregate
+    // attributes are referenced by name within the entity type, groupBy is optional
+    public EavAggregate aggregate(int entityTypeId, String attr, String groupBy) {
+        List<EavAttribute> attrs = getAttributesForType(entityTypeId);
+        if (attrs.isEmpty() && getEntityTypeById(entityTypeId) == null) {
+            throw new IllegalArgumentException("Err: entity type not found");
+        }
+        EavAttribute a = findAttribute(attrs, null, attr);
+        EavAttribute g = groupBy == null || groupBy.isEmpty() ? null : findAttribute(attrs, null, groupBy);
+        return aggregate(a, g);
+    }
+
+    // count / distinct / min / max / sum / avg of one attribute's typed column, grouped in mysql
+    // by another attribute's value when groupBy is given; an entity with several group values counts in each
+    public EavAggregate aggregate(EavAttribute attribute, EavAttribute groupBy) {
+        return timed("aggregate", () -> {
+            if (groupBy != null && groupBy.getEntityTypeId() != attribute.getEntityTypeId()) {
+                throw new IllegalArgumentException("Err: group by attribute belongs to another entity type");
+            }
+            String key = EavAggregateCache.key(attribute.getId(), groupBy == null ? null : groupBy.getId());
+            EavAggregate cached = aggregates.get(key);
+            if (cached != null) return cached;
+            long loadedAt = aggregates.getGeneration();
+
+            ValueType vt = attribute.getValueType();
+            String col = "v." + vt.getColumn();
+            boolean numeric = vt == ValueType.INT || vt == ValueType.FLOAT || vt == ValueType.BOOL;
+            StringBuilder select = new StringBuilder("SELECT ")
+                    .append(groupBy == null ? "NULL" : "g." + groupBy.getValueType().getColumn()).append(" AS group_key, ")
+                    .append("COUNT(").append(col).append(") AS agg_count, ")
+                    .append("COUNT(DISTINCT v.entity_id) AS agg_entities, ")
+                    .append("COUNT(DISTINCT ").append(col).append(") AS agg_distinct, ")
+                    .append("MIN(").append(col).append(") AS agg_min, ")
+                    .append("MAX(").append(col).append(") AS agg_max, ")
+                    .append(numeric ? "SUM(" + col + ")" : "NULL").append(" AS agg_sum, ")
+                    .append(numeric ? "AVG(" + col + ")" : "NULL").append(" AS agg_avg")
+                    .append(" FROM ").append(layout.table(vt)).append(" v");
+            if (groupBy != null) {
+                select.append(" LEFT JOIN ").append(layout.table(groupBy.getValueType()))
+                        .append(" g ON g.entity_id = v.entity_id AND g.attr_id = :group_attr");
+            }
+            select.append(" WHERE v.attr_id = :attr_id AND ").append(col).append(" IS NOT NULL");
+            if (groupBy != null) {
+                select.append(" GROUP BY group_key ORDER BY group_key LIMIT ").append(MAX_PAGE_SIZE + 1);
+            }
+
+            List<Row> rows;
+            try (Connection conn = db.open()) {
+                Query query = conn.createQuery(select.toString())
+                        .addParameter("attr_id", attribute.getId());
+                if (groupBy != null) query.addParameter("group_attr", groupBy.getId());
+                rows = query.executeAndFetchTable().rows();
+            }
+
+            EavAggregate out = new EavAggregate();
+            out.setEntityTypeId(attribute.getEntityTypeId());
+            out.setAttrId(attribute.getId());
+            out.setAttr(attribute.getAttr());
+            out.setValueType(vt.getValue());
+            if (groupBy != null) {
+                out.setGroupByAttrId(groupBy.getId());
+                out.setGroupBy(groupBy.getAttr());
+            }
+            for (Row row : rows) {
+                if (out.getGroups().size() == MAX_PAGE_SIZE) {
+                    out.setTruncated(true);
+                    break;
+                }
+                EavAggregate.Group group = new EavAggregate.Group();
+                if (groupBy != null) group.setKey(aggregateValue(groupBy.getValueType(), row.getObject("group_key")));
+                group.setCount(((Number) row.getObject("agg_count")).longValue());
+                group.setEntities(((Number) row.getObject("agg_entities")).longValue());
+                group.setDistinct(((Number) row.getObject("agg_distinct")).longValue());
+                group.setMin(aggregateValue(vt, row.getObject("agg_min")));
+                group.setMax(aggregateValue(vt, row.getObject("agg_max")));
+                Object sum = row.getObject("agg_sum");
+                if (sum != null) {
+                    group.setSum(vt == ValueType.FLOAT ? (Number) ((Number) sum).doubleValue() : (Number) ((Number) sum).longValue());
+                }
+                Object avg = row.getObject("agg_avg");
+                if (avg != null) group.setAvg(((Number) avg).doubleValue());
+                out.getGroups().add(group);
+            }
+            aggregates.put(key, out, loadedAt);
+            return out;
+        });
+    }
+
+    // normalizes driver types (tinyint bools, Timestamp / LocalDateTime) to what the value endpoints return
+    private static Object aggregateValue(ValueType vt, Object value) {
+        if (value == null) return null;
+        switch (vt) {
+            case BOOL:
+                return value instanceof Boolean ? value : ((Number) value).intValue() != 0;
+            case TIME:
+                // stored as utc, same as EavValue.getValueTime
+                if (value instanceof java.sql.Timestamp) value = ((java.sql.Timestamp) value).toLocalDateTime();
+                if (value instanceof LocalDateTime) return ((LocalDateTime) value).toInstant(ZoneOffset.UTC).toString();
+                return value.toString();
+            case INT:
+                return ((Number) value).intValue();
+            case FLOAT:
+                return ((Number) value).floatValue();
+            default:
+                return value.toString();
+        }
+    }
+    // endregion aggregate
+
+    // region column store
+    // predicates evaluated against in-memory columns instead of the database, ids come back ascending
+    // (or descending) entity id order; ordering by attribute is left to queryEntities
+    public List<Integer> scanEntities(EavQuery q) {
+        return timed("scanEntities", () -> {
+            EavEntityType et = q.getEntityTypeId() != null
+                    ? getEntityTypeById(q.getEntityTypeId())
+                    : getEntityTypeByName(q.getEntityType() == null ? "" : q.getEntityType());
+            if (et == null) {
+                throw new IllegalArgumentException("Err: entity type not found");
+            }
+            if (q.getLimit() < 1 || q.getLimit() > MAX_PAGE_SIZE || q.getOffset() < 0) {
+                throw new IllegalArgumentException("Err: limit must be between 1 and " + MAX_PAGE_SIZE);
+            }
+            if (q.getWhere().isEmpty()) {
+                throw new IllegalArgumentException("Err: column scans need at least one predicate");
+            }
+            if (q.getOrderBy() != null) {
+                throw new IllegalArgumentException("Err: orderBy is not supported by column scans");
+            }
+            List<EavAttribute> attrs = getAttributesForType(et.getId());
+
+            int[] ids = null;
+            for (EavQuery.Predicate p : q.getWhere()) {
+                EavAttribute a = findAttribute(attrs, p.getAttrId(), p.getAttr());
+                int[] matched = columns.filter(a.getId(), p.getOp(), p.getValue());
+                ids = ids == null ? matched : EavColumnStore.intersect(ids, matched);
+                if (ids.length == 0) break;
+            }
+
+            List<Integer> out = new ArrayList<>(Math.min(ids.length, q.getLimit()));
+            for (int i = q.getOffset(); i < ids.length && out.size() < q.getLimit(); i++) {
+                out.add(q.isDescending() ? ids[ids.length - 1 - i] : ids[i]);
+            }
+            return out;
+        });
+    }
+
+    public EavColumnStore.Summary summarizeColumn(int attrId) {
+        return timed("summarizeColumn", () -> columns.summarize(attrId));
+    }
+    // endregion column store
+
+    // region wide tables
+    // materializes one row per entity of the type, kept up to date by the write paths above
+    public void enableWideTable(int entityTypeId) {
+        timed("enableWideTable", () -> {
+            if (getEntityTypeById(entityTypeId) == null) {
+                throw new IllegalArgumentException("Err: entity type not found");
+            }
+            wide.enable(entityTypeId);
+            return null;
+        });
+    }
+
+    public boolean disableWideTable(int entityTypeId) {
+        return timed("disableWideTable", () -> wide.disable(entityTypeId));
+    }
+
+    public Set<Integer> getWideTables() {
+        return wide.getEnabledTypes();
+    }
+
+    public EavPage<Map<String, Object>> getWideRows(int entityTypeId, String after, int limit) {
+        return timed("getWideRows", () -> {
+            if (limit < 1 || limit > MAX_PAGE_SIZE) {
+                throw new IllegalArgumentException("Err: limit must be between 1 and " + MAX_PAGE_SIZE);
+            }
+            int afterId = parseIdCursor(after);
+            return wide.getRows(entityTypeId, afterId, limit);
+        });
+    }
+
+    public Map<String, Object> getWideRow(int entityTypeId, int entityId) {
+        return timed("getWideRow", () -> wide.getRow(entityTypeId, entityId));
+    }
+    // endregion wide tables
+
+    // region search
+    // ranked matches of q in entity names and string values, from the in-memory index (word prefixes only
+    // for one or two characters); after is the offset returned as next by the previous page
+    public EavPage<EavSearchIndex.Hit> search(String q, String after, int limit) {
+        return timed("search", () -> {
+            if (q == null || q.trim().isEmpty()) {
+                throw new IllegalArgumentException("Err: search text cannot be empty");
+            }
+            if (limit < 1 || limit > MAX_PAGE_SIZE) {
+                throw new IllegalArgumentException("Err: limit must be between 1 and " + MAX_PAGE_SIZE);
+            }
+            int offset = parseIdCursor(after);
+            if (offset < 0) {
+                throw new IllegalArgumentException("Err: invalid cursor: " + after);
+            }
+            return search.search(q, offset, limit);
+        });
+    }
+    // endregion search
+
+    // region delete
+    public EavDeleteJob getDeleteJob(String id) {
+        return deleteJobs.get(id);
+    }
+
+    public List<EavDeleteJob> getDeleteJobs() {
+        List<EavDeleteJob> out = new ArrayList<>(deleteJobs.values());
+        out.sort(Comparator.comparing(EavDeleteJob::getStartedAt));
+        return out;
+    }
+
+    // deletes values referencing the parent ids (when valueColumn is set), then the parent rows.
+    // every statement autocommits on its own, so locks are held for one bounded chunk at a time
+    // and an interrupted cascade can simply be rerun. returns the number of parent rows deleted
+    private int deleteChunked(String op, String valueColumn, String parentTable, List<Integer> ids, EavDeleteJob job) {
+        int deleted = 0;
+        for (List<Integer> chunk : chunks(ids, DELETE_CHUNK_SIZE)) {
+            Map<Integer, List<Integer>> owners = parentTable.equals(valueTable) ? wideOwners(sql.valueOwners, chunk)
+                    : parentTable.equals(entityTable) ? wideOwners(sql.entityTypesOf, chunk) : null;
+            // values and their parents go in one transaction per chunk, a failure leaves the chunk whole
+            int results1 = 0;
+            int results2 = 0;
+            boolean committed = false;
+            Connection conn = db.beginTransaction();
+            try {
+                // one statement per value table in the typed layout
+                for (String query1 : valueColumn == null ? Collections.<String>emptyList() : sql.deleteValuesBy(valueColumn)) {
+                    int results;
+                    do {
+                        results = conn.createQuery(query1)
+                                .addParameter("ids", chunk)
+                                .addParameter("limit", DELETE_VALUE_LIMIT)
+                                .executeUpdate()
+                                .getResult();
+                        results1 += results;
+                    } while (results == DELETE_VALUE_LIMIT);
+                }
+                for (String query2 : sql.deleteByIds(parentTable)) {
+                    results2 += conn.createQuery(query2)
+                            .addParameter("ids", chunk)
+                            .executeUpdate()
+                            .getResult();
+                }
+                conn.commit();
+                committed = true;
+            } finally {
+                if (!committed) conn.rollback();
+            }
+            log.debug("Deleted values: {}", results1);
+            log.debug("Deleted from {}: {}", parentTable, results2);
+            metrics.addAffected(op, results1 + results2);
+            if (job != null) {
+                job.addDeletedValues(results1);
+                job.addDeleted(results2);
+            }
+            deleted += results2;
+            aggregates.clear();
+            if (results2 > 0) changes.publish(deletedChange(parentTable, chunk));
+            if (parentTable.equals(entityTable)) {
+                refreshWide(owners);
+                columns.onEntitiesDeleted(chunk);
+                search.onEntitiesDeleted(chunk);
+            } else if (parentTable.equals(attributeTable)) {
+                for (Integer attrId : chunk) columns.evict(attrId);
+                search.onAttributesDeleted(chunk);
+            } else if (owners != null) {
+                refreshWide(owners);
+                columns.onValuesDeleted(chunk);
+                search.onValuesDeleted(chunk);
+            }
+        }
+        return deleted;
+    }
+
+    // owners of bulk deleted rows are not looked up, these changes carry no entity type
+    private EavChange deletedChange(String parentTable, List<Integer> ids) {
+        EavChange.Target target = parentTable.equals(entityTypeTable) ? EavChange.Target.ENTITY_TYPE
+                : parentTable.equals(entityTable) ? EavChange.Target.ENTITY
+                : parentTable.equals(attributeTable) ? EavChange.Target.ATTRIBUTE
+                : EavChange.Target.VALUE;
+        Integer entityTypeId = target == EavChange.Target.ENTITY_TYPE && ids.size() == 1 ? ids.get(0) : null;
+        return new EavChange(EavChange.Action.DELETED, target, entityTypeId, null, new ArrayList<>(ids), null);
+    }
+
+    private EavDeleteJob submitDelete(String target, int total, Function<EavDeleteJob, Boolean> body) {
+        EavDeleteJob job = new EavDeleteJob(UUID.randomUUID().toString(), target, total);
+        pruneDeleteJobs();
+        deleteJobs.put(job.getId(), job);
+        // the submitting session reads from the primary until replicas have the deletes too
+        String session = replicas.currentSession();
+        replicas.markWrite(session);
+        deleteWorker.execute(() -> {
+            long start = System.nanoTime();
+            try {
+                body.apply(job);
+                metrics.record("deleteAsync", System.nanoTime() - start);
+                job.finish(null);
+            } catch (RuntimeException e) {
+                metrics.recordError("deleteAsync", System.nanoTime() - start);
+                log.warn("Background delete {} failed", job.getId(), e);
+                job.finish(e);
+            } finally {
+                replicas.markWrite(session);
+            }
+        });
+        return job;
+    }
+
+    private void pruneDeleteJobs() {
+        if (deleteJobs.size() < DELETE_JOB_HISTORY) return;
+        List<EavDeleteJob> finished = new ArrayList<>();
+        for (EavDeleteJob j : deleteJobs.values()) {
+            if (j.isFinished()) finished.add(j);
+        }
+        finished.sort(Comparator.comparing(EavDeleteJob::getStartedAt));
+        for (int i = 0; i < finished.size() && deleteJobs.size() >= DELETE_JOB_HISTORY; i++) {
+            deleteJobs.remove(finished.get(i).getId());
+        }
+    }
+    // endregion delete
+
     // region view
     public List<EavView> getEverything() {
-        String query = "SELECT * FROM all_possible_eav_data";
-        return conn.createQuery(query).executeAndFetch(EavView.class);
+        return timed("getEverything", () -> {
+            try (Connection conn = reader().open()) {
+                String query = sql.viewAll(EavStatements.VIEW_POSSIBLE);
+                return conn.createQuery(query).executeAndFetch(EavRowMappers.VIEW);
+            }
+        });
     }
 
     public List<EavView> getEveryValue() {
-        String query = "SELECT * FROM all_existing_eav_data";
-        return conn.createQuery(query).executeAndFetch(EavView.class);
+        return timed("getEveryValue", () -> {
+            try (Connection conn = reader().open()) {
+                String query = sql.viewAll(EavStatements.VIEW_EXISTING);
+                return conn.createQuery(query).executeAndFetch(EavRowMappers.VIEW);
+            }
+        });
+    }
+
+    public EavPage<EavView> getEverything(String after, int limit) {
+        return timed("getEverything.page", () -> {
+            return getViewPage(EavStatements.VIEW_POSSIBLE, EavCursor.parse(after), limit);
+        });
+    }
+
+    public EavPage<EavView> getEveryValue(String after, int limit) {
+        return timed("getEveryValue.page", () -> {
+            return getViewPage(EavStatements.VIEW_EXISTING, EavCursor.parse(after), limit);
+        });
+    }
+
+    // rows are handed to the consumer as they arrive, nothing is buffered
+    public void streamEverything(Consumer<EavView> consumer) {
+        timed("streamEverything", () -> {
+            streamView("streamEverything", EavStatements.VIEW_POSSIBLE, consumer);
+            return null;
+        });
+    }
+
+    public void streamEveryValue(Consumer<EavView> consumer) {
+        timed("streamEveryValue", () -> {
+            streamView("streamEveryValue", EavStatements.VIEW_EXISTING, consumer);
+            return null;
+        });
+    }
+
+    private EavPage<EavView> getViewPage(String view, EavCursor after, int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Err: limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        EavStatements.ViewPage page = sql.viewPage(view);
+        List<EavView> rows = new ArrayList<>(limit);
+        try (Connection conn = reader().open()) {
+            EavCursor from = after;
+            if (after.entityId == 0) {
+                // still in (or before) the rows without an entity, entity rows start over from the beginning
+                if (page.withoutEntity != null) {
+                    rows.addAll(conn.createQuery(page.withoutEntity)
+                            .addParameter("t", after.entityTypeId)
+                            .addParameter("a", after.attrId)
+                            .addParameter("limit", limit)
+                            .executeAndFetch(EavRowMappers.VIEW));
+                }
+                from = EavCursor.START;
+            } else {
+                rows.addAll(conn.createQuery(page.entityRest)
+                        .addParameter("e", after.entityId)
+                        .addParameter("a", after.attrId)
+                        .addParameter("v", after.valueId)
+                        .addParameter("limit", limit)
+                        .executeAndFetch(EavRowMappers.VIEW));
+            }
+            if (rows.size() < limit) {
+                rows.addAll(conn.createQuery(page.entitiesAfter)
+                        .addParameter("t", from.entityTypeId)
+                        .addParameter("e", from.entityId)
+                        .addParameter("limit", limit - rows.size())
+                        .executeAndFetch(EavRowMappers.VIEW));
+            }
+        }
+        String next = rows.size() < limit ? null : EavCursor.of(rows.get(rows.size() - 1)).toString();
+        return new EavPage<>(rows, next);
+    }
+
+    private void streamView(String op, String view, Consumer<EavView> consumer) {
+        String query = sql.viewStream(view);
+        try (Connection conn = reader().open();
+             PreparedStatement ps = conn.getJdbcConnection().prepareStatement(
+                     query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            streamResults(ps);
+            long rows = 0;
+            try (ResultSet rs = ps.executeQuery()) {
+                ResultSetHandler<EavView> reader = EavRowMappers.viewReader(rs);
+                while (rs.next()) {
+                    consumer.accept(reader.handle(rs));
+                    rows++;
+                }
+            } finally {
+                metrics.addFetched(op, rows);
+            }
+        } catch (SQLException e) {
+            throw new Sql2oException("Err: failed to stream " + view, e);
+        }
+    }
+
+    // tells the mysql driver to stream rows instead of reading the whole result
+    // other drivers reject the negative fetch size and keep their default batching
+    static void streamResults(PreparedStatement ps) {
+        try {
+            ps.setFetchSize(Integer.MIN_VALUE);
+        } catch (SQLException ignored) {
+            // not mysql
+        }
     }
 
     public List<EavView> getEntityView(EavEntity entity) {
-        String query = "SELECT * FROM all_possible_eav_data WHERE entity_id = :entity_id";
-        return conn.createQuery(query)
-                .addParameter("entity_id", entity.getId())
-                .executeAndFetch(EavView.class);
+        return timed("getEntityView", () -> {
+            try (Connection conn = reader().open()) {
+                String query = sql.entityView;
+                return conn.createQuery(query)
+                        .addParameter("entity_id", entity.getId())
+                        .executeAndFetch(EavRowMappers.VIEW);
+            }
+        });
     }
 
     public List<EavView> getEntityViewById(Integer entityId) {
-        String query = "SELECT * FROM all_possible_eav_data WHERE entity_id = :entity_id";
-        return conn.createQuery(query)
-                .addParameter("entity_id", entityId)
-                .executeAndFetch(EavView.class);
+        return timed("getEntityViewById", () -> {
+            try (Connection conn = reader().open()) {
+                String query = sql.entityView;
+                return conn.createQuery(query)
+                        .addParameter("entity_id", entityId)
+                        .executeAndFetch(EavRowMappers.VIEW);
+            }
+        });
     }
     // endregion view
+
+    // region query
+    // entities of one type matching every predicate, compiled into a single statement
+    public EavQueryResult queryEntities(EavQuery q) {
+        return timed("queryEntities", () -> {
+            EavEntityType et = q.getEntityTypeId() != null
+                    ? getEntityTypeById(q.getEntityTypeId())
+                    : getEntityTypeByName(q.getEntityType() == null ? "" : q.getEntityType());
+            if (et == null) {
+                throw new IllegalArgumentException("Err: entity type not found");
+            }
+            if (q.getLimit() < 1 || q.getLimit() > MAX_PAGE_SIZE || q.getOffset() < 0) {
+                throw new IllegalArgumentException("Err: limit must be between 1 and " + MAX_PAGE_SIZE);
+            }
+            List<EavAttribute> attrs = getAttributesForType(et.getId());
+
+            // resolve predicates
+            List<Tuple<EavAttribute, EavQuery.Predicate>> preds = new ArrayList<>();
+            for (EavQuery.Predicate p : q.getWhere()) {
+                EavAttribute a = findAttribute(attrs, p.getAttrId(), p.getAttr());
+                if (p.getOp() == EavQuery.Op.LIKE && a.getValueType() != ValueType.STR) {
+                    throw new IllegalArgumentException("Err: LIKE only applies to str attributes");
+                }
+                preds.add(new Tuple<>(a, p));
+            }
+            // when every predicate's column is in memory the store counts the matching entities and the joins
+            // are forced to start from the fewest; otherwise the optimizer picks the order from its index
+            // statistics. ties sort by attribute and operator so the same predicates give the same statement
+            Map<EavQuery.Predicate, Integer> estimates = new IdentityHashMap<>();
+            for (Tuple<EavAttribute, EavQuery.Predicate> t : preds) {
+                int estimate = columns.estimate(t.a.getId(), t.b.getOp(), t.b.getValue());
+                if (estimate < 0) {
+                    estimates.clear();
+                    break;
+                }
+                estimates.put(t.b, estimate);
+            }
+            boolean forceOrder = preds.size() > 1 && !estimates.isEmpty();
+            preds.sort(Comparator
+                    .comparingInt((Tuple<EavAttribute, EavQuery.Predicate> t) -> estimates.getOrDefault(t.b, 0))
+                    .thenComparingInt(t -> t.a.getId())
+                    .thenComparingInt(t -> t.b.getOp().ordinal()));
+            EavAttribute orderAttr = q.getOrderBy() == null ? null : findAttribute(attrs, null, q.getOrderBy());
+
+            // one self join per predicate on entity_id, each probed by (entity_id, attr_id)
+            StringBuilder select = new StringBuilder(forceOrder ? "SELECT STRAIGHT_JOIN e.id FROM " : "SELECT e.id FROM ");
+            if (preds.isEmpty()) {
+                select.append(entityTable).append(" e");
+            } else {
+                select.append(layout.table(preds.get(0).a.getValueType())).append(" p0 JOIN ").append(entityTable)
+                        .append(" e ON e.id = p0.entity_id");
+                for (int i = 1; i < preds.size(); i++) {
+                    select.append(" JOIN ").append(layout.table(preds.get(i).a.getValueType())).append(" p").append(i)
+                            .append(" ON p").append(i).append(".entity_id = p0.entity_id");
+                }
+            }
+            if (orderAttr != null) {
+                select.append(" LEFT JOIN ").append(layout.table(orderAttr.getValueType()))
+                        .append(" o ON o.entity_id = e.id AND o.attr_id = :order_attr");
+            }
+            select.append(" WHERE e.entity_type_id = :entity_type_id");
+            for (int i = 0; i < preds.size(); i++) {
+                Tuple<EavAttribute, EavQuery.Predicate> t = preds.get(i);
+                select.append(" AND p").append(i).append(".attr_id = :a").append(i)
+                        .append(" AND p").append(i).append(".").append(t.a.getValueType().getColumn())
+                        .append(" ").append(t.b.getOp().sql).append(" :v").append(i);
+            }
+            select.append(" GROUP BY e.id ORDER BY ");
+            String dir = q.isDescending() ? " DESC" : " ASC";
+            if (orderAttr != null) {
+                String col = "o." + orderAttr.getValueType().getColumn();
+                select.append(q.isDescending() ? "MAX(" : "MIN(").append(col).append(")").append(dir).append(", ");
+            }
+            select.append("e.id").append(dir).append(" LIMIT :limit OFFSET :offset");
+
+            List<Integer> ids;
+            try (Connection conn = reader().open()) {
+                Query query = conn.createQuery(select.toString())
+                        .addParameter("entity_type_id", et.getId())
+                        .addParameter("limit", q.getLimit())
+                        .addParameter("offset", q.getOffset());
+                if (orderAttr != null) query.addParameter("order_attr", orderAttr.getId());
+                for (int i = 0; i < preds.size(); i++) {
+                    Tuple<EavAttribute, EavQuery.Predicate> t = preds.get(i);
+                    query.addParameter("a" + i, t.a.getId())
+                            .addParameter("v" + i, coerce(t.a.getValueType(), t.b.getValue()));
+                }
+                ids = query.executeScalarList(Integer.class);
+
+                List<EavValue> values = new ArrayList<>();
+                if (!ids.isEmpty()) {
+                    String valueQuery = sql.valuesByEntities;
+                    values = conn.createQuery(valueQuery)
+                            .addParameter("ids", ids)
+                            .executeAndFetch(EavRowMappers.VALUE);
+                }
+                return new EavQueryResult(ids, values);
+            }
+        });
+    }
+
+    private static EavAttribute findAttribute(List<EavAttribute> attrs, Integer attrId, String name) {
+        for (EavAttribute a : attrs) {
+            if (attrId != null ? a.getId() == attrId : a.getAttr().equals(name)) return a;
+        }
+        throw new IllegalArgumentException("Err: attribute not found: " + (attrId != null ? attrId : name));
+    }
+
+    // converts a json predicate value to the java type bound for the attribute's value column
+    static Object coerce(ValueType vt, Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Err: predicate value not provided");
+        }
+        try {
+            switch (vt) {
+                case STR:
+                    return value.toString();
+                case INT:
+                    return value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString());
+                case FLOAT:
+                    return value instanceof Number ? ((Number) value).floatValue() : Float.parseFloat(value.toString());
+                case TIME:
+                    // bound as an Instant, like createValue and the write buffer bind value_time
+                    return value instanceof Instant ? value : EavValue.parseTime(value.toString());
+                case BOOL:
+                    return value instanceof Boolean ? value : Boolean.parseBoolean(value.toString());
+                default:
+                    throw new IllegalArgumentException("Err: unsupported value type");
+            }
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Err: invalid " + vt.getValue() + " value: " + value);
+        }
+    }
+    // endregion query
 }
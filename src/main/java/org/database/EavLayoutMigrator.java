@@ -0,0 +1,331 @@
+package org.database;
+
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+import org.sql2o.Sql2oException;
+import org.util.AnsiColors;
+import org.util.Fn;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// converts a database from the wide value table to the typed layout (EavValueLayout) while it stays in use:
+//  prepare: creates the typed tables, the union read view and triggers mirroring every write on the wide table
+//  copy:    copies existing rows over in id chunks, rows the triggers already wrote are skipped
+//  verify:  compares per type row counts from one snapshot
+//  cutover: renames the wide table to <valueTable>_wide and switches procedures and views to the typed tables
+// every phase can be rerun. apps keep running on the wide layout until cutover and have to be restarted with
+// DbSetup.valueLayout = TYPED right after it, wide layout writes fail from then on.
+// a value is moved into the table of its attribute's current type; values stored in another column
+// (attribute type changed after they were written) are reported by verify and not carried over
+@SuppressWarnings("unused")
+public class EavLayoutMigrator {
+    public static final String TYPED_SCRIPT = "db/typed_procedures.sql";
+    private static final int COPY_CHUNK_SIZE = 5000;
+
+    private final Sql2o db;
+    private final DbSetup setup;
+    private final String valueTable;
+    private final String entityTable;
+    private final String attributeTable;
+    private final String wideBackup;
+
+    public EavLayoutMigrator(Sql2o db, DbSetup setup) {
+        this.db = db;
+        this.setup = setup;
+        this.valueTable = setup.valueTable;
+        this.entityTable = setup.entityTable;
+        this.attributeTable = setup.attributeTable;
+        this.wideBackup = setup.valueTable + "_wide";
+    }
+
+    // usage: EavLayoutMigrator <server> <dbName> <user> <password> [prepare|copy|verify|cutover|all]
+    public static void main(String[] args) {
+        if (args.length < 4) {
+            System.err.println("usage: EavLayoutMigrator <server> <dbName> <user> <password> [prepare|copy|verify|cutover|all]");
+            System.exit(1);
+        }
+        DbSetup setup = new DbSetup();
+        setup.server = args[0];
+        setup.dbName = args[1];
+        setup.user = args[2];
+        setup.password = args[3];
+        String phase = args.length > 4 ? args[4] : "all";
+        try (ConnectionPool pool = new ConnectionPool(EavStatements.jdbcUrl(setup), setup, new EavMetrics())) {
+            EavLayoutMigrator m = new EavLayoutMigrator(new Sql2o(pool), setup);
+            switch (phase) {
+                case "prepare": m.prepare(); break;
+                case "copy": m.copy(); break;
+                case "verify": m.verify(); break;
+                case "cutover": m.cutover(); break;
+                case "all": m.migrate(); break;
+                default: throw new IllegalArgumentException("Err: unknown phase " + phase);
+            }
+        }
+    }
+
+    public void migrate() {
+        prepare();
+        copy();
+        cutover();
+    }
+
+    // region prepare
+    public void prepare() {
+        // the app's own migrations expect the wide table, they have to be in place before it goes away
+        new DbMigrator(db, setup).migrate();
+        try (Connection conn = db.open()) {
+            if (isConverted(conn)) {
+                Fn.printColor(AnsiColors.GREEN, "Already on the typed value layout");
+                return;
+            }
+            checkIdRange(conn);
+            for (ValueType vt : ValueType.values()) {
+                String table = EavValueLayout.typedTable(valueTable, vt);
+                Fn.printColor(AnsiColors.CYAN, "Creating " + table);
+                execute(conn, createTableSql(vt));
+            }
+            execute(conn, "CREATE OR REPLACE VIEW " + EavValueLayout.allView(valueTable) + " AS " + unionSql());
+            // from here on every write to the wide table is mirrored, copy only has to catch up on older rows
+            execute(conn, "DROP TRIGGER IF EXISTS " + trigger("ins"));
+            execute(conn, "DROP TRIGGER IF EXISTS " + trigger("upd"));
+            execute(conn, "DROP TRIGGER IF EXISTS " + trigger("del"));
+            execute(conn, "CREATE TRIGGER " + trigger("ins") + " AFTER INSERT ON " + valueTable + " FOR EACH ROW BEGIN "
+                    + "DECLARE v_type varchar(255); " + upsertSql() + " END");
+            execute(conn, "CREATE TRIGGER " + trigger("upd") + " AFTER UPDATE ON " + valueTable + " FOR EACH ROW BEGIN "
+                    + "DECLARE v_type varchar(255); " + deleteSql() + upsertSql() + " END");
+            execute(conn, "CREATE TRIGGER " + trigger("del") + " AFTER DELETE ON " + valueTable + " FOR EACH ROW BEGIN "
+                    + deleteSql() + " END");
+        }
+    }
+
+    private String createTableSql(ValueType vt) {
+        String table = EavValueLayout.typedTable(valueTable, vt);
+        String valueIndex = vt == ValueType.STR ? vt.getColumn() + "(32)" : vt.getColumn();
+        return "CREATE TABLE IF NOT EXISTS " + table + " ("
+                + "id int unsigned not null auto_increment, "
+                + "created_at datetime not null default NOW(), "
+                + "entity_id int unsigned not null, "
+                + "attr_id int unsigned not null, "
+                + vt.getColumn() + " " + sqlType(vt) + ", "
+                + "primary key (id), "
+                + "index idx_" + table + "_entity_attr (entity_id, attr_id), "
+                + "index idx_" + table + "_attr_value (attr_id, " + valueIndex + "), "
+                + "foreign key (entity_id) references " + entityTable + "(id), "
+                + "foreign key (attr_id) references " + attributeTable + "(id)"
+                + ") AUTO_INCREMENT = " + EavValueLayout.firstId(vt);
+    }
+
+    private static String sqlType(ValueType vt) {
+        switch (vt) {
+            case STR: return "varchar(255)";
+            case INT: return "int";
+            case FLOAT: return "float";
+            case TIME: return "datetime";
+            default: return "bool";
+        }
+    }
+
+    // wide row shape over the typed tables
+    private String unionSql() {
+        StringBuilder sql = new StringBuilder();
+        for (ValueType vt : ValueType.values()) {
+            if (sql.length() > 0) sql.append(" UNION ALL ");
+            sql.append("SELECT id, created_at, entity_id, attr_id");
+            for (ValueType col : ValueType.values()) {
+                sql.append(", ").append(col == vt ? col.getColumn() : "NULL AS " + col.getColumn());
+            }
+            sql.append(" FROM ").append(EavValueLayout.typedTable(valueTable, vt));
+        }
+        return sql.toString();
+    }
+
+    private String trigger(String suffix) {
+        return valueTable + "_typed_" + suffix;
+    }
+
+    // NEW row into the table of its attribute's type
+    private String upsertSql() {
+        StringBuilder sql = new StringBuilder("SELECT value_type INTO v_type FROM " + attributeTable + " WHERE id = NEW.attr_id; ");
+        for (ValueType vt : ValueType.values()) {
+            sql.append(vt == ValueType.STR ? "IF" : "ELSEIF").append(" v_type = '").append(vt.getValue()).append("' THEN ")
+                    .append("REPLACE INTO ").append(EavValueLayout.typedTable(valueTable, vt))
+                    .append(" (id, created_at, entity_id, attr_id, ").append(vt.getColumn()).append(") ")
+                    .append("VALUES (NEW.id, NEW.created_at, NEW.entity_id, NEW.attr_id, NEW.").append(vt.getColumn()).append("); ");
+        }
+        return sql.append("END IF;").toString();
+    }
+
+    // OLD row out of every typed table (its attribute may have changed type since)
+    private String deleteSql() {
+        StringBuilder sql = new StringBuilder();
+        for (ValueType vt : ValueType.values()) {
+            sql.append("DELETE FROM ").append(EavValueLayout.typedTable(valueTable, vt)).append(" WHERE id = OLD.id; ");
+        }
+        return sql.toString();
+    }
+    // endregion prepare
+
+    // region copy
+    // one short autocommit statement per type and id chunk, so writes to the wide table are only held up briefly
+    public long copy() {
+        long copied = 0;
+        try (Connection conn = db.open()) {
+            if (isConverted(conn)) return 0;
+            if (!tableExists(conn, EavValueLayout.typedTable(valueTable, ValueType.BOOL))) {
+                throw new IllegalStateException("Err: typed tables missing, run prepare first");
+            }
+            Integer maxId = conn.createQuery("SELECT MAX(id) FROM " + valueTable).executeScalar(Integer.class);
+            if (maxId == null) return 0;
+            Map<ValueType, String> inserts = new LinkedHashMap<>();
+            for (ValueType vt : ValueType.values()) {
+                inserts.put(vt, "INSERT IGNORE INTO " + EavValueLayout.typedTable(valueTable, vt)
+                        + " (id, created_at, entity_id, attr_id, " + vt.getColumn() + ") "
+                        + "SELECT v.id, v.created_at, v.entity_id, v.attr_id, v." + vt.getColumn()
+                        + " FROM " + valueTable + " v JOIN " + attributeTable + " a ON a.id = v.attr_id"
+                        + " WHERE v.id > :from AND v.id <= :to AND a.value_type = :t");
+            }
+            // rows past maxId are written by the triggers
+            for (long from = 0; from < maxId; from += COPY_CHUNK_SIZE) {
+                for (Map.Entry<ValueType, String> e : inserts.entrySet()) {
+                    copied += conn.createQuery(e.getValue())
+                            .addParameter("from", from)
+                            .addParameter("to", from + COPY_CHUNK_SIZE)
+                            .addParameter("t", e.getKey().getValue())
+                            .executeUpdate()
+                            .getResult();
+                }
+                if ((from / COPY_CHUNK_SIZE) % 20 == 19) {
+                    Fn.printColor(AnsiColors.CYAN, "Copied ids up to " + (from + COPY_CHUNK_SIZE) + " of " + maxId);
+                }
+            }
+        }
+        Fn.printColor(AnsiColors.GREEN, "Copied " + copied + " values");
+        return copied;
+    }
+    // endregion copy
+
+    // region verify
+    // per type: rows in the wide table vs the typed table, read from one snapshot. throws on a mismatch
+    public Map<ValueType, Long> verify() {
+        Map<ValueType, Long> counts = new LinkedHashMap<>();
+        Connection conn = db.beginTransaction();
+        try {
+            if (isConverted(conn)) return counts;
+            for (ValueType vt : ValueType.values()) {
+                Long wide = conn.createQuery("SELECT COUNT(*) FROM " + valueTable + " v JOIN " + attributeTable
+                                + " a ON a.id = v.attr_id WHERE a.value_type = :t")
+                        .addParameter("t", vt.getValue())
+                        .executeScalar(Long.class);
+                Long typed = conn.createQuery("SELECT COUNT(*) FROM " + EavValueLayout.typedTable(valueTable, vt))
+                        .executeScalar(Long.class);
+                if (!wide.equals(typed)) {
+                    throw new IllegalStateException("Err: " + vt.getValue() + " values not in sync, wide " + wide
+                            + " typed " + typed + " -- rerun copy");
+                }
+                counts.put(vt, typed);
+            }
+            Long misplaced = conn.createQuery("SELECT COUNT(*) FROM " + valueTable + " v JOIN " + attributeTable
+                            + " a ON a.id = v.attr_id WHERE " + misplacedSql())
+                    .executeScalar(Long.class);
+            if (misplaced != null && misplaced > 0) {
+                Fn.printColor(AnsiColors.YELLOW, misplaced + " values are stored in a column other than their "
+                        + "attribute's type and will not be carried over");
+            }
+        } finally {
+            conn.rollback();
+        }
+        Fn.printColor(AnsiColors.GREEN, "Typed tables in sync: " + counts);
+        return counts;
+    }
+
+    private static String misplacedSql() {
+        StringBuilder sql = new StringBuilder("(");
+        for (ValueType vt : ValueType.values()) {
+            if (sql.length() > 1) sql.append(" OR ");
+            sql.append("(a.value_type <> '").append(vt.getValue()).append("' AND v.").append(vt.getColumn()).append(" IS NOT NULL)");
+        }
+        return sql.append(")").toString();
+    }
+    // endregion verify
+
+    // region cutover
+    public void cutover() {
+        try (Connection conn = db.open()) {
+            if (isConverted(conn)) {
+                Fn.printColor(AnsiColors.GREEN, "Already on the typed value layout");
+                return;
+            }
+        }
+        verify();
+        try (Connection conn = db.open()) {
+            Integer maxId = checkIdRange(conn);
+            // triggers move with the renamed table and stop mirroring once dropped
+            execute(conn, "RENAME TABLE " + valueTable + " TO " + wideBackup);
+            execute(conn, "DROP TRIGGER IF EXISTS " + trigger("ins"));
+            execute(conn, "DROP TRIGGER IF EXISTS " + trigger("upd"));
+            execute(conn, "DROP TRIGGER IF EXISTS " + trigger("del"));
+            applyScript(conn);
+            // new str ids continue after every id the wide table handed out
+            if (maxId != null) {
+                execute(conn, "ALTER TABLE " + EavValueLayout.typedTable(valueTable, ValueType.STR)
+                        + " AUTO_INCREMENT = " + (maxId + 1));
+            }
+            // the backup keeps no references, so entities and attributes can still be deleted
+            List<String> keys = conn.createQuery("SELECT constraint_name FROM information_schema.table_constraints "
+                            + "WHERE table_schema = DATABASE() AND table_name = :t AND constraint_type = 'FOREIGN KEY'")
+                    .addParameter("t", wideBackup)
+                    .executeScalarList(String.class);
+            for (String key : keys) {
+                execute(conn, "ALTER TABLE " + wideBackup + " DROP FOREIGN KEY " + key);
+            }
+        }
+        Fn.printColor(AnsiColors.GREEN, "Switched to the typed value layout, the wide table was kept as " + wideBackup);
+    }
+
+    private void applyScript(Connection conn) {
+        try (Statement st = conn.getJdbcConnection().createStatement()) {
+            for (String sql : DbMigrator.splitScript(DbMigrator.loadScript(TYPED_SCRIPT))) {
+                st.execute(sql);
+            }
+        } catch (SQLException e) {
+            throw new Sql2oException("Err: failed to apply " + TYPED_SCRIPT, e);
+        }
+    }
+    // endregion cutover
+
+    // the wide table's ids are kept, they have to fit below the int range
+    private Integer checkIdRange(Connection conn) {
+        Integer maxId = conn.createQuery("SELECT MAX(id) FROM " + valueTable).executeScalar(Integer.class);
+        if (maxId != null && maxId >= EavValueLayout.ID_RANGE) {
+            throw new IllegalStateException("Err: value ids reach " + maxId + ", the typed layout keeps ids below "
+                    + EavValueLayout.ID_RANGE);
+        }
+        return maxId;
+    }
+
+    // converted once the wide table is gone and the typed tables are there
+    boolean isConverted(Connection conn) {
+        return !tableExists(conn, valueTable) && tableExists(conn, EavValueLayout.typedTable(valueTable, ValueType.STR));
+    }
+
+    static boolean tableExists(Connection conn, String table) {
+        Integer n = conn.createQuery("SELECT COUNT(*) FROM information_schema.tables "
+                        + "WHERE table_schema = DATABASE() AND table_name = :t AND table_type = 'BASE TABLE'")
+                .addParameter("t", table)
+                .executeScalar(Integer.class);
+        return n != null && n > 0;
+    }
+
+    // plain statements, trigger bodies are not meant for sql2o's :param parsing
+    private static void execute(Connection conn, String sql) {
+        try (Statement st = conn.getJdbcConnection().createStatement()) {
+            st.execute(sql);
+        } catch (SQLException e) {
+            throw new Sql2oException("Err: failed to run " + sql, e);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.database;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+// lock-free per-operation timers: latency histogram, error count, rows fetched/affected
+public class EavMetrics {
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    private Timer timer(String name) {
+        return timers.computeIfAbsent(name, k -> new Timer());
+    }
+
+    public <T> T time(String name, Supplier<T> body) {
+        Timer t = timer(name);
+        long start = System.nanoTime();
+        try {
+            T result = body.get();
+            t.record(System.nanoTime() - start);
+            return result;
+        } catch (RuntimeException e) {
+            t.recordError(System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    public void record(String name, long nanos) {
+        timer(name).record(nanos);
+    }
+
+    public void recordError(String name, long nanos) {
+        timer(name).recordError(nanos);
+    }
+
+    public void addFetched(String name, long rows) {
+        timer(name).rowsFetched.addAndGet(rows);
+    }
+
+    public void addAffected(String name, long rows) {
+        timer(name).rowsAffected.addAndGet(rows);
+    }
+
+    // name -> summary, sorted by name
+    public Map<String, Map<String, Object>> snapshot() {
+        Map<String, Map<String, Object>> out = new TreeMap<>();
+        for (Map.Entry<String, Timer> e : timers.entrySet()) {
+            out.put(e.getKey(), e.getValue().summary());
+        }
+        return out;
+    }
+
+    // prometheus text exposition format
+    public String toPrometheus(String prefix) {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Timer> e : new TreeMap<>(timers).entrySet()) {
+            Timer t = e.getValue();
+            String op = "{op=\"" + labelValue(e.getKey()) + "\"";
+            out.append(prefix).append("_seconds").append(op).append(",quantile=\"0.5\"} ")
+                    .append(t.percentileNanos(0.5) / 1e9).append('\n');
+            out.append(prefix).append("_seconds").append(op).append(",quantile=\"0.99\"} ")
+                    .append(t.percentileNanos(0.99) / 1e9).append('\n');
+            out.append(prefix).append("_seconds_sum").append(op).append("} ")
+                    .append(t.totalNanos.get() / 1e9).append('\n');
+            out.append(prefix).append("_seconds_count").append(op).append("} ").append(t.count.get()).append('\n');
+            out.append(prefix).append("_errors_total").append(op).append("} ").append(t.errors.get()).append('\n');
+            out.append(prefix).append("_rows_fetched_total").append(op).append("} ").append(t.rowsFetched.get()).append('\n');
+            out.append(prefix).append("_rows_affected_total").append(op).append("} ").append(t.rowsAffected.get()).append('\n');
+        }
+        return out.toString();
+    }
+
+    // backslash, double quote and line feed are the characters a label value has to escape
+    static String labelValue(String s) {
+        StringBuilder out = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\') out.append("\\\\");
+            else if (c == '"') out.append("\\\"");
+            else if (c == '\n') out.append("\\n");
+            else out.append(c);
+        }
+        return out.toString();
+    }
+
+    public static class Timer {
+        // log-linear buckets over microseconds: 4 sub-buckets per power of two (~25% resolution)
+        private static final int BUCKETS = 256;
+
+        private final AtomicLong count = new AtomicLong(0);
+        private final AtomicLong errors = new AtomicLong(0);
+        private final AtomicLong totalNanos = new AtomicLong(0);
+        private final AtomicLong maxNanos = new AtomicLong(0);
+        private final AtomicLong rowsFetched = new AtomicLong(0);
+        private final AtomicLong rowsAffected = new AtomicLong(0);
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        public void record(long nanos) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            histogram.incrementAndGet(bucket(nanos / 1000));
+        }
+
+        public void recordError(long nanos) {
+            errors.incrementAndGet();
+            record(nanos);
+        }
+
+        // upper bound of the bucket holding the p-th percentile
+        public long percentileNanos(double p) {
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) total += histogram.get(i);
+            if (total == 0) return 0;
+            long target = (long) Math.ceil(p * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += histogram.get(i);
+                if (seen >= target) return Math.min(upperBound(i) * 1000, maxNanos.get());
+            }
+            return maxNanos.get();
+        }
+
+        public Map<String, Object> summary() {
+            long n = count.get();
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("count", n);
+            out.put("errors", errors.get());
+            out.put("meanMs", n == 0 ? 0 : totalNanos.get() / 1e6 / n);
+            out.put("p50Ms", percentileNanos(0.5) / 1e6);
+            out.put("p99Ms", percentileNanos(0.99) / 1e6);
+            out.put("maxMs", maxNanos.get() / 1e6);
+            out.put("rowsFetched", rowsFetched.get());
+            out.put("rowsAffected", rowsAffected.get());
+            return out;
+        }
+
+        static int bucket(long micros) {
+            if (micros < 4) return (int) Math.max(micros, 0);
+            int exp = 63 - Long.numberOfLeadingZeros(micros);
+            int sub = (int) (micros >> (exp - 2)) & 3;
+            return Math.min((exp - 1) * 4 + sub, BUCKETS - 1);
+        }
+
+        static long upperBound(int bucket) {
+            if (bucket < 4) return bucket;
+            int exp = bucket / 4 + 1;
+            int sub = bucket % 4;
+            return ((4L + sub + 1) << (exp - 2)) - 1;
+        }
+    }
+}
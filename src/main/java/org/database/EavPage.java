@@ -0,0 +1,17 @@
+package org.database;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class EavPage<T> {
+    private List<T> rows;
+    // cursor for the next page, null once the end has been reached
+    private String next;
+
+    public EavPage(List<T> rows, String next) {
+        this.rows = rows;
+        this.next = next;
+    }
+}
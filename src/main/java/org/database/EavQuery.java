@@ -0,0 +1,44 @@
+package org.database;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// request body for EavInterface.queryEntities
+// predicates are ANDed; attributes can be referenced by id or by name within the entity type
+@Data
+public class EavQuery {
+    private Integer entityTypeId = null;
+    private String entityType = null;
+    private List<Predicate> where = new ArrayList<>();
+    // attribute to order by, entity id order when not set
+    private String orderBy = null;
+    private boolean descending = false;
+    private int limit = 100;
+    private int offset = 0;
+
+    @Data
+    public static class Predicate {
+        private Integer attrId = null;
+        private String attr = null;
+        private Op op = Op.EQ;
+        private Object value = null;
+    }
+
+    public enum Op {
+        EQ("="),
+        LIKE("LIKE"),
+        GT(">"),
+        GTE(">="),
+        LT("<"),
+        LTE("<="),
+        NE("<>");
+
+        public final String sql;
+
+        Op(String sql) {
+            this.sql = sql;
+        }
+    }
+}
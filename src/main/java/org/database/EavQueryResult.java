@@ -0,0 +1,18 @@
+package org.database;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class EavQueryResult {
+    // matching entities, in query order
+    private List<Integer> entityIds;
+    // every value held by the matching entities
+    private List<EavValue> values;
+
+    public EavQueryResult(List<Integer> entityIds, List<EavValue> values) {
+        this.entityIds = entityIds;
+        this.values = values;
+    }
+}
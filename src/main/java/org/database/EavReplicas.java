@@ -0,0 +1,250 @@
+package org.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sql2o.Sql2o;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// read replicas for EavInterface's read-only methods.
+// a replica is used when its last lag check succeeded within replicaMaxLagSec, and, for read-your-writes,
+// when it has had time to apply the calling session's last write: lag + check interval < time since that write.
+// anything else (no replicas, all lagging or down, fresh writes) reads from the primary
+@SuppressWarnings("unused")
+public class EavReplicas implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(EavReplicas.class);
+    private static final int LAG_CHECK_TIMEOUT_SEC = 2;
+    // stands in for a replica whose lag has not been measured yet / could not be measured
+    private static final int UNKNOWN_LAG = -1;
+
+    private final List<Replica> replicas = new ArrayList<>();
+    private final DbSetup.ReplicaSelection selection;
+    private final int maxLagSec;
+    private final long checkMs;
+    // how long after a write a replica may still be missing it, on top of the measured lag
+    private final long marginMs;
+    private final boolean unconfiguredIsCurrent;
+    private final AtomicInteger next = new AtomicInteger(0);
+    private final AtomicLong primaryReads = new AtomicLong(0);
+    // last write per session, sessions are named by the caller (see bind)
+    private final Map<String, Long> lastWrite = new ConcurrentHashMap<>();
+    private final ThreadLocal<String> session = new ThreadLocal<>();
+    // set while a read has to see the primary's current state (see onPrimary)
+    private final ThreadLocal<Boolean> pinned = new ThreadLocal<>();
+    private final ScheduledExecutorService checker;
+
+    public static class Replica {
+        private final String server;
+        private final ConnectionPool pool;
+        private final Sql2o db;
+        private volatile int lagSec = UNKNOWN_LAG;
+        private volatile long checkedAt = 0;
+        private volatile String error = null;
+        private final AtomicLong reads = new AtomicLong(0);
+
+        Replica(String server, ConnectionPool pool) {
+            this.server = server;
+            this.pool = pool;
+            this.db = new Sql2o(pool);
+        }
+
+        public String getServer() { return server; }
+
+        public ConnectionPool getPool() { return pool; }
+
+        public int getLagSec() { return lagSec; }
+
+        public String getError() { return error; }
+
+        public long getReads() { return reads.get(); }
+    }
+
+    EavReplicas(DbSetup setup, EavMetrics metrics) {
+        this.selection = setup.replicaSelection;
+        this.maxLagSec = setup.replicaMaxLagSec;
+        this.checkMs = setup.replicaLagCheckMs;
+        this.unconfiguredIsCurrent = setup.replicaUnconfiguredIsCurrent;
+        // buffered updates reach the primary up to one flush interval after they are accepted
+        this.marginMs = setup.replicaLagCheckMs + (setup.writeBehind ? setup.writeBehindFlushMs : 0);
+        for (String server : setup.replicas) {
+            String url = server.startsWith("jdbc:") ? server : EavStatements.jdbcUrl(setup, server);
+            replicas.add(new Replica(server, new ConnectionPool(url, setup, metrics)));
+        }
+        if (replicas.isEmpty()) {
+            checker = null;
+            return;
+        }
+        checker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "eav-replica-lag");
+            t.setDaemon(true);
+            return t;
+        });
+        // first check runs right away, until then every read goes to the primary
+        checker.scheduleWithFixedDelay(this::checkLag, 0, checkMs, TimeUnit.MILLISECONDS);
+    }
+
+    public List<Replica> getReplicas() {
+        return Collections.unmodifiableList(replicas);
+    }
+
+    public long getPrimaryReads() {
+        return primaryReads.get();
+    }
+
+    // names the session for reads and writes made on this thread, null for an anonymous caller
+    public void bind(String name) {
+        if (name == null) session.remove();
+        else session.set(name);
+    }
+
+    void markWrite() {
+        String s = session.get();
+        if (s != null) lastWrite.put(s, System.currentTimeMillis());
+    }
+
+    // session of the calling thread, for work finishing on another thread (background deletes, streams)
+    public String currentSession() {
+        return session.get();
+    }
+
+    void markWrite(String session) {
+        if (session != null) lastWrite.put(session, System.currentTimeMillis());
+    }
+
+    // runs the reads on the primary, for responses tagged with the primary's version counters (ETags):
+    // a replica body under the current tag could be revalidated as current long after the replica caught up
+    public <T> T onPrimary(Supplier<T> read) {
+        if (replicas.isEmpty() || pinned.get() != null) return read.get();
+        pinned.set(Boolean.TRUE);
+        try {
+            return read.get();
+        } finally {
+            pinned.remove();
+        }
+    }
+
+    // the handle a read-only method should use
+    Sql2o reader(Sql2o primary) {
+        if (replicas.isEmpty()) return primary;
+        if (pinned.get() != null) {
+            primaryReads.incrementAndGet();
+            return primary;
+        }
+        String s = session.get();
+        Long written = s == null ? null : lastWrite.get(s);
+        long sinceWrite = written == null ? Long.MAX_VALUE : System.currentTimeMillis() - written;
+        Replica r = pick(sinceWrite);
+        if (r == null) {
+            primaryReads.incrementAndGet();
+            return primary;
+        }
+        r.reads.incrementAndGet();
+        return r.db;
+    }
+
+    private Replica pick(long sinceWriteMs) {
+        List<Replica> eligible = new ArrayList<>(replicas.size());
+        for (Replica r : replicas) {
+            int lag = r.lagSec;
+            // lag is reported in whole seconds, 0 means less than one
+            if (lag != UNKNOWN_LAG && lag <= maxLagSec && (lag + 1) * 1000L + marginMs < sinceWriteMs) eligible.add(r);
+        }
+        if (eligible.isEmpty()) return null;
+        if (selection == DbSetup.ReplicaSelection.LEAST_LOADED) {
+            Replica best = null;
+            int bestLoad = Integer.MAX_VALUE;
+            for (Replica r : eligible) {
+                int load = r.pool.getActiveConnections() + r.pool.getPendingBorrows();
+                if (load < bestLoad) {
+                    best = r;
+                    bestLoad = load;
+                }
+            }
+            return best;
+        }
+        return eligible.get(Math.floorMod(next.getAndIncrement(), eligible.size()));
+    }
+
+    // region lag check
+    private void checkLag() {
+        for (Replica r : replicas) {
+            try (Connection conn = r.pool.getConnection()) {
+                r.lagSec = lagSeconds(conn);
+                r.error = null;
+            } catch (SQLException | RuntimeException e) {
+                if (r.error == null) log.warn("Replica {} unavailable, reading from the primary", r.server, e);
+                r.lagSec = UNKNOWN_LAG;
+                r.error = e.getMessage();
+            }
+            r.checkedAt = System.currentTimeMillis();
+        }
+        // sessions whose last write every replica has caught up with no longer need tracking
+        long cutoff = System.currentTimeMillis() - (maxLagSec + 1) * 1000L - marginMs;
+        lastWrite.values().removeIf(t -> t < cutoff);
+    }
+
+    // SHOW REPLICA STATUS needs mysql 8.0.22+, older servers only know SHOW SLAVE STATUS.
+    // a server without replication configured (an independent copy, e.g. a second local instance) reports no rows;
+    // it fails the check unless replicaUnconfiguredIsCurrent is set. stopped replication (NULL seconds behind) always fails
+    private int lagSeconds(Connection conn) throws SQLException {
+        try {
+            return lagSeconds(conn, "SHOW REPLICA STATUS", "Seconds_Behind_Source");
+        } catch (SQLException e) {
+            return lagSeconds(conn, "SHOW SLAVE STATUS", "Seconds_Behind_Master");
+        }
+    }
+
+    private int lagSeconds(Connection conn, String query, String column) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            st.setQueryTimeout(LAG_CHECK_TIMEOUT_SEC);
+            try (ResultSet rs = st.executeQuery(query)) {
+                if (!rs.next()) {
+                    if (unconfiguredIsCurrent) return 0;
+                    throw new SQLException("Err: replication is not configured");
+                }
+                long lag = rs.getLong(column);
+                if (rs.wasNull()) throw new SQLException("Err: replication is not running");
+                return (int) Math.min(lag, Integer.MAX_VALUE);
+            }
+        }
+    }
+    // endregion lag check
+
+    public List<Map<String, Object>> stats() {
+        List<Map<String, Object>> out = new ArrayList<>(replicas.size());
+        for (Replica r : replicas) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("server", r.server);
+            m.put("lagSec", r.lagSec == UNKNOWN_LAG ? null : r.lagSec);
+            m.put("checkedAt", r.checkedAt);
+            m.put("error", r.error);
+            m.put("reads", r.reads.get());
+            m.put("active", r.pool.getActiveConnections());
+            m.put("idle", r.pool.getIdleConnections());
+            m.put("pending", r.pool.getPendingBorrows());
+            out.add(m);
+        }
+        return out;
+    }
+
+    @Override
+    public void close() {
+        if (checker != null) checker.shutdownNow();
+        for (Replica r : replicas) r.pool.close();
+    }
+}
@@ -0,0 +1,183 @@
+package org.database;
+
+import org.sql2o.ResultSetHandler;
+import org.sql2o.ResultSetHandlerFactory;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// hand written replacements for sql2o's reflective @Column mapping
+// column positions are resolved once per result set from its metadata, rows are then read by index;
+// columns missing from a query (0) are left at the model's default
+@SuppressWarnings("unused")
+final class EavRowMappers {
+    private EavRowMappers() {
+    }
+
+    static final ResultSetHandlerFactory<EavEntityType> ENTITY_TYPE = meta -> {
+        Map<String, Integer> cols = columns(meta);
+        int id = col(cols, "id"), createdAt = col(cols, "created_at"), entityType = col(cols, "entity_type");
+        return rs -> {
+            EavEntityType t = new EavEntityType();
+            if (id > 0) t.setId(rs.getInt(id));
+            if (createdAt > 0) t.setCreatedAt(string(rs, createdAt));
+            if (entityType > 0) t.setEntityType(rs.getString(entityType));
+            return t;
+        };
+    };
+
+    static final ResultSetHandlerFactory<EavEntity> ENTITY = meta -> {
+        Map<String, Integer> cols = columns(meta);
+        int id = col(cols, "id"), createdAt = col(cols, "created_at"), entity = col(cols, "entity"),
+                entityTypeId = col(cols, "entity_type_id");
+        return rs -> {
+            EavEntity e = new EavEntity();
+            if (id > 0) e.setId(rs.getInt(id));
+            if (createdAt > 0) e.setCreatedAt(string(rs, createdAt));
+            if (entity > 0) e.setEntity(rs.getString(entity));
+            if (entityTypeId > 0) e.setEntityTypeId(rs.getInt(entityTypeId));
+            return e;
+        };
+    };
+
+    static final ResultSetHandlerFactory<EavAttribute> ATTRIBUTE = meta -> {
+        Map<String, Integer> cols = columns(meta);
+        int id = col(cols, "id"), createdAt = col(cols, "created_at"), attr = col(cols, "attr"),
+                entityTypeId = col(cols, "entity_type_id"), valueType = col(cols, "value_type"),
+                allowMultiple = col(cols, "allow_multiple");
+        return rs -> {
+            EavAttribute a = new EavAttribute();
+            if (id > 0) a.setId(rs.getInt(id));
+            if (createdAt > 0) a.setCreatedAt(string(rs, createdAt));
+            if (attr > 0) a.setAttr(rs.getString(attr));
+            if (entityTypeId > 0) a.setEntityTypeId(rs.getInt(entityTypeId));
+            if (valueType > 0) a.setValueType(valueType(rs, valueType));
+            if (allowMultiple > 0) a.setAllowMultiple(rs.getBoolean(allowMultiple));
+            return a;
+        };
+    };
+
+    static final ResultSetHandlerFactory<EavValue> VALUE = meta -> {
+        Map<String, Integer> cols = columns(meta);
+        int id = col(cols, "id"), createdAt = col(cols, "created_at"), entityId = col(cols, "entity_id"),
+                attrId = col(cols, "attr_id");
+        Values values = new Values(cols);
+        return rs -> {
+            EavValue v = new EavValue();
+            if (id > 0) v.setId(rs.getInt(id));
+            if (createdAt > 0) v.setCreatedAt(string(rs, createdAt));
+            if (entityId > 0) v.setEntityId(rs.getInt(entityId));
+            if (attrId > 0) v.setAttrId(rs.getInt(attrId));
+            if (values.str > 0) v.setValueStr(rs.getString(values.str));
+            if (values.integer > 0) v.setValueInt(integer(rs, values.integer));
+            if (values.real > 0) v.setValueFloat(real(rs, values.real));
+            if (values.time > 0) v.setValueTime(time(rs, values.time));
+            if (values.bool > 0) v.setValueBool(bool(rs, values.bool));
+            return v;
+        };
+    };
+
+    static final ResultSetHandlerFactory<EavView> VIEW = meta -> {
+        Map<String, Integer> cols = columns(meta);
+        int entityTypeId = col(cols, "entity_type_id"), entityType = col(cols, "entity_type"),
+                entityId = col(cols, "entity_id"), entity = col(cols, "entity"), attrId = col(cols, "attr_id"),
+                attr = col(cols, "attr"), valueType = col(cols, "value_type"), allowMultiple = col(cols, "allow_multiple"),
+                valueId = col(cols, "value_id"), createdAt = col(cols, "created_at");
+        Values values = new Values(cols);
+        return rs -> {
+            EavView v = new EavView();
+            if (entityTypeId > 0) v.setEntityTypeId(integer(rs, entityTypeId));
+            if (entityType > 0) v.setEntityType(rs.getString(entityType));
+            if (entityId > 0) v.setEntityId(integer(rs, entityId));
+            if (entity > 0) v.setEntity(rs.getString(entity));
+            if (attrId > 0) v.setAttrId(integer(rs, attrId));
+            if (attr > 0) v.setAttr(rs.getString(attr));
+            if (valueType > 0) {
+                ValueType vt = valueType(rs, valueType);
+                if (vt != null) v.setValueType(vt);
+            }
+            if (allowMultiple > 0) v.setAllowMultiple(bool(rs, allowMultiple));
+            if (valueId > 0) v.setValueId(integer(rs, valueId));
+            if (createdAt > 0) v.setCreatedAt(string(rs, createdAt));
+            if (values.str > 0) v.setValueStr(rs.getString(values.str));
+            if (values.integer > 0) v.setValueInt(integer(rs, values.integer));
+            if (values.real > 0) v.setValueFloat(real(rs, values.real));
+            if (values.time > 0) v.setValueTime(time(rs, values.time));
+            if (values.bool > 0) v.setValueBool(bool(rs, values.bool));
+            return v;
+        };
+    };
+
+    // single row reader for callers walking a ResultSet themselves (streamed views)
+    static ResultSetHandler<EavView> viewReader(ResultSet rs) throws SQLException {
+        return VIEW.newResultSetHandler(rs.getMetaData());
+    }
+
+    // the five typed value columns, shared by values and views
+    private static class Values {
+        final int str, integer, real, time, bool;
+
+        Values(Map<String, Integer> cols) {
+            str = col(cols, "value_str");
+            integer = col(cols, "value_int");
+            real = col(cols, "value_float");
+            time = col(cols, "value_time");
+            bool = col(cols, "value_bool");
+        }
+    }
+
+    // region column readers
+    private static Map<String, Integer> columns(ResultSetMetaData meta) throws SQLException {
+        Map<String, Integer> cols = new HashMap<>();
+        for (int i = meta.getColumnCount(); i >= 1; i--) {
+            // first occurrence wins for duplicate labels, like sql2o
+            cols.put(meta.getColumnLabel(i).toLowerCase(Locale.ROOT), i);
+        }
+        return cols;
+    }
+
+    private static int col(Map<String, Integer> cols, String name) {
+        Integer i = cols.get(name);
+        return i == null ? 0 : i;
+    }
+
+    // same text sql2o's String conversion produced (the driver object's toString)
+    private static String string(ResultSet rs, int col) throws SQLException {
+        Object o = rs.getObject(col);
+        return o == null ? null : o.toString();
+    }
+
+    private static Integer integer(ResultSet rs, int col) throws SQLException {
+        int i = rs.getInt(col);
+        return rs.wasNull() ? null : i;
+    }
+
+    private static Float real(ResultSet rs, int col) throws SQLException {
+        float f = rs.getFloat(col);
+        return rs.wasNull() ? null : f;
+    }
+
+    private static Boolean bool(ResultSet rs, int col) throws SQLException {
+        boolean b = rs.getBoolean(col);
+        return rs.wasNull() ? null : b;
+    }
+
+    // datetime columns hold utc
+    private static Instant time(ResultSet rs, int col) throws SQLException {
+        LocalDateTime t = rs.getObject(col, LocalDateTime.class);
+        return t == null ? null : t.toInstant(ZoneOffset.UTC);
+    }
+
+    private static ValueType valueType(ResultSet rs, int col) throws SQLException {
+        String s = rs.getString(col);
+        return s == null || s.isEmpty() ? null : ValueType.fromString(s);
+    }
+    // endregion column readers
+}
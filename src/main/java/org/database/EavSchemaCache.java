@@ -0,0 +1,189 @@
+package org.database;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// in-process copy of entity types + attribute definitions, which almost never change
+// lookups return null on a miss; EavInterface loads from the db and fills the cache
+// rows are copied in and out, so callers can modify what they get without touching the cache
+// fills and invalidations hold the cache lock, so a fill either lands before an invalidation (which then removes
+// it) or sees the bumped generation and is dropped; lookups do not lock
+@SuppressWarnings("unused")
+public class EavSchemaCache {
+    private final Map<Integer, EavEntityType> typesById = new ConcurrentHashMap<>();
+    private final Map<String, EavEntityType> typesByName = new ConcurrentHashMap<>();
+    private final Map<Integer, EavAttribute> attrsById = new ConcurrentHashMap<>();
+    // only holds complete attribute lists for an entity type
+    private final Map<Integer, List<EavAttribute>> attrsByType = new ConcurrentHashMap<>();
+    private volatile boolean allTypesLoaded = false;
+
+    // bumped by every invalidation so loads that raced a write are not cached
+    private final AtomicLong generation = new AtomicLong(0);
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+
+    // region lookups
+    public List<EavEntityType> getEntityTypes() {
+        if (!allTypesLoaded) return miss();
+        List<EavEntityType> out = new ArrayList<>(typesById.size());
+        for (EavEntityType t : typesById.values()) out.add(copy(t));
+        out.sort(Comparator.comparingInt(EavEntityType::getId));
+        return hit(out);
+    }
+
+    public EavEntityType getEntityType(int id) {
+        return count(copy(typesById.get(id)));
+    }
+
+    public EavEntityType getEntityType(String name) {
+        return count(copy(typesByName.get(name)));
+    }
+
+    public EavAttribute getAttribute(int id) {
+        return count(copy(attrsById.get(id)));
+    }
+
+    public List<EavAttribute> getAttributes(int entityTypeId) {
+        List<EavAttribute> list = attrsByType.get(entityTypeId);
+        return list == null ? miss() : hit(copyAll(list));
+    }
+    // endregion lookups
+
+    // region fills
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    public synchronized void putEntityTypes(List<EavEntityType> types, long loadedAt) {
+        if (generation.get() != loadedAt) return;
+        for (EavEntityType t : types) {
+            putType(t);
+        }
+        allTypesLoaded = true;
+    }
+
+    public synchronized void putEntityType(EavEntityType type, long loadedAt) {
+        if (type == null || generation.get() != loadedAt) return;
+        putType(type);
+    }
+
+    public synchronized void putAttributes(int entityTypeId, List<EavAttribute> attrs, long loadedAt) {
+        if (generation.get() != loadedAt) return;
+        List<EavAttribute> copies = copyAll(attrs);
+        for (EavAttribute a : copies) {
+            attrsById.put(a.getId(), a);
+        }
+        attrsByType.put(entityTypeId, copies);
+    }
+
+    public synchronized void putAttribute(EavAttribute attr, long loadedAt) {
+        if (attr == null || generation.get() != loadedAt) return;
+        attrsById.put(attr.getId(), copy(attr));
+    }
+    // endregion fills
+
+    // region invalidation
+    public synchronized void invalidateEntityType(int entityTypeId) {
+        generation.incrementAndGet();
+        EavEntityType removed = typesById.remove(entityTypeId);
+        if (removed != null) typesByName.remove(removed.getEntityType());
+        List<EavAttribute> attrs = attrsByType.remove(entityTypeId);
+        if (attrs != null) {
+            for (EavAttribute a : attrs) attrsById.remove(a.getId());
+        }
+        attrsById.values().removeIf(a -> a.getEntityTypeId() == entityTypeId);
+    }
+
+    // a new type was created outside the cache, the full list is no longer complete
+    public synchronized void invalidateEntityTypeList() {
+        generation.incrementAndGet();
+        allTypesLoaded = false;
+    }
+
+    public synchronized void invalidateAttribute(int attrId, int entityTypeId) {
+        generation.incrementAndGet();
+        EavAttribute removed = attrsById.remove(attrId);
+        if (removed != null) attrsByType.remove(removed.getEntityTypeId());
+        attrsByType.remove(entityTypeId);
+    }
+
+    public synchronized void invalidateAttributes(Collection<EavAttribute> attrs) {
+        for (EavAttribute a : attrs) {
+            invalidateAttribute(a.getId(), a.getEntityTypeId());
+        }
+    }
+
+    public synchronized void clear() {
+        generation.incrementAndGet();
+        allTypesLoaded = false;
+        typesById.clear();
+        typesByName.clear();
+        attrsById.clear();
+        attrsByType.clear();
+    }
+    // endregion invalidation
+
+    // region stats
+    public long getHits() { return hits.get(); }
+
+    public long getMisses() { return misses.get(); }
+
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+    // endregion stats
+
+    private void putType(EavEntityType type) {
+        EavEntityType t = copy(type);
+        typesById.put(t.getId(), t);
+        typesByName.put(t.getEntityType(), t);
+    }
+
+    private static EavEntityType copy(EavEntityType t) {
+        if (t == null) return null;
+        EavEntityType c = new EavEntityType();
+        c.setId(t.getId());
+        c.setCreatedAt(t.getCreatedAt());
+        c.setEntityType(t.getEntityType());
+        return c;
+    }
+
+    private static EavAttribute copy(EavAttribute a) {
+        if (a == null) return null;
+        EavAttribute c = new EavAttribute();
+        c.setId(a.getId());
+        c.setCreatedAt(a.getCreatedAt());
+        c.setAttr(a.getAttr());
+        c.setEntityTypeId(a.getEntityTypeId());
+        c.setValueType(a.getValueType());
+        c.setAllowMultiple(a.isAllowMultiple());
+        return c;
+    }
+
+    private static List<EavAttribute> copyAll(List<EavAttribute> attrs) {
+        List<EavAttribute> out = new ArrayList<>(attrs.size());
+        for (EavAttribute a : attrs) out.add(copy(a));
+        return out;
+    }
+
+    private <T> T count(T value) {
+        return value == null ? miss() : hit(value);
+    }
+
+    private <T> T hit(T value) {
+        hits.incrementAndGet();
+        return value;
+    }
+
+    private <T> T miss() {
+        misses.incrementAndGet();
+        return null;
+    }
+}
@@ -0,0 +1,523 @@
+package org.database;
+
+import lombok.Data;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+import org.sql2o.Sql2oException;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+// in-process text search over entity names and STR values, loaded in the background on connect and patched by
+// EavInterface writes. until the load is done, searches scan the database and writes are queued up to be applied
+// on top of what the load read.
+// texts are lowercased and split into trigrams, each trigram maps to the ascending doc numbers holding it;
+// word starts also get one and two character prefix keys so short queries can match word prefixes.
+// a query intersects the postings of its keys and checks each candidate against the text, so the trigrams
+// only have to narrow the search down. writes made outside this process are not seen
+public class EavSearchIndex {
+    private static final Logger log = LoggerFactory.getLogger(EavSearchIndex.class);
+    // docs are only compacted once this many are removed and they make up a quarter of the index
+    private static final int COMPACT_MIN_DELETED = 1024;
+    // marks prefix keys, which otherwise pack like a trigram
+    private static final char WORD = '\u0001';
+
+    public enum Kind { ENTITY, VALUE }
+
+    // OFF until a load is started, LOADING while it reads, READY once it can answer; searches read the database
+    // while LOADING and after the load FAILED
+    public enum State { OFF, LOADING, FAILED, READY }
+
+    // best to worst: the whole text, its start, the start of a word in it, anywhere in it
+    public enum Match { EXACT, PREFIX, WORD, SUBSTRING }
+
+    private static final Comparator<Hit> RANK = Comparator.comparing(Hit::getMatch)
+            .thenComparing(Hit::getKind)
+            .thenComparingInt(h -> h.getText().length())
+            .thenComparingInt(Hit::getId);
+
+    private final Sql2o db;
+    private final String entityTable;
+    private final String attributeTable;
+    private final EavValueLayout layout;
+    private final IntFunction<EavAttribute> attributes;
+
+    // guarded by lock: docs by number (null once removed), doc numbers by entity / value id, value ids by
+    // owning entity and by attribute, postings by key
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private List<Doc> docs = new ArrayList<>();
+    private Map<Integer, Integer> entityDocs = new HashMap<>();
+    private Map<Integer, Integer> valueDocs = new HashMap<>();
+    private Map<Integer, Set<Integer>> valuesByEntity = new HashMap<>();
+    private Map<Integer, Set<Integer>> valuesByAttr = new HashMap<>();
+    private Map<Long, Postings> postings = new HashMap<>();
+    private int deleted = 0;
+
+    // guarded by backlog: writes made while LOADING, applied once the load is done
+    private final List<Runnable> backlog = new ArrayList<>();
+    private volatile State state = State.OFF;
+
+    private static final class Doc {
+        final Kind kind;
+        final int id;
+        final int entityId;
+        final int attrId;
+        final String text;
+        final String lowered;
+
+        Doc(Kind kind, int id, int entityId, int attrId, String text) {
+            this.kind = kind;
+            this.id = id;
+            this.entityId = entityId;
+            this.attrId = attrId;
+            this.text = text;
+            this.lowered = normalize(text);
+        }
+    }
+
+    // doc numbers are appended in increasing order, so every list stays sorted
+    private static final class Postings {
+        int[] docs = new int[2];
+        int size = 0;
+
+        void add(int doc) {
+            if (size > 0 && docs[size - 1] == doc) return;
+            if (size == docs.length) docs = Arrays.copyOf(docs, size * 2);
+            docs[size++] = doc;
+        }
+    }
+
+    @Data
+    public static class Hit {
+        private Kind kind;
+        private Match match;
+        // entity id or value id, by kind
+        private int id;
+        private int entityId;
+        // null for entities
+        private Integer attrId;
+        private String text;
+    }
+
+    public EavSearchIndex(Sql2o db, DbSetup setup, IntFunction<EavAttribute> attributes) {
+        this.db = db;
+        this.entityTable = setup.entityTable;
+        this.attributeTable = setup.attributeTable;
+        this.layout = new EavValueLayout(setup);
+        this.attributes = attributes;
+    }
+
+    // region load
+    // starts the load on its own thread, searches are answered from the database until it is done
+    public void loadInBackground() {
+        beginLoad();
+        Thread t = new Thread(() -> {
+            try {
+                load();
+            } catch (RuntimeException e) {
+                log.warn("Could not load the search index, searches keep reading the database", e);
+            }
+        }, "eav-search-load");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // from here on writes are queued instead of dropped, so the ones the load does not see are not lost
+    void beginLoad() {
+        synchronized (backlog) {
+            state = State.LOADING;
+        }
+    }
+
+    // every entity name and STR value, then the writes queued meanwhile (applying one the load already saw is a no-op)
+    void load() {
+        beginLoad();
+        lock.writeLock().lock();
+        boolean done = false;
+        try {
+            reset();
+            try (Connection conn = db.open()) {
+                read(conn, "SELECT id, id, 0, entity FROM " + entityTable, null, Kind.ENTITY, this::add);
+                read(conn, "SELECT v.id, v.entity_id, v.attr_id, v.value_str FROM " + layout.table(ValueType.STR)
+                        + " v JOIN " + attributeTable + " a ON a.id = v.attr_id WHERE a.value_type = ?",
+                        ValueType.STR.getValue(), Kind.VALUE, this::add);
+            }
+            synchronized (backlog) {
+                for (Runnable write : backlog) write.run();
+                backlog.clear();
+                compactIfNeeded();
+                state = State.READY;
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                synchronized (backlog) {
+                    backlog.clear();
+                    reset();
+                    state = State.FAILED;
+                }
+            }
+            lock.writeLock().unlock();
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    // rows of (id, entity id, attr id, text), the one parameter is bound when set
+    private void read(Connection conn, String query, Object param, Kind kind, Consumer<Doc> out) {
+        try (PreparedStatement ps = conn.getJdbcConnection().prepareStatement(query,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            EavInterface.streamResults(ps);
+            if (param != null) ps.setObject(1, param);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    String text = rs.getString(4);
+                    if (text == null || text.isEmpty()) continue;
+                    out.accept(new Doc(kind, rs.getInt(1), rs.getInt(2), rs.getInt(3), text));
+                }
+            }
+        } catch (SQLException e) {
+            throw new Sql2oException("Err: failed to read search documents", e);
+        }
+    }
+
+    private void reset() {
+        docs = new ArrayList<>();
+        entityDocs = new HashMap<>();
+        valueDocs = new HashMap<>();
+        valuesByEntity = new HashMap<>();
+        valuesByAttr = new HashMap<>();
+        postings = new HashMap<>();
+        deleted = 0;
+    }
+    // endregion load
+
+    // region writes
+    public void onEntityWritten(int entityId, String name) {
+        apply(() -> put(entityDocs, new Doc(Kind.ENTITY, entityId, entityId, 0, name)));
+    }
+
+    // created or updated value, only STR attributes are indexed
+    public void onValueWritten(EavValue v) {
+        if (state == State.OFF) return;
+        EavAttribute attr = attributes.apply(v.getAttrId());
+        boolean indexed = attr != null && attr.getValueType() == ValueType.STR;
+        Doc doc = indexed ? new Doc(Kind.VALUE, v.getId(), v.getEntityId(), v.getAttrId(), v.getValueStr()) : null;
+        apply(() -> {
+            if (doc != null) put(valueDocs, doc);
+            else remove(valueDocs, v.getId());
+        });
+    }
+
+    public void onValuesDeleted(Collection<Integer> valueIds) {
+        if (valueIds.isEmpty()) return;
+        List<Integer> ids = new ArrayList<>(valueIds);
+        apply(() -> {
+            for (Integer id : ids) remove(valueDocs, id);
+        });
+    }
+
+    // the entities and every value they held
+    public void onEntitiesDeleted(Collection<Integer> entityIds) {
+        if (entityIds.isEmpty()) return;
+        List<Integer> ids = new ArrayList<>(entityIds);
+        apply(() -> {
+            for (Integer id : ids) {
+                remove(entityDocs, id);
+                removeAll(valuesByEntity.get(id));
+            }
+        });
+    }
+
+    public void onAttributesDeleted(Collection<Integer> attrIds) {
+        if (attrIds.isEmpty()) return;
+        List<Integer> ids = new ArrayList<>(attrIds);
+        apply(() -> {
+            for (Integer id : ids) removeAll(valuesByAttr.get(id));
+        });
+    }
+
+    // value type changed: the attribute's values are dropped, and read back in when it is now STR.
+    // they are read before the lock is taken, searches keep running meanwhile
+    public void onAttributeChanged(int attrId, ValueType vt) {
+        if (state == State.OFF) return;
+        List<Doc> fresh = new ArrayList<>();
+        if (vt == ValueType.STR) {
+            try (Connection conn = db.open()) {
+                read(conn, "SELECT id, entity_id, attr_id, value_str FROM " + layout.table(ValueType.STR)
+                        + " WHERE attr_id = ?", attrId, Kind.VALUE, fresh::add);
+            }
+        }
+        apply(() -> {
+            removeAll(valuesByAttr.get(attrId));
+            for (Doc d : fresh) put(valueDocs, d);
+        });
+    }
+
+    // runs the write under the write lock once loaded, queues it while loading, drops it when there is no index
+    private void apply(Runnable write) {
+        synchronized (backlog) {
+            if (state == State.LOADING) {
+                backlog.add(write);
+                return;
+            }
+        }
+        if (state != State.READY) return;
+        lock.writeLock().lock();
+        try {
+            write.run();
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeAll(Set<Integer> valueIds) {
+        if (valueIds == null) return;
+        // remove() edits the set being walked
+        for (Integer id : new ArrayList<>(valueIds)) remove(valueDocs, id);
+    }
+
+    // replaces the doc for the same id, unless the text is unchanged
+    private void put(Map<Integer, Integer> byId, Doc doc) {
+        Integer current = byId.get(doc.id);
+        if (current != null) {
+            Doc old = docs.get(current);
+            if (doc.text != null && doc.text.equals(old.text) && doc.entityId == old.entityId) return;
+            remove(byId, doc.id);
+        }
+        if (doc.text != null && !doc.text.isEmpty()) add(doc);
+    }
+
+    private void remove(Map<Integer, Integer> byId, int id) {
+        Integer current = byId.remove(id);
+        if (current == null) return;
+        Doc old = docs.set(current, null);
+        if (old.kind == Kind.VALUE) {
+            unlink(valuesByEntity, old.entityId, old.id);
+            unlink(valuesByAttr, old.attrId, old.id);
+        }
+        deleted++;
+    }
+
+    private static void link(Map<Integer, Set<Integer>> owners, int owner, int valueId) {
+        Set<Integer> ids = owners.get(owner);
+        if (ids == null) {
+            ids = new HashSet<>();
+            owners.put(owner, ids);
+        }
+        ids.add(valueId);
+    }
+
+    private static void unlink(Map<Integer, Set<Integer>> owners, int owner, int valueId) {
+        Set<Integer> ids = owners.get(owner);
+        if (ids == null) return;
+        ids.remove(valueId);
+        if (ids.isEmpty()) owners.remove(owner);
+    }
+
+    private void add(Doc doc) {
+        int n = docs.size();
+        docs.add(doc);
+        if (doc.kind == Kind.ENTITY) {
+            entityDocs.put(doc.id, n);
+        } else {
+            valueDocs.put(doc.id, n);
+            link(valuesByEntity, doc.entityId, doc.id);
+            link(valuesByAttr, doc.attrId, doc.id);
+        }
+        String t = doc.lowered;
+        for (int i = 0; i + 2 < t.length(); i++) {
+            posting(key(t.charAt(i), t.charAt(i + 1), t.charAt(i + 2))).add(n);
+        }
+        for (int i = 0; i < t.length(); i++) {
+            if (!isWordStart(t, i) || Character.isWhitespace(t.charAt(i))) continue;
+            posting(key(WORD, WORD, t.charAt(i))).add(n);
+            if (i + 1 < t.length()) posting(key(WORD, t.charAt(i), t.charAt(i + 1))).add(n);
+        }
+    }
+
+    private Postings posting(long key) {
+        Postings p = postings.get(key);
+        if (p == null) {
+            p = new Postings();
+            postings.put(key, p);
+        }
+        return p;
+    }
+
+    // removed docs stay in the postings (skipped by queries) until enough have piled up
+    private void compactIfNeeded() {
+        if (deleted < COMPACT_MIN_DELETED || deleted * 4 < docs.size()) return;
+        List<Doc> live = new ArrayList<>(docs.size() - deleted);
+        for (Doc d : docs) {
+            if (d != null) live.add(d);
+        }
+        reset();
+        for (Doc d : live) add(d);
+    }
+    // endregion writes
+
+    // region queries
+    // ranked hits for q, `offset` hits skipped; next is the offset of the following page, null on the last one.
+    // offsets are into the current ranking, writes between pages can shift hits across a page boundary
+    public EavPage<Hit> search(String q, int offset, int limit) {
+        State current = state;
+        if (current == State.OFF) throw new IllegalStateException("Err: search index is disabled");
+        String query = normalize(q.trim());
+        if (query.isEmpty()) return new EavPage<>(new ArrayList<>(), null);
+        int wanted = (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+        TopHits top = new TopHits(wanted);
+        if (current != State.READY) {
+            scan(query, top);
+            return top.page(offset);
+        }
+        lock.readLock().lock();
+        try {
+            for (int n : candidates(query)) {
+                Doc d = docs.get(n);
+                if (d != null) top.offer(d, query);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return top.page(offset);
+    }
+
+    // answers from the database while the index is not loaded: every name and STR value containing the query,
+    // ranked like the index ranks them
+    private void scan(String query, TopHits top) {
+        String like = "%" + query.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+        try (Connection conn = db.open()) {
+            read(conn, "SELECT id, id, 0, entity FROM " + entityTable + " WHERE LOWER(entity) LIKE ?",
+                    like, Kind.ENTITY, d -> top.offer(d, query));
+            read(conn, "SELECT v.id, v.entity_id, v.attr_id, v.value_str FROM " + layout.table(ValueType.STR)
+                    + " v JOIN " + attributeTable + " a ON a.id = v.attr_id WHERE a.value_type = '"
+                    + ValueType.STR.getValue() + "' AND LOWER(v.value_str) LIKE ?",
+                    like, Kind.VALUE, d -> top.offer(d, query));
+        }
+    }
+
+    // the best `wanted` hits seen so far, worst ranked on top so it is the one dropped once there are more
+    private static final class TopHits {
+        final int wanted;
+        final PriorityQueue<Hit> top;
+        int total = 0;
+
+        TopHits(int wanted) {
+            this.wanted = wanted;
+            this.top = new PriorityQueue<>(Math.min(wanted, 1024) + 1, RANK.reversed());
+        }
+
+        void offer(Doc d, String query) {
+            Match m = match(d.lowered, query);
+            if (m == null) return;
+            total++;
+            top.add(hit(d, m));
+            if (top.size() > wanted) top.poll();
+        }
+
+        EavPage<Hit> page(int offset) {
+            List<Hit> ranked = new ArrayList<>(top);
+            ranked.sort(RANK);
+            List<Hit> rows = offset >= ranked.size() ? new ArrayList<>() : new ArrayList<>(ranked.subList(offset, ranked.size()));
+            return new EavPage<>(rows, total > wanted ? String.valueOf(wanted) : null);
+        }
+    }
+
+    // doc numbers holding every key of the query, smallest postings first
+    private int[] candidates(String query) {
+        long[] keys = keys(query);
+        Postings[] lists = new Postings[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            lists[i] = postings.get(keys[i]);
+            if (lists[i] == null) return new int[0];
+        }
+        Arrays.sort(lists, Comparator.comparingInt((Postings p) -> p.size));
+        int[] out = Arrays.copyOf(lists[0].docs, lists[0].size);
+        for (int i = 1; i < lists.length && out.length > 0; i++) {
+            out = EavColumnStore.intersect(out, Arrays.copyOf(lists[i].docs, lists[i].size));
+        }
+        return out;
+    }
+
+    private static long[] keys(String query) {
+        if (query.length() == 1) return new long[]{key(WORD, WORD, query.charAt(0))};
+        if (query.length() == 2) return new long[]{key(WORD, query.charAt(0), query.charAt(1))};
+        Set<Long> keys = new HashSet<>();
+        for (int i = 0; i + 2 < query.length(); i++) {
+            keys.add(key(query.charAt(i), query.charAt(i + 1), query.charAt(i + 2)));
+        }
+        long[] out = new long[keys.size()];
+        int i = 0;
+        for (Long k : keys) out[i++] = k;
+        return out;
+    }
+
+    // short queries only match word prefixes, longer ones anywhere
+    private static Match match(String text, String query) {
+        int at = text.indexOf(query);
+        if (at < 0) return null;
+        if (text.length() == query.length()) return Match.EXACT;
+        if (at == 0) return Match.PREFIX;
+        for (; at >= 0; at = text.indexOf(query, at + 1)) {
+            if (isWordStart(text, at)) return Match.WORD;
+        }
+        return query.length() < 3 ? null : Match.SUBSTRING;
+    }
+
+    private static Hit hit(Doc d, Match m) {
+        Hit h = new Hit();
+        h.setKind(d.kind);
+        h.setMatch(m);
+        h.setId(d.id);
+        h.setEntityId(d.entityId);
+        h.setAttrId(d.kind == Kind.VALUE ? d.attrId : null);
+        h.setText(d.text);
+        return h;
+    }
+    // endregion queries
+
+    // 0 until loaded, the load holds the lock
+    public int getDocs() {
+        if (state != State.READY) return 0;
+        lock.readLock().lock();
+        try {
+            return entityDocs.size() + valueDocs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static boolean isWordStart(String text, int i) {
+        return i == 0 || !Character.isLetterOrDigit(text.charAt(i - 1));
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.toLowerCase(Locale.ROOT);
+    }
+
+    private static long key(char a, char b, char c) {
+        return ((long) a << 32) | ((long) b << 16) | c;
+    }
+}
@@ -0,0 +1,267 @@
+package org.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// every fixed statement EavInterface runs, built once from the DbSetup table names.
+// all values are bound as parameters so the text is identical between calls and the driver's
+// prepared statement cache (see jdbcUrl) can reuse one server side statement per connection.
+// IN (:ids) lists are expanded by sql2o into one placeholder per id, so those statements are
+// only shared between lookups of the same size (full chunks, in practice).
+// value statements follow the value layout: reads use wide shaped rows (the union view when typed),
+// inserts go to the table of the value's type and deletes by id or owner run once per value table
+@SuppressWarnings("unused")
+final class EavStatements {
+    static final String VIEW_POSSIBLE = "all_possible_eav_data";
+    static final String VIEW_EXISTING = "all_existing_eav_data";
+
+    // region entityType
+    final String entityTypes;
+    final String entityTypesByIds;
+    final String entityTypeById;
+    final String entityTypeByName;
+    final String insertEntityType;
+    final String deleteEntityType;
+    // endregion entityType
+
+    // region entity
+    final String entities;
+    final String entitiesByType;
+    final String entityIdsByType;
+    final String entityById;
+    final String entitiesByIds;
+    final String entityTypesOf;
+    final String createEntity;
+    final String updateEntity;
+    final String entitySummaries;
+    final String entitySummariesByType;
+    final String entityPage;
+    final String entityPageByType;
+    // endregion entity
+
+    // region attribute
+    final String attributes;
+    final String attributesByType;
+    final String attributeIdsByType;
+    final String attributeById;
+    final String attributesByIds;
+    final String createAttribute;
+    final String updateAttribute;
+    // endregion attribute
+
+    // region value
+    final String valuesByEntity;
+    final String valuesByEntities;
+    final String valueById;
+    final String valuesByIds;
+    final String valuesTaken;
+    final String valueOwners;
+    final String createValue;
+    private final Map<ValueType, String> insertValue = new EnumMap<>(ValueType.class);
+    final String updateValue;
+    final List<String> deleteValue;
+    // endregion value
+
+    // region view
+    final String entityView;
+    private final Map<String, String> viewAll = new HashMap<>();
+    private final Map<String, ViewPage> viewPage = new HashMap<>();
+    private final Map<String, String> viewStream = new HashMap<>();
+    // endregion view
+
+    // region delete
+    private final Map<String, List<String>> deleteValuesBy = new HashMap<>();
+    private final Map<String, List<String>> deleteByIds = new HashMap<>();
+    // endregion delete
+
+    // keyset pages of a view, read from the base tables so each page is an index range scan of its own size.
+    // rows without an entity (entity types that have none) are a leading segment ordered by (type, attr),
+    // entity rows follow ordered by (type, entity, attr, value); see EavCursor
+    static final class ViewPage {
+        // null when the view has no rows without an entity
+        final String withoutEntity;
+        // the rest of the entity a page ended in
+        final String entityRest;
+        // entities after a (type, entity) position; each one has at least one row, so a short page is the end
+        final String entitiesAfter;
+
+        ViewPage(String withoutEntity, String entityRest, String entitiesAfter) {
+            this.withoutEntity = withoutEntity;
+            this.entityRest = entityRest;
+            this.entitiesAfter = entitiesAfter;
+        }
+    }
+
+    EavStatements(DbSetup setup, EavValueLayout layout) {
+        String types = setup.entityTypeTable;
+        String ents = setup.entityTable;
+        String attrs = setup.attributeTable;
+        String vals = layout.rows();
+
+        entityTypes = "SELECT * FROM " + types;
+        entityTypesByIds = "SELECT * FROM " + types + " WHERE id IN (:ids)";
+        entityTypeById = "SELECT * FROM " + types + " WHERE id = :id";
+        entityTypeByName = "SELECT * FROM " + types + " WHERE entity_type = :entity_type";
+        insertEntityType = "INSERT INTO " + types + " (entity_type) VALUES (:entity_type)";
+        deleteEntityType = "DELETE FROM " + types + " WHERE id = :id";
+
+        entities = "SELECT * FROM " + ents;
+        entitiesByType = "SELECT * FROM " + ents + " WHERE entity_type_id = :id";
+        entityIdsByType = "SELECT id FROM " + ents + " WHERE entity_type_id = :id";
+        entityById = "SELECT * FROM " + ents + " WHERE id = :id";
+        entitiesByIds = "SELECT * FROM " + ents + " WHERE id IN (:ids)";
+        entityTypesOf = "SELECT entity_type_id, id AS entity_id FROM " + ents + " WHERE id IN (:ids)";
+        createEntity = "CALL create_eav_entity(:entity_type, :entity);";
+        updateEntity = "UPDATE " + ents + " SET entity = :entity WHERE id = :id";
+        String summaries = "SELECT e.id AS entity_id, e.entity, e.created_at, e.entity_type_id, t.entity_type "
+                + "FROM " + ents + " e JOIN " + types + " t ON t.id = e.entity_type_id";
+        entitySummaries = summaries + " ORDER BY e.id";
+        entitySummariesByType = summaries + " WHERE e.entity_type_id = :t ORDER BY e.id";
+        entityPage = "SELECT * FROM " + ents + " WHERE id > :after ORDER BY id LIMIT :limit";
+        entityPageByType = "SELECT * FROM " + ents + " WHERE entity_type_id = :t AND id > :after ORDER BY id LIMIT :limit";
+
+        attributes = "SELECT * FROM " + attrs;
+        attributesByType = "SELECT * FROM " + attrs + " WHERE entity_type_id = :id";
+        attributeIdsByType = "SELECT id FROM " + attrs + " WHERE entity_type_id = :id";
+        attributeById = "SELECT * FROM " + attrs + " WHERE id = :id";
+        attributesByIds = "SELECT * FROM " + attrs + " WHERE id IN (:ids)";
+        createAttribute = "CALL create_eav_attr(:attr, :attr_type, :entity_type_id, :allow_multiple);";
+        updateAttribute = "UPDATE " + attrs + " SET value_type = :vt, allow_multiple = :am WHERE id = :id";
+
+        valuesByEntity = "SELECT * FROM " + vals + " WHERE entity_id = :id";
+        valuesByEntities = "SELECT * FROM " + vals + " WHERE entity_id IN (:ids) ORDER BY entity_id, attr_id, id";
+        valueById = "SELECT * FROM " + vals + " WHERE id = :id";
+        valuesByIds = "SELECT * FROM " + vals + " WHERE id IN (:ids)";
+        valuesTaken = "SELECT * FROM " + vals + " WHERE attr_id IN (:attr_ids) AND entity_id IN (:entity_ids)";
+        valueOwners = "SELECT DISTINCT e.entity_type_id, v.entity_id FROM " + vals + " v JOIN " + ents
+                + " e ON e.id = v.entity_id WHERE v.id IN (:ids)";
+        createValue = "CALL create_eav_value(:entity_id, :attr_id, :v1, :v2, :v3, :v4, :v5);";
+        for (ValueType vt : ValueType.values()) {
+            // typed tables only have the one value column, bound as :v
+            insertValue.put(vt, layout.typed
+                    ? "INSERT INTO " + layout.table(vt) + " (entity_id, attr_id, " + vt.getColumn() + ") VALUES (:entity_id, :attr_id, :v)"
+                    : "INSERT INTO " + vals + " (entity_id, attr_id, value_str, value_int, value_float, value_time, value_bool) "
+                    + "VALUES (:entity_id, :attr_id, :v1, :v2, :v3, :v4, :v5)");
+        }
+        updateValue = "CALL update_eav_value(:id, :v1, :v2, :v3, :v4, :v5);";
+        List<String> deletes = new ArrayList<>();
+        for (String table : layout.tables()) deletes.add("DELETE FROM " + table + " WHERE id = :value_id");
+        deleteValue = Collections.unmodifiableList(deletes);
+
+        entityView = "SELECT * FROM " + VIEW_POSSIBLE + " WHERE entity_id = :entity_id";
+        String viewColumns = "eet.id AS entity_type_id, eet.entity_type, ee.id AS entity_id, ee.entity, "
+                + "ea.id AS attr_id, ea.attr, ea.value_type, ea.allow_multiple, ev.id AS value_id, ev.created_at, "
+                + "ev.value_str, ev.value_int, ev.value_float, ev.value_time, ev.value_bool";
+        // same joins as the views, driven from the entity rows
+        String possibleJoins = " JOIN " + types + " eet ON eet.id = ee.entity_type_id"
+                + " LEFT JOIN " + attrs + " ea ON ea.entity_type_id = ee.entity_type_id"
+                + " LEFT JOIN " + vals + " ev ON ev.entity_id = ee.id AND ev.attr_id = ea.id";
+        String existingJoins = " JOIN " + types + " eet ON eet.id = ee.entity_type_id"
+                + " JOIN " + vals + " ev ON ev.entity_id = ee.id"
+                + " JOIN " + attrs + " ea ON ea.id = ev.attr_id";
+        String withoutEntity = "SELECT eet.id AS entity_type_id, eet.entity_type, NULL AS entity_id, NULL AS entity, "
+                + "ea.id AS attr_id, ea.attr, ea.value_type, ea.allow_multiple, NULL AS value_id, NULL AS created_at, "
+                + "NULL AS value_str, NULL AS value_int, NULL AS value_float, NULL AS value_time, NULL AS value_bool "
+                + "FROM " + types + " eet LEFT JOIN " + attrs + " ea ON ea.entity_type_id = eet.id "
+                + "WHERE (eet.id > :t OR (eet.id = :t AND ea.id > :a)) "
+                + "AND NOT EXISTS (SELECT 1 FROM " + ents + " x WHERE x.entity_type_id = eet.id) "
+                + "ORDER BY eet.id, ea.id LIMIT :limit";
+        viewPage.put(VIEW_POSSIBLE, new ViewPage(withoutEntity,
+                entityRest(viewColumns, ents, possibleJoins), entitiesAfter(viewColumns, ents, possibleJoins, null)));
+        // every value has an entity and attribute (foreign keys), so the existing view has no rows without one
+        viewPage.put(VIEW_EXISTING, new ViewPage(null,
+                entityRest(viewColumns, ents, existingJoins),
+                entitiesAfter(viewColumns, ents, existingJoins, "EXISTS (SELECT 1 FROM " + vals + " v WHERE v.entity_id = x.id)")));
+        for (String view : new String[]{VIEW_POSSIBLE, VIEW_EXISTING}) {
+            viewAll.put(view, "SELECT * FROM " + view);
+            // mysql sorts nulls first, the same place the page order gives them
+            viewStream.put(view, "SELECT * FROM " + view + " ORDER BY entity_type_id, entity_id, attr_id, value_id");
+        }
+
+        for (String column : new String[]{"entity_id", "attr_id"}) {
+            List<String> byColumn = new ArrayList<>();
+            for (String table : layout.tables()) {
+                byColumn.add("DELETE FROM " + table + " WHERE " + column + " IN (:ids) LIMIT :limit");
+            }
+            deleteValuesBy.put(column, Collections.unmodifiableList(byColumn));
+        }
+        for (String table : new String[]{types, ents, attrs}) {
+            deleteByIds.put(table, Collections.singletonList("DELETE FROM " + table + " WHERE id IN (:ids)"));
+        }
+        List<String> valuesByIds = new ArrayList<>();
+        for (String table : layout.tables()) valuesByIds.add("DELETE FROM " + table + " WHERE id IN (:ids)");
+        // keyed by the configured value table name, which is what EavInterface passes as the parent table
+        deleteByIds.put(setup.valueTable, Collections.unmodifiableList(valuesByIds));
+    }
+
+    private static String entityRest(String columns, String ents, String joins) {
+        return "SELECT " + columns + " FROM " + ents + " ee" + joins
+                + " WHERE ee.id = :e AND (ea.id > :a OR (ea.id = :a AND ev.id > :v))"
+                + " ORDER BY ea.id, ev.id LIMIT :limit";
+    }
+
+    // the derived table is a range scan of the entity_type_id index (which ends in id), at most :limit entities
+    private static String entitiesAfter(String columns, String ents, String joins, String filter) {
+        return "SELECT " + columns + " FROM (SELECT x.id, x.entity, x.entity_type_id FROM " + ents + " x"
+                + " WHERE (x.entity_type_id > :t OR (x.entity_type_id = :t AND x.id > :e))"
+                + (filter != null ? " AND " + filter : "")
+                + " ORDER BY x.entity_type_id, x.id LIMIT :limit) ee" + joins
+                + " ORDER BY ee.entity_type_id, ee.id, ea.id, ev.id LIMIT :limit";
+    }
+
+    // typed layout: binds :v, wide layout: :v1 .. :v5
+    String insertValue(ValueType vt) {
+        return insertValue.get(vt);
+    }
+
+    String viewAll(String view) {
+        return lookup(viewAll, view);
+    }
+
+    ViewPage viewPage(String view) {
+        return lookup(viewPage, view);
+    }
+
+    String viewStream(String view) {
+        return lookup(viewStream, view);
+    }
+
+    List<String> deleteValuesBy(String column) {
+        return lookup(deleteValuesBy, column);
+    }
+
+    List<String> deleteByIds(String table) {
+        return lookup(deleteByIds, table);
+    }
+
+    private static <T> T lookup(Map<String, T> statements, String key) {
+        T sql = statements.get(key);
+        if (sql == null) {
+            throw new IllegalArgumentException("Err: no statement registered for " + key);
+        }
+        return sql;
+    }
+
+    // mysql url with driver side statement caching: statements are prepared on the server once per
+    // pooled connection and reused from the driver's per connection cache after that.
+    // rewriteBatchedStatements still folds batched inserts into multi-row statements
+    static String jdbcUrl(DbSetup setup) {
+        return jdbcUrl(setup, setup.server);
+    }
+
+    // same database and options on another server (a replica)
+    static String jdbcUrl(DbSetup setup, String server) {
+        return "jdbc:mysql://" + server + "/" + setup.dbName
+                + "?allowPublicKeyRetrieval=true&rewriteBatchedStatements=true"
+                + "&useServerPrepStmts=true&cachePrepStmts=true"
+                + "&prepStmtCacheSize=" + setup.statementCacheSize
+                + "&prepStmtCacheSqlLimit=" + setup.statementCacheSqlLimit
+                + "&cacheCallableStmts=true&callableStmtCacheSize=" + setup.statementCacheSize
+                // session state is tracked locally, saves a round trip per autocommit / isolation check
+                + "&useLocalSessionState=true";
+    }
+}
@@ -38,20 +38,24 @@ public class EavValue {
     private Float valueFloat = null;
 
     @Column(name = "value_time")
-    private String valueTime = null;
+    private Instant valueTime = null;
 
     @Column(name = "value_bool")
     private Boolean valueBool = null;
 
-    public Instant getValueTime() {
-        if (valueTime == null || valueTime.isEmpty()) return null;
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm");
-        LocalDateTime localDateTime = LocalDateTime.parse(valueTime, formatter);
-        return localDateTime.toInstant(ZoneOffset.UTC);
+    // text form used by the write-behind log
+    String getRawValueTime() {
+        return valueTime == null ? null : valueTime.toString();
     }
 
-    public void setValueTime(Instant i) {
-        if (i == null) valueTime = null;
-        else valueTime = i.toString();
+    void setRawValueTime(String raw) {
+        valueTime = parseTime(raw);
+    }
+
+    // accepts Instant.toString() and LocalDateTime.toString() (taken as utc, seconds optional)
+    static Instant parseTime(String s) {
+        if (s == null || s.isEmpty()) return null;
+        if (s.endsWith("Z")) return Instant.parse(s);
+        return LocalDateTime.parse(s, DateTimeFormatter.ISO_LOCAL_DATE_TIME).toInstant(ZoneOffset.UTC);
     }
 }
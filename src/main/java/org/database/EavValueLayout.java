@@ -0,0 +1,54 @@
+package org.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// where value rows live. WIDE: one table with a nullable column per value type.
+// TYPED: one narrow table per value type (<valueTable>_str, ...), each keeping the wide table's column name
+// for its value, plus a union view (<valueTable>_all) with the wide row shape for reads that span types.
+// ids stay unique across the typed tables by giving each table its own id range
+@SuppressWarnings("unused")
+final class EavValueLayout {
+    // ids per typed table, the str range also holds the ids carried over from the wide table
+    static final int ID_RANGE = 400_000_000;
+
+    final boolean typed;
+    private final String valueTable;
+
+    EavValueLayout(DbSetup setup) {
+        this.typed = setup.valueLayout == DbSetup.ValueLayout.TYPED;
+        this.valueTable = setup.valueTable;
+    }
+
+    // table (or view) with wide shaped rows: id, created_at, entity_id, attr_id, value_str .. value_bool
+    String rows() {
+        return typed ? allView(valueTable) : valueTable;
+    }
+
+    // table holding the values of one type, its value column is always vt.getColumn()
+    String table(ValueType vt) {
+        return typed ? typedTable(valueTable, vt) : valueTable;
+    }
+
+    // every table a value row can be in, for writes that do not know the type
+    List<String> tables() {
+        if (!typed) return Collections.singletonList(valueTable);
+        List<String> out = new ArrayList<>(ValueType.values().length);
+        for (ValueType vt : ValueType.values()) out.add(typedTable(valueTable, vt));
+        return out;
+    }
+
+    static String typedTable(String valueTable, ValueType vt) {
+        return valueTable + "_" + vt.getValue();
+    }
+
+    static String allView(String valueTable) {
+        return valueTable + "_all";
+    }
+
+    // first auto increment id of a typed table
+    static int firstId(ValueType vt) {
+        return vt.ordinal() * ID_RANGE + 1;
+    }
+}
@@ -0,0 +1,75 @@
+package org.database;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+// version stamps for conditional GETs, fed by the change bus
+// a version is the seq of the last change that touched it (0 = unchanged since startup); changes whose
+// owner is unknown (bulk deletes by id) bump the global stamp, which is part of every tag
+// writes made outside this process are not seen
+@SuppressWarnings("unused")
+public class EavVersions implements Consumer<EavChange> {
+    // tags from another process / connection never match, counters restart at 0
+    private final String instance = Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+    private final Map<Integer, Long> entities = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> entityTypes = new ConcurrentHashMap<>();
+    private volatile long attributes = 0;
+    private volatile long global = 0;
+
+    @Override
+    public void accept(EavChange c) {
+        long seq = c.getSeq();
+        switch (c.getTarget()) {
+            case ENTITY_TYPE:
+                if (c.getAction() == EavChange.Action.DELETED) global = seq;
+                else bump(entityTypes, c.getEntityTypeId(), seq);
+                break;
+            case ENTITY:
+                if (c.getEntityTypeId() == null) {
+                    global = seq;
+                    break;
+                }
+                bump(entityTypes, c.getEntityTypeId(), seq);
+                for (Integer id : c.getIds()) bump(entities, id, seq);
+                break;
+            case ATTRIBUTE:
+                attributes = seq;
+                break;
+            default:
+                if (c.getEntityId() == null) global = seq;
+                else bump(entities, c.getEntityId(), seq);
+        }
+    }
+
+    // GET /view/entity/{id}: the entity's values and every attribute definition
+    public String entityViewTag(int entityId) {
+        return tag(attributes, version(entities, entityId));
+    }
+
+    // GET /attributes/{entity_id}
+    public String attributesTag(int entityId) {
+        return tag(attributes, version(entities, entityId));
+    }
+
+    // GET /entities/{type_id}
+    public String entityTypeTag(int entityTypeId) {
+        return tag(version(entityTypes, entityTypeId));
+    }
+
+    private String tag(long... versions) {
+        StringBuilder sb = new StringBuilder("\"").append(instance).append('-').append(global);
+        for (long v : versions) sb.append('-').append(v);
+        return sb.append('"').toString();
+    }
+
+    private static long version(Map<Integer, Long> versions, int id) {
+        Long v = versions.get(id);
+        return v == null ? 0 : v;
+    }
+
+    private static void bump(Map<Integer, Long> versions, Integer id, long seq) {
+        if (id != null) versions.merge(id, seq, Math::max);
+    }
+}
@@ -5,9 +5,6 @@ import lombok.EqualsAndHashCode;
 
 import javax.persistence.Column;
 import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
-import java.time.format.DateTimeFormatter;
 
 @SuppressWarnings("unused")
 @Data
@@ -45,7 +42,7 @@ public class EavView {
     @Column(name = "value_float")
     private Float   valueFloat = null;
     @Column(name = "value_time")
-    private String valueTime  = null;
+    private Instant valueTime  = null;
     @Column(name = "value_bool")
     private Boolean valueBool  = null;
 
@@ -58,17 +55,6 @@ public class EavView {
     public void setValueType(ValueType v) {
         valueType = v.getValue();
     }
-
-    public Instant getValueTime() {
-        if (valueTime == null || valueTime.isEmpty()) return null;
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm");
-        LocalDateTime localDateTime = LocalDateTime.parse(valueTime, formatter);
-        return localDateTime.toInstant(ZoneOffset.UTC);
-    }
-
-    public void setValueTime(Instant i) {
-        valueTime = i.toString();
-    }
     // endregion custom getters/setters
 
     public String toCondensedString() {
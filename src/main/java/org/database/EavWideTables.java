@@ -0,0 +1,335 @@
+package org.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+import org.sql2o.Sql2oException;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntFunction;
+
+// optional per entity type projection: one row per entity, one column (a_<attr id>) per attribute
+// rows are recomputed from the value table rather than patched, so maintenance is idempotent and
+// a refresh that raced a rebuild or another write still ends up correct
+// attribute changes only mark the table stale, it is rebuilt on the next read
+@SuppressWarnings("unused")
+public class EavWideTables {
+    private static final Logger log = LoggerFactory.getLogger(EavWideTables.class);
+    public static final String REGISTRY_TABLE = "eav_wide_tables";
+    public static final String TABLE_PREFIX = "eav_wide_";
+    public static final String REFRESH_METRIC = "wide.refresh";
+
+    private final Sql2o db;
+    private final String entityTable;
+    private final EavValueLayout layout;
+    private final IntFunction<List<EavAttribute>> attributes;
+    private final EavMetrics metrics;
+    private final Map<Integer, WideTable> tables = new ConcurrentHashMap<>();
+
+    public EavWideTables(Sql2o db, DbSetup setup, EavMetrics metrics, IntFunction<List<EavAttribute>> attributes) {
+        this.db = db;
+        this.metrics = metrics;
+        this.entityTable = setup.entityTable;
+        this.layout = new EavValueLayout(setup);
+        this.attributes = attributes;
+    }
+
+    // region registry
+    // picks up tables enabled by a previous run, a missing registry just means none are enabled
+    public void load() {
+        List<Integer> typeIds;
+        try (Connection conn = db.open()) {
+            typeIds = conn.createQuery("SELECT entity_type_id FROM " + REGISTRY_TABLE)
+                    .executeScalarList(Integer.class);
+        } catch (Sql2oException e) {
+            return;
+        }
+        for (Integer typeId : typeIds) {
+            // columns are only known for tables built by this process, so these start out stale
+            tables.put(typeId, new WideTable(typeId));
+        }
+    }
+
+    public boolean isEmpty() {
+        return tables.isEmpty();
+    }
+
+    public boolean isEnabled(int entityTypeId) {
+        return tables.containsKey(entityTypeId);
+    }
+
+    public Set<Integer> getEnabledTypes() {
+        return new TreeSet<>(tables.keySet());
+    }
+
+    public void enable(int entityTypeId) {
+        WideTable t = tables.computeIfAbsent(entityTypeId, WideTable::new);
+        try (Connection conn = db.open()) {
+            conn.createQuery("CREATE TABLE IF NOT EXISTS " + REGISTRY_TABLE + " ("
+                    + "entity_type_id int unsigned not null, "
+                    + "built_at datetime not null default NOW(), "
+                    + "primary key (entity_type_id))").executeUpdate();
+            conn.createQuery("DELETE FROM " + REGISTRY_TABLE + " WHERE entity_type_id = :t")
+                    .addParameter("t", entityTypeId)
+                    .executeUpdate();
+            conn.createQuery("INSERT INTO " + REGISTRY_TABLE + " (entity_type_id) VALUES (:t)")
+                    .addParameter("t", entityTypeId)
+                    .executeUpdate();
+        }
+        rebuild(t);
+    }
+
+    public boolean disable(int entityTypeId) {
+        WideTable t = tables.remove(entityTypeId);
+        if (t == null) return false;
+        t.lock.writeLock().lock();
+        try (Connection conn = db.open()) {
+            conn.createQuery("DROP TABLE IF EXISTS " + t.name).executeUpdate();
+            conn.createQuery("DELETE FROM " + REGISTRY_TABLE + " WHERE entity_type_id = :t")
+                    .addParameter("t", entityTypeId)
+                    .executeUpdate();
+        } finally {
+            t.lock.writeLock().unlock();
+        }
+        return true;
+    }
+    // endregion registry
+
+    // region maintenance
+    public void refreshEntities(int entityTypeId, Collection<Integer> entityIds) {
+        WideTable t = tables.get(entityTypeId);
+        if (t == null || entityIds.isEmpty()) return;
+        refresh(t, entityIds);
+    }
+
+    // attribute definitions changed, columns no longer match
+    public void invalidate(int entityTypeId) {
+        WideTable t = tables.get(entityTypeId);
+        if (t != null) t.stale = true;
+    }
+
+    public void rebuild(int entityTypeId) {
+        WideTable t = tables.get(entityTypeId);
+        if (t == null) throw new IllegalArgumentException("Err: no wide table for entity type " + entityTypeId);
+        rebuild(t);
+    }
+
+    // failures are logged and counted as errors of the wide.refresh timer, the table is rebuilt on its next read
+    private void refresh(WideTable t, Collection<Integer> entityIds) {
+        long start = System.nanoTime();
+        t.lock.readLock().lock();
+        try {
+            // a stale table is rebuilt from scratch on the next read anyway
+            if (t.stale) return;
+            List<Integer> ids = new ArrayList<>(new HashSet<>(entityIds));
+            try (Connection conn = db.beginTransaction()) {
+                try {
+                    conn.createQuery("DELETE FROM " + t.name + " WHERE entity_id IN (:ids)")
+                            .addParameter("ids", ids)
+                            .executeUpdate();
+                    conn.createQuery(insertSql(t.name, t.typeId, t.columns) + " AND e.id IN (:ids)")
+                            .addParameter("ids", ids)
+                            .executeUpdate();
+                    conn.commit();
+                } catch (Sql2oException e) {
+                    conn.rollback();
+                    throw e;
+                }
+            }
+            metrics.record(REFRESH_METRIC, System.nanoTime() - start);
+        } catch (Sql2oException e) {
+            log.warn("Wide table {} refresh failed, marking stale", t.name, e);
+            metrics.recordError(REFRESH_METRIC, System.nanoTime() - start);
+            t.stale = true;
+        } finally {
+            t.lock.readLock().unlock();
+        }
+    }
+
+    // builds into a scratch table and swaps it in with one RENAME
+    private void rebuild(WideTable t) {
+        t.lock.writeLock().lock();
+        try {
+            List<EavAttribute> columns = attributes.apply(t.typeId);
+            String scratch = t.name + "_build";
+            String old = t.name + "_old";
+            try (Connection conn = db.open()) {
+                conn.createQuery("DROP TABLE IF EXISTS " + scratch).executeUpdate();
+                conn.createQuery(createSql(scratch, columns)).executeUpdate();
+                conn.createQuery(insertSql(scratch, t.typeId, columns)).executeUpdate();
+                conn.createQuery("DROP TABLE IF EXISTS " + old).executeUpdate();
+                conn.createQuery("CREATE TABLE IF NOT EXISTS " + t.name + " (entity_id int unsigned)").executeUpdate();
+                conn.createQuery("RENAME TABLE " + t.name + " TO " + old + ", " + scratch + " TO " + t.name).executeUpdate();
+                conn.createQuery("DROP TABLE " + old).executeUpdate();
+                conn.createQuery("UPDATE " + REGISTRY_TABLE + " SET built_at = NOW() WHERE entity_type_id = :t")
+                        .addParameter("t", t.typeId)
+                        .executeUpdate();
+            }
+            t.columns = columns;
+            t.stale = false;
+        } catch (RuntimeException e) {
+            t.stale = true;
+            throw e;
+        } finally {
+            t.lock.writeLock().unlock();
+        }
+    }
+    // endregion maintenance
+
+    // region reads
+    public EavPage<Map<String, Object>> getRows(int entityTypeId, int afterEntityId, int limit) {
+        WideTable t = ready(entityTypeId);
+        t.lock.readLock().lock();
+        try (Connection conn = db.open()) {
+            String query = "SELECT * FROM " + t.name + " WHERE entity_id > ? ORDER BY entity_id LIMIT ?";
+            List<Map<String, Object>> rows = read(conn, t, query, afterEntityId, limit);
+            String next = rows.size() < limit ? null
+                    : String.valueOf(rows.get(rows.size() - 1).get("entityId"));
+            return new EavPage<>(rows, next);
+        } finally {
+            t.lock.readLock().unlock();
+        }
+    }
+
+    public Map<String, Object> getRow(int entityTypeId, int entityId) {
+        WideTable t = ready(entityTypeId);
+        t.lock.readLock().lock();
+        try (Connection conn = db.open()) {
+            List<Map<String, Object>> rows = read(conn, t,
+                    "SELECT * FROM " + t.name + " WHERE entity_id = ?", entityId);
+            return rows.isEmpty() ? null : rows.get(0);
+        } finally {
+            t.lock.readLock().unlock();
+        }
+    }
+
+    private WideTable ready(int entityTypeId) {
+        WideTable t = tables.get(entityTypeId);
+        if (t == null) throw new IllegalArgumentException("Err: no wide table for entity type " + entityTypeId);
+        if (t.stale) {
+            t.lock.writeLock().lock();
+            try {
+                if (t.stale) rebuild(t);
+            } finally {
+                t.lock.writeLock().unlock();
+            }
+        }
+        return t;
+    }
+
+    // attribute columns come back keyed by attribute name, multi-valued ones as a json array string
+    private static List<Map<String, Object>> read(Connection conn, WideTable t, String sql, Object... params) {
+        Map<String, String> names = new HashMap<>();
+        for (EavAttribute a : t.columns) {
+            names.put(column(a), a.getAttr());
+        }
+        List<Map<String, Object>> rows = new ArrayList<>();
+        try (PreparedStatement ps = conn.getJdbcConnection().prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) {
+                ps.setObject(i + 1, params[i]);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                ResultSetMetaData meta = rs.getMetaData();
+                while (rs.next()) {
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    row.put("entityId", rs.getInt("entity_id"));
+                    row.put("entity", rs.getString("entity"));
+                    row.put("createdAt", toValue(rs.getObject("created_at")));
+                    for (int i = 1; i <= meta.getColumnCount(); i++) {
+                        String name = names.get(meta.getColumnLabel(i).toLowerCase());
+                        if (name != null) row.put(name, toValue(rs.getObject(i)));
+                    }
+                    rows.add(row);
+                }
+            }
+        } catch (SQLException e) {
+            throw new Sql2oException("Err: failed to read wide table " + t.name, e);
+        }
+        return rows;
+    }
+
+    // same string form sql2o gives datetime columns elsewhere
+    private static Object toValue(Object o) {
+        if (o instanceof Timestamp) return ((Timestamp) o).toLocalDateTime().toString();
+        if (o instanceof java.time.LocalDateTime) return o.toString();
+        return o;
+    }
+    // endregion reads
+
+    // region sql
+    private static String column(EavAttribute a) {
+        return "a_" + a.getId();
+    }
+
+    private static String createSql(String table, List<EavAttribute> columns) {
+        StringBuilder sql = new StringBuilder("CREATE TABLE " + table + " (")
+                .append("entity_id int unsigned not null, ")
+                .append("entity varchar(255) not null, ")
+                .append("created_at datetime not null, ");
+        for (EavAttribute a : columns) {
+            sql.append(column(a)).append(' ').append(columnType(a)).append(", ");
+        }
+        return sql.append("primary key (entity_id))").toString();
+    }
+
+    // text keeps wide types under innodb's 64k row size limit
+    private static String columnType(EavAttribute a) {
+        if (a.isAllowMultiple()) return "json";
+        switch (a.getValueType()) {
+            case STR: return "text";
+            case INT: return "int";
+            case FLOAT: return "float";
+            case TIME: return "datetime";
+            default: return "bool";
+        }
+    }
+
+    // one correlated lookup per attribute, each served by the (entity_id, attr_id) index
+    private String insertSql(String table, int entityTypeId, List<EavAttribute> columns) {
+        StringBuilder cols = new StringBuilder("entity_id, entity, created_at");
+        StringBuilder cells = new StringBuilder("e.id, e.entity, e.created_at");
+        for (EavAttribute a : columns) {
+            String valueColumn = "v." + a.getValueType().getColumn();
+            String match = " FROM " + layout.table(a.getValueType()) + " v WHERE v.entity_id = e.id AND v.attr_id = " + a.getId();
+            cols.append(", ").append(column(a));
+            if (a.isAllowMultiple()) {
+                cells.append(", (SELECT JSON_ARRAYAGG(").append(valueColumn).append(")").append(match).append(")");
+            } else {
+                cells.append(", (SELECT ").append(valueColumn).append(match).append(" ORDER BY v.id LIMIT 1)");
+            }
+        }
+        return "INSERT INTO " + table + " (" + cols + ") SELECT " + cells
+                + " FROM " + entityTable + " e WHERE e.entity_type_id = " + entityTypeId;
+    }
+    // endregion sql
+
+    private static class WideTable {
+        final int typeId;
+        final String name;
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        volatile List<EavAttribute> columns = new ArrayList<>();
+        // true until built by this process
+        volatile boolean stale = true;
+
+        WideTable(int typeId) {
+            this.typeId = typeId;
+            this.name = TABLE_PREFIX + typeId;
+        }
+    }
+}
@@ -0,0 +1,508 @@
+package org.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sql2o.Connection;
+import org.sql2o.Query;
+import org.sql2o.Sql2o;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// optional write-behind mode for value updates
+// updates are merged per value id in memory and appended to a memory mapped log before they are
+// acknowledged, then written to the db in batched transactions once enough are pending or the
+// flush interval passes. the log survives a process crash (the os still has the mapped pages)
+// and is replayed on the next start. the mapped pages are forced to disk every flush interval, so
+// an os crash or power loss can lose the updates acknowledged in the last interval; with
+// writeBehindSyncEachUpdate every update is forced before it is acknowledged instead.
+//
+// two log files take turns: a flush swaps the active one, so updates accepted while a batch is
+// being written land in the other file and the flushed file is only cleared once its batch committed
+@SuppressWarnings("unused")
+public class EavWriteBuffer implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(EavWriteBuffer.class);
+    private static final int MAGIC = 0x45415657; // "EAVW"
+    // magic + generation, records follow
+    private static final int HEADER_BYTES = 12;
+    private static final int BATCH_CHUNK_SIZE = 1000;
+
+    private final Sql2o db;
+    private final EavValueLayout layout;
+    private final EavMetrics metrics;
+    // receives the ids of values written by a flush, so derived projections can catch up
+    private final Consumer<List<Integer>> onFlushed;
+    private final int maxPending;
+    private final boolean syncEachUpdate;
+    private final ScheduledExecutorService flusher;
+
+    // guarded by this: pending updates and the log they are appended to
+    private Map<Integer, EavValue> pending = new LinkedHashMap<>();
+    private final LogFile[] logs = new LogFile[2];
+    private int active;
+    private long generation;
+
+    // one flush at a time, enqueue does not wait on it
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicLong accepted = new AtomicLong(0);
+    private final AtomicLong merged = new AtomicLong(0);
+    private final AtomicLong flushed = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+
+    public EavWriteBuffer(Sql2o db, DbSetup setup, EavMetrics metrics, Consumer<List<Integer>> onFlushed) {
+        this.db = db;
+        this.layout = new EavValueLayout(setup);
+        this.metrics = metrics;
+        this.onFlushed = onFlushed;
+        this.maxPending = setup.writeBehindMaxPending;
+        this.syncEachUpdate = setup.writeBehindSyncEachUpdate;
+
+        String base = setup.writeBehindLog != null ? setup.writeBehindLog
+                : "eav-write-behind-" + setup.dbName.replaceAll("[^A-Za-z0-9_-]", "_");
+        logs[0] = new LogFile(new File(base + ".0.log"), setup.writeBehindLogBytes);
+        logs[1] = new LogFile(new File(base + ".1.log"), setup.writeBehindLogBytes);
+        replay();
+
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "eav-write-behind");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly,
+                setup.writeBehindFlushMs, setup.writeBehindFlushMs, TimeUnit.MILLISECONDS);
+        if (!syncEachUpdate) {
+            flusher.scheduleWithFixedDelay(this::forceQuietly,
+                    setup.writeBehindFlushMs, setup.writeBehindFlushMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // region writes
+    // accepted once it is in the log; later updates to the same value replace earlier ones.
+    // vt is the value's attribute type, a value of another type would never reach its row
+    public EavValue update(EavValue value, ValueType vt) {
+        if (value.getId() == 0) {
+            throw new IllegalArgumentException("Err: value id not provided");
+        }
+        if (!holdsOnly(value, vt)) {
+            throw new IllegalArgumentException("Err: value does not match its attribute's type " + vt.getValue());
+        }
+        byte[] record = encode(value);
+        // log the record went to, null when it was full
+        LogFile written;
+        synchronized (this) {
+            written = logs[active].append(record) ? logs[active] : null;
+            if (written != null) {
+                if (pending.put(value.getId(), value) != null) merged.incrementAndGet();
+                accepted.incrementAndGet();
+            }
+        }
+        if (written == null) {
+            // log segment full, flush on the caller so the swap frees a segment
+            flush();
+            synchronized (this) {
+                if (!logs[active].append(record)) {
+                    throw new IllegalStateException("Err: write-behind log is full, value " + value.getId() + " not accepted");
+                }
+                written = logs[active];
+                if (pending.put(value.getId(), value) != null) merged.incrementAndGet();
+                accepted.incrementAndGet();
+            }
+        } else if (getPending() >= maxPending) {
+            flusher.execute(this::flushQuietly);
+        }
+        if (syncEachUpdate) written.force();
+        return value;
+    }
+
+    public synchronized int getPending() {
+        return pending.size();
+    }
+
+    public synchronized EavValue getPending(int valueId) {
+        return pending.get(valueId);
+    }
+    // endregion writes
+
+    // region flush
+    // writes everything pending at the time of the call, returns the number of values written.
+    // the batch is taken under the lock and written outside it, updates keep being accepted meanwhile
+    public int flush() {
+        flushLock.lock();
+        try {
+            Map<Integer, EavValue> batch;
+            // log holding the batch, null when both logs hold records (a failed flush could not move its
+            // batch back) and there is nothing to swap to: updates keep going to the active log then
+            LogFile flushing;
+            synchronized (this) {
+                if (pending.isEmpty()) return 0;
+                batch = pending;
+                pending = new LinkedHashMap<>();
+                if (logs[1 - active].hasRecords()) {
+                    flushing = null;
+                } else {
+                    flushing = logs[active];
+                    active = 1 - active;
+                    logs[active].reset(++generation);
+                }
+            }
+            try {
+                List<Integer> written = metrics.time("writeBehindFlush", () -> write(batch));
+                flushed.addAndGet(written.size());
+                failed.addAndGet(batch.size() - written.size());
+                synchronized (this) {
+                    if (flushing != null) flushing.reset(0);
+                    else moveToOtherLog();
+                }
+                notifyFlushed(written);
+                return written.size();
+            } catch (RuntimeException e) {
+                // keep the batch: newer updates win, the rest go back into the active log
+                synchronized (this) {
+                    boolean moved = flushing != null;
+                    if (moved) {
+                        for (EavValue v : batch.values()) {
+                            if (!pending.containsKey(v.getId()) && !logs[active].append(encode(v))) {
+                                // no room, the old log stays behind until an in place flush gets it written
+                                moved = false;
+                                break;
+                            }
+                        }
+                    }
+                    Map<Integer, EavValue> restored = new LinkedHashMap<>(batch);
+                    restored.putAll(pending);
+                    pending = restored;
+                    if (moved) flushing.reset(0);
+                }
+                throw e;
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // after an in place flush: the updates that arrived meanwhile are rewritten into the other log under a newer
+    // generation, then the active log is cleared. they were appended to a log of the same size, so they fit;
+    // if they somehow do not, both logs stay and replay applies them oldest first
+    private void moveToOtherLog() {
+        LogFile next = logs[1 - active];
+        next.reset(++generation);
+        for (EavValue v : pending.values()) {
+            if (!next.append(encode(v))) return;
+        }
+        logs[active].reset(0);
+        active = 1 - active;
+    }
+
+    // the batch is committed at this point, a failing listener must not put it back
+    private void notifyFlushed(List<Integer> written) {
+        if (written.isEmpty()) return;
+        try {
+            onFlushed.accept(written);
+        } catch (RuntimeException e) {
+            log.warn("Could not refresh projections after a write-behind flush", e);
+        }
+    }
+
+    private void forceQuietly() {
+        try {
+            for (LogFile f : logs) f.force();
+        } catch (RuntimeException e) {
+            log.warn("Could not force the write-behind log to disk", e);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.warn("Write-behind flush failed, retrying on the next interval", e);
+        }
+    }
+
+    // plain batched UPDATEs, one transaction per chunk; rows deleted in the meantime are skipped
+    private List<Integer> write(Map<Integer, EavValue> batch) {
+        List<EavValue> values = new ArrayList<>(batch.values());
+        Set<Integer> written = new LinkedHashSet<>(values.size());
+        for (int from = 0; from < values.size(); from += BATCH_CHUNK_SIZE) {
+            List<EavValue> chunk = values.subList(from, Math.min(values.size(), from + BATCH_CHUNK_SIZE));
+            boolean committed = false;
+            Connection conn = db.beginTransaction();
+            try {
+                if (layout.typed) {
+                    writeTyped(conn, chunk, written);
+                } else {
+                    Query update = conn.createQuery("UPDATE " + layout.rows() + " SET value_str = :v1, value_int = :v2, "
+                            + "value_float = :v3, value_time = :v4, value_bool = :v5 WHERE id = :id");
+                    for (EavValue v : chunk) {
+                        update.addParameter("id", v.getId())
+                                .addParameter("v1", v.getValueStr())
+                                .addParameter("v2", v.getValueInt())
+                                .addParameter("v3", v.getValueFloat())
+                                .addParameter("v4", v.getValueTime())
+                                .addParameter("v5", v.getValueBool())
+                                .addToBatch();
+                    }
+                    collect(update.executeBatch().getBatchResult(), chunk, written);
+                }
+                conn.commit();
+                committed = true;
+            } finally {
+                if (!committed) conn.rollback();
+            }
+        }
+        return new ArrayList<>(written);
+    }
+
+    // typed layout: each id is looked up once to find its table, then updated there only.
+    // ids found in no table (deleted) and values holding another type than their table are skipped
+    private void writeTyped(Connection conn, List<EavValue> chunk, Set<Integer> written) {
+        Map<Integer, EavValue> byId = new HashMap<>(chunk.size() * 2);
+        for (EavValue v : chunk) byId.put(v.getId(), v);
+        List<Integer> ids = new ArrayList<>(byId.keySet());
+        for (ValueType vt : ValueType.values()) {
+            List<EavValue> rows = new ArrayList<>();
+            for (Integer id : conn.createQuery("SELECT id FROM " + layout.table(vt) + " WHERE id IN (:ids)")
+                    .addParameter("ids", ids)
+                    .executeScalarList(Integer.class)) {
+                EavValue v = byId.get(id);
+                if (v != null && holdsOnly(v, vt)) rows.add(v);
+            }
+            if (rows.isEmpty()) continue;
+            Query update = conn.createQuery("UPDATE " + layout.table(vt) + " SET " + vt.getColumn() + " = :v WHERE id = :id");
+            for (EavValue v : rows) {
+                update.addParameter("id", v.getId())
+                        .addParameter("v", EavColumnStore.typedValue(v, vt))
+                        .addToBatch();
+            }
+            collect(update.executeBatch().getBatchResult(), rows, written);
+        }
+    }
+
+    // no field set (a cleared value) or only the one of vt
+    private static boolean holdsOnly(EavValue v, ValueType vt) {
+        for (ValueType t : ValueType.values()) {
+            if (t != vt && EavColumnStore.typedValue(v, t) != null) return false;
+        }
+        return true;
+    }
+
+    private static void collect(int[] counts, List<EavValue> rows, Set<Integer> written) {
+        for (int i = 0; i < rows.size(); i++) {
+            // rewriteBatchedStatements reports SUCCESS_NO_INFO (-2) for rewritten batches
+            if (counts == null || i >= counts.length || counts[i] != 0) written.add(rows.get(i).getId());
+        }
+    }
+    // endregion flush
+
+    // region replay
+    // applies what a previous run accepted but never flushed, oldest log first
+    private void replay() {
+        LogFile[] order = logs.clone();
+        Arrays.sort(order, (a, b) -> Long.compare(a.readGeneration(), b.readGeneration()));
+        Map<Integer, EavValue> recovered = new LinkedHashMap<>();
+        for (LogFile f : order) {
+            for (EavValue v : f.readRecords()) {
+                recovered.put(v.getId(), v);
+            }
+        }
+        generation = Math.max(order[0].readGeneration(), order[1].readGeneration());
+        if (!recovered.isEmpty()) {
+            log.info("Replaying {} buffered value updates", recovered.size());
+            List<Integer> written = write(recovered);
+            flushed.addAndGet(written.size());
+            failed.addAndGet(recovered.size() - written.size());
+            notifyFlushed(written);
+        }
+        active = 0;
+        logs[0].reset(++generation);
+        logs[1].reset(0);
+    }
+    // endregion replay
+
+    // region stats
+    public long getAccepted() { return accepted.get(); }
+
+    public long getMerged() { return merged.get(); }
+
+    public long getFlushed() { return flushed.get(); }
+
+    // updates whose value no longer existed (or, replayed from an older log, held another type) when they were flushed
+    public long getFailed() { return failed.get(); }
+    // endregion stats
+
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.warn("Final write-behind flush failed, {} updates left for replay", getPending(), e);
+        }
+        for (LogFile f : logs) f.close();
+    }
+
+    // region log format
+    // record: int length, int crc32 of the body, body = int value id, then the five nullable values
+    private static byte[] encode(EavValue v) {
+        byte[] str = v.getValueStr() == null ? null : v.getValueStr().getBytes(StandardCharsets.UTF_8);
+        String rawTime = v.getRawValueTime();
+        byte[] time = rawTime == null ? null : rawTime.getBytes(StandardCharsets.UTF_8);
+        int length = 4 + bytesLength(str) + 5 + 5 + bytesLength(time) + 1;
+        java.nio.ByteBuffer body = java.nio.ByteBuffer.allocate(length);
+        body.putInt(v.getId());
+        putBytes(body, str);
+        body.put((byte) (v.getValueInt() == null ? 0 : 1)).putInt(v.getValueInt() == null ? 0 : v.getValueInt());
+        body.put((byte) (v.getValueFloat() == null ? 0 : 1)).putFloat(v.getValueFloat() == null ? 0 : v.getValueFloat());
+        putBytes(body, time);
+        body.put((byte) (v.getValueBool() == null ? -1 : v.getValueBool() ? 1 : 0));
+        CRC32 crc = new CRC32();
+        crc.update(body.array());
+        return java.nio.ByteBuffer.allocate(8 + length).putInt(length).putInt((int) crc.getValue()).put(body.array()).array();
+    }
+
+    private static EavValue decode(java.nio.ByteBuffer body) {
+        EavValue v = new EavValue();
+        v.setId(body.getInt());
+        byte[] str = getBytes(body);
+        v.setValueStr(str == null ? null : new String(str, StandardCharsets.UTF_8));
+        boolean hasInt = body.get() == 1;
+        int i = body.getInt();
+        v.setValueInt(hasInt ? i : null);
+        boolean hasFloat = body.get() == 1;
+        float f = body.getFloat();
+        v.setValueFloat(hasFloat ? f : null);
+        byte[] time = getBytes(body);
+        v.setRawValueTime(time == null ? null : new String(time, StandardCharsets.UTF_8));
+        byte b = body.get();
+        v.setValueBool(b < 0 ? null : b == 1);
+        return v;
+    }
+
+    private static int bytesLength(byte[] b) {
+        return 4 + (b == null ? 0 : b.length);
+    }
+
+    private static void putBytes(java.nio.ByteBuffer out, byte[] b) {
+        out.putInt(b == null ? -1 : b.length);
+        if (b != null) out.put(b);
+    }
+
+    private static byte[] getBytes(java.nio.ByteBuffer in) {
+        int n = in.getInt();
+        if (n < 0) return null;
+        byte[] b = new byte[n];
+        in.get(b);
+        return b;
+    }
+
+    // fixed size mapped segment; a zero length marks the end of the records
+    private static class LogFile {
+        private final File file;
+        private final RandomAccessFile raf;
+        private final MappedByteBuffer map;
+
+        LogFile(File file, int bytes) {
+            this.file = file;
+            try {
+                raf = new RandomAccessFile(file, "rw");
+                if (raf.length() < bytes) raf.setLength(bytes);
+                map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Err: could not open write-behind log " + file, e);
+            }
+        }
+
+        boolean hasRecords() {
+            return map.position() > HEADER_BYTES;
+        }
+
+        long readGeneration() {
+            return map.getInt(0) == MAGIC ? map.getLong(4) : -1;
+        }
+
+        List<EavValue> readRecords() {
+            List<EavValue> out = new ArrayList<>();
+            if (map.getInt(0) != MAGIC) return out;
+            int pos = HEADER_BYTES;
+            while (pos + 8 <= map.capacity()) {
+                int length = map.getInt(pos);
+                if (length <= 0 || pos + 8 + length > map.capacity()) break;
+                byte[] body = new byte[length];
+                java.nio.ByteBuffer view = map.duplicate();
+                view.position(pos + 8);
+                view.get(body);
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                // torn write at the tail, everything before it is intact
+                if ((int) crc.getValue() != map.getInt(pos + 4)) break;
+                try {
+                    out.add(decode(java.nio.ByteBuffer.wrap(body)));
+                } catch (BufferUnderflowException e) {
+                    break;
+                }
+                pos += 8 + length;
+            }
+            map.position(pos);
+            return out;
+        }
+
+        // false when the record does not fit
+        boolean append(byte[] record) {
+            // keep room for the terminating zero length
+            if (map.position() + record.length + 4 > map.capacity()) return false;
+            int at = map.position();
+            map.putInt(at + record.length, 0);
+            // length last, so a record is never visible before its body
+            map.position(at + 4);
+            map.put(record, 4, record.length - 4);
+            map.putInt(at, record.length - 8);
+            map.position(at + record.length);
+            return true;
+        }
+
+        void reset(long generation) {
+            map.putInt(HEADER_BYTES, 0);
+            map.putInt(0, MAGIC);
+            map.putLong(4, generation);
+            map.position(HEADER_BYTES);
+        }
+
+        void force() {
+            map.force();
+        }
+
+        void close() {
+            map.force();
+            try {
+                raf.close();
+            } catch (IOException e) {
+                log.warn("Could not close write-behind log {}", file, e);
+            }
+        }
+    }
+    // endregion log format
+}
@@ -2,6 +2,9 @@ package org.database;
 
 import lombok.Getter;
 
+import java.util.HashMap;
+import java.util.Map;
+
 @Getter
 public enum ValueType {
     STR("str"),
@@ -11,17 +14,27 @@ public enum ValueType {
     BOOL("bool");
 
     private final String value;
+    // constant time lookup for fromString, which runs for every mapped row
+    private static final Map<String, ValueType> BY_VALUE = new HashMap<>();
+    static {
+        for (ValueType vt : values()) BY_VALUE.put(vt.value, vt);
+    }
+
     ValueType (String value) {
         this.value = value;
     }
 
+    // typed column in the value table
+    public String getColumn() {
+        return "value_" + value;
+    }
+
     public static ValueType fromString(String s) {
         if (s.isEmpty()) return null;
-        for (ValueType vt : ValueType.values()) {
-            if (vt.value.equals(s)) {
-                return vt;
-            }
+        ValueType vt = BY_VALUE.get(s);
+        if (vt == null) {
+            throw new IllegalArgumentException("Err: Could not map value to ValueType: " + s);
         }
-        throw new IllegalArgumentException("Err: Could not map value to ValueType: " + s);
+        return vt;
     }
 }
@@ -0,0 +1,165 @@
+-- procedures and views for the typed value layout (one table per value type, see EavLayoutMigrator),
+-- applied when a database is switched over. each typed table keeps the column name of the wide table
+-- (eav_values_str.value_str, ...) and the procedures return the same row shape as the wide layout
+
+-- delete old procedures
+drop procedure if exists create_eav_value;
+drop procedure if exists update_eav_value;
+drop procedure if exists delete_eav_entity;
+
+
+-- helper for creating new values
+DELIMITER //
+create procedure create_eav_value(entity_id int unsigned, attr_id int unsigned, v1 varchar(255), v2 int, v3 float, v4 datetime, v5 bool)
+begin
+	-- define variables
+	declare et_id int unsigned;
+	declare allow_mul bool;
+	declare v_type varchar(255);
+
+	-- select values into vars
+	select entity_type_id into et_id from eav_entities ee where ee.id = entity_id limit 1;
+	select value_type, allow_multiple into v_type, allow_mul
+	from eav_attrs ea where ea.id = attr_id and ea.entity_type_id = et_id limit 1;
+
+	-- error checking
+	if et_id is null then
+		signal sqlstate '45000'
+		set message_text = 'ERR: Entity not found';
+	end if;
+	if v_type is null then
+		signal sqlstate '45000'
+		set message_text = 'ERR: Attribute not found';
+	end if;
+
+	-- a value of an attribute only ever lives in the table of the attribute's type
+	if (allow_mul is null or allow_mul = 0) then
+		if (v_type = 'str' and exists (select * from eav_values_str ev where ev.entity_id = entity_id and ev.attr_id = attr_id))
+			or (v_type = 'int' and exists (select * from eav_values_int ev where ev.entity_id = entity_id and ev.attr_id = attr_id))
+			or (v_type = 'float' and exists (select * from eav_values_float ev where ev.entity_id = entity_id and ev.attr_id = attr_id))
+			or (v_type = 'time' and exists (select * from eav_values_time ev where ev.entity_id = entity_id and ev.attr_id = attr_id))
+			or (v_type = 'bool' and exists (select * from eav_values_bool ev where ev.entity_id = entity_id and ev.attr_id = attr_id)) then
+			signal sqlstate '45000'
+			set message_text = 'ERR: Attribute does not allow multiple entries';
+		end if;
+	end if;
+
+	-- insert value into the typed table, return created row to avoid a second round trip
+	if v_type = 'str' then
+		if v1 is null then
+			signal sqlstate '45000'
+			set message_text = 'ERR: String value not provided';
+		end if;
+		insert into eav_values_str (entity_id, attr_id, value_str) values (entity_id, attr_id, v1);
+		select * from eav_values_str where id = last_insert_id();
+	elseif v_type = 'int' then
+		if v2 is null then
+			signal sqlstate '45000'
+			set message_text = 'ERR: int value not provided';
+		end if;
+		insert into eav_values_int (entity_id, attr_id, value_int) values (entity_id, attr_id, v2);
+		select * from eav_values_int where id = last_insert_id();
+	elseif v_type = 'float' then
+		if v3 is null then
+			signal sqlstate '45000'
+			set message_text = 'ERR: float value not provided';
+		end if;
+		insert into eav_values_float (entity_id, attr_id, value_float) values (entity_id, attr_id, v3);
+		select * from eav_values_float where id = last_insert_id();
+	elseif v_type = 'time' then
+		if v4 is null then
+			signal sqlstate '45000'
+			set message_text = 'ERR: time value not provided';
+		end if;
+		insert into eav_values_time (entity_id, attr_id, value_time) values (entity_id, attr_id, v4);
+		select * from eav_values_time where id = last_insert_id();
+	elseif v_type = 'bool' then
+		if v5 is null then
+			signal sqlstate '45000'
+			set message_text = 'ERR: bool value not provided';
+		end if;
+		insert into eav_values_bool (entity_id, attr_id, value_bool) values (entity_id, attr_id, v5);
+		select * from eav_values_bool where id = last_insert_id();
+	end if;
+end //
+DELIMITER ;
+
+
+-- helper for updating values, returns the updated row
+-- only the argument matching the table the value lives in is written
+DELIMITER //
+create procedure update_eav_value(value_id int unsigned, v1 varchar(255), v2 int, v3 float, v4 datetime, v5 bool)
+begin
+	if exists (select * from eav_values_str where id = value_id) then
+		update eav_values_str set value_str = v1 where id = value_id;
+		select * from eav_values_str where id = value_id;
+	elseif exists (select * from eav_values_int where id = value_id) then
+		update eav_values_int set value_int = v2 where id = value_id;
+		select * from eav_values_int where id = value_id;
+	elseif exists (select * from eav_values_float where id = value_id) then
+		update eav_values_float set value_float = v3 where id = value_id;
+		select * from eav_values_float where id = value_id;
+	elseif exists (select * from eav_values_time where id = value_id) then
+		update eav_values_time set value_time = v4 where id = value_id;
+		select * from eav_values_time where id = value_id;
+	elseif exists (select * from eav_values_bool where id = value_id) then
+		update eav_values_bool set value_bool = v5 where id = value_id;
+		select * from eav_values_bool where id = value_id;
+	else
+		signal sqlstate '45000'
+		set message_text = 'ERR: Value not found';
+	end if;
+end //
+DELIMITER ;
+
+
+-- helper for removing entities + all associated values
+DELIMITER //
+create procedure delete_eav_entity(entity_id int unsigned)
+begin
+	-- remove all entity values
+	delete from eav_values_str ev where ev.entity_id = entity_id;
+	delete from eav_values_int ev where ev.entity_id = entity_id;
+	delete from eav_values_float ev where ev.entity_id = entity_id;
+	delete from eav_values_time ev where ev.entity_id = entity_id;
+	delete from eav_values_bool ev where ev.entity_id = entity_id;
+	-- remove entity
+	delete from eav_entities where id = entity_id;
+end //
+DELIMITER ;
+
+
+-- delete old views
+drop view if exists all_possible_eav_data;
+drop view if exists all_existing_eav_data;
+
+
+-- all data that can potentially be filled
+-- only the join for the attribute's type can match, so every attribute still yields one row per value (or one empty row)
+create view all_possible_eav_data as
+select eet.id as entity_type_id, eet.entity_type, ee.id as entity_id, ee.entity,
+ea.id as attr_id, ea.attr, ea.value_type, ea.allow_multiple,
+coalesce(vs.id, vi.id, vf.id, vt.id, vb.id) as value_id,
+coalesce(vs.created_at, vi.created_at, vf.created_at, vt.created_at, vb.created_at) as created_at,
+vs.value_str, vi.value_int, vf.value_float, vt.value_time, vb.value_bool
+from eav_entity_types eet
+left join eav_entities ee on eet.id = ee.entity_type_id
+left join eav_attrs ea on ea.entity_type_id = eet.id
+left join eav_values_str vs on ea.value_type = 'str' and vs.entity_id = ee.id and vs.attr_id = ea.id
+left join eav_values_int vi on ea.value_type = 'int' and vi.entity_id = ee.id and vi.attr_id = ea.id
+left join eav_values_float vf on ea.value_type = 'float' and vf.entity_id = ee.id and vf.attr_id = ea.id
+left join eav_values_time vt on ea.value_type = 'time' and vt.entity_id = ee.id and vt.attr_id = ea.id
+left join eav_values_bool vb on ea.value_type = 'bool' and vb.entity_id = ee.id and vb.attr_id = ea.id
+order by eet.id, ee.id;
+
+
+-- all existing EAV entries
+create view all_existing_eav_data as
+select eet.id as entity_type_id, eet.entity_type, ee.id as entity_id, ee.entity,
+ea.id as attr_id, ea.attr, ea.value_type, ea.allow_multiple,
+ev.id as value_id, ev.created_at, ev.value_str, ev.value_int, ev.value_float, ev.value_time, ev.value_bool
+from eav_values_all ev
+left join eav_entities ee on ev.entity_id = ee.id
+left join eav_entity_types eet on eet.id = ee.entity_type_id
+left join eav_attrs ea on ea.id = ev.attr_id
+order by eet.id, ev.id;
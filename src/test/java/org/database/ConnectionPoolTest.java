@@ -0,0 +1,80 @@
+package org.database;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConnectionPoolTest {
+    private static final int ROUNDS = 200;
+
+    @Test
+    void racingClosesReturnTheConnectionOnce() throws Exception {
+        TestDb db = new TestDb();
+        DbSetup setup = db.setup();
+        setup.poolMaxSize = 2;
+        ConnectionPool pool = new ConnectionPool(db.url, setup, new EavMetrics());
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                Connection conn = pool.getConnection();
+                CountDownLatch go = new CountDownLatch(1);
+                List<Future<?>> closes = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    closes.add(threads.submit(() -> {
+                        go.await();
+                        conn.close();
+                        return null;
+                    }));
+                }
+                go.countDown();
+                for (Future<?> f : closes) f.get();
+                assertTrue(conn.isClosed());
+                assertEquals(0, pool.getActiveConnections(), "round " + round);
+                assertEquals(1, pool.getIdleConnections(), "round " + round);
+            }
+            // one connection handed back once cannot be leased to two borrowers
+            try (Connection a = pool.getConnection(); Connection b = pool.getConnection()) {
+                assertNotSame(a.unwrap(Connection.class), b.unwrap(Connection.class));
+                assertEquals(2, pool.getTotalConnections());
+            }
+        } finally {
+            threads.shutdownNow();
+            pool.close();
+        }
+    }
+
+    @Test
+    void evictionRefillsMinIdle() throws Exception {
+        TestDb db = new TestDb();
+        DbSetup setup = db.setup();
+        setup.poolMaxSize = 3;
+        setup.poolMinIdle = 2;
+        ConnectionPool pool = new ConnectionPool(db.url, setup, new EavMetrics());
+        try {
+            pool.evictIdle();
+            assertEquals(2, pool.getIdleConnections());
+            assertEquals(2, pool.getTotalConnections());
+            // a connection that dies while leased is dropped when it comes back
+            Connection conn = pool.getConnection();
+            conn.unwrap(Connection.class).close();
+            conn.close();
+            assertEquals(1, pool.getIdleConnections());
+            pool.evictIdle();
+            assertEquals(2, pool.getIdleConnections());
+            assertEquals(2, pool.getTotalConnections());
+        } finally {
+            pool.close();
+        }
+        assertEquals(0, pool.getIdleConnections());
+    }
+}
@@ -0,0 +1,25 @@
+package org.database;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DbMigratorTest {
+    @Test
+    void proceduresComeFromThePackagedSetupScript() {
+        List<String> statements = DbMigrator.splitScript(
+                DbMigrator.proceduresSection(DbMigrator.loadScript(DbMigrator.SETUP_SCRIPT)));
+        List<String> created = new ArrayList<>();
+        for (String sql : statements) {
+            assertTrue(sql.startsWith("drop procedure") || sql.startsWith("create procedure"), sql);
+            if (sql.startsWith("create procedure")) created.add(sql.substring(17, sql.indexOf('(')).trim());
+        }
+        assertEquals(5, created.size(), created.toString());
+        assertTrue(created.contains("create_eav_value"));
+        assertTrue(created.contains("update_eav_value"));
+    }
+}
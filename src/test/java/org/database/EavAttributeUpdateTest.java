@@ -0,0 +1,38 @@
+package org.database;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EavAttributeUpdateTest {
+    @Test
+    void updateOnAColdCacheAnswersWithTheStoredRow() throws Exception {
+        TestDb db = new TestDb();
+        int movie = db.entityType("movie");
+        int year = db.attr(movie, "year", ValueType.STR, false);
+        EavInterface eav = new EavInterface(db.setup());
+        try {
+            // only id, value type and allow_multiple, as the controller receives it
+            EavAttribute request = new EavAttribute();
+            request.setId(year);
+            request.setValueType(ValueType.INT);
+            request.setAllowMultiple(true);
+
+            EavAttribute result = eav.updateAttribute(request);
+            assertEquals("year", result.getAttr());
+            assertEquals(movie, result.getEntityTypeId());
+            assertNotNull(result.getCreatedAt());
+            assertEquals(ValueType.INT, result.getValueType());
+            assertTrue(result.isAllowMultiple());
+            assertEquals(ValueType.INT, eav.getAttributeById(year).getValueType());
+
+            request.setId(year + 1000);
+            assertThrows(IllegalArgumentException.class, () -> eav.updateAttribute(request));
+        } finally {
+            eav.close();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.database;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EavDeleteTest {
+    @Test
+    void aChunkWhoseParentDeleteFailsKeepsItsValues() throws Exception {
+        TestDb db = new TestDb();
+        int movie = db.entityType("movie");
+        int title = db.attr(movie, "title", ValueType.STR, false);
+        int kept = db.entity(movie, "kept");
+        db.strValue(kept, title, "Kept");
+        int gone = db.entity(movie, "gone");
+        db.strValue(gone, title, "Gone");
+        // something outside the eav tables still points at the kept entity, so deleting it fails
+        try (Connection conn = db.open(); Statement st = conn.createStatement()) {
+            st.execute("CREATE TABLE blocker (entity_id int unsigned, foreign key (entity_id) references eav_entities(id))");
+            st.execute("INSERT INTO blocker VALUES (" + kept + ")");
+        }
+        EavInterface eav = new EavInterface(db.setup());
+        try {
+            assertThrows(RuntimeException.class, () -> eav.deleteEntity(entity(kept)));
+            assertEquals(1, eav.getValues(entity(kept)).size());
+
+            assertTrue(eav.deleteEntity(entity(gone)));
+            assertEquals(0, eav.getValues(entity(gone)).size());
+        } finally {
+            eav.close();
+        }
+    }
+
+    private static EavEntity entity(int id) {
+        EavEntity e = new EavEntity();
+        e.setId(id);
+        return e;
+    }
+}
@@ -0,0 +1,61 @@
+package org.database;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EavMetricsTest {
+    @Test
+    void everyValueFallsInABucketThatBoundsIt() {
+        int previous = -1;
+        for (long micros = 0; micros < 1 << 16; micros++) {
+            int bucket = EavMetrics.Timer.bucket(micros);
+            // buckets are contiguous and ordered
+            assertTrue(bucket == previous || bucket == previous + 1, "micros " + micros);
+            assertTrue(micros <= EavMetrics.Timer.upperBound(bucket), "micros " + micros);
+            if (bucket > 0) assertTrue(micros > EavMetrics.Timer.upperBound(bucket - 1), "micros " + micros);
+            previous = bucket;
+        }
+    }
+
+    @Test
+    void bucketsAreLogLinear() {
+        // exact below 4us, then four per power of two
+        assertEquals(0, EavMetrics.Timer.bucket(0));
+        assertEquals(3, EavMetrics.Timer.bucket(3));
+        assertEquals(4, EavMetrics.Timer.bucket(4));
+        assertEquals(8, EavMetrics.Timer.bucket(8));
+        assertEquals(8, EavMetrics.Timer.bucket(9));
+        assertEquals(11, EavMetrics.Timer.bucket(15));
+        assertEquals(12, EavMetrics.Timer.bucket(16));
+        assertEquals(1279, EavMetrics.Timer.upperBound(EavMetrics.Timer.bucket(1024)));
+        // the largest possible value still lands in a bucket whose bound holds it
+        int last = EavMetrics.Timer.bucket(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, EavMetrics.Timer.upperBound(last));
+    }
+
+    @Test
+    void percentilesReportTheBucketBoundCappedAtTheMax() {
+        EavMetrics.Timer t = new EavMetrics.Timer();
+        assertEquals(0, t.percentileNanos(0.5));
+        for (int i = 0; i < 98; i++) t.record(1_000_000);
+        t.record(50_000_000);
+        t.record(70_000_000);
+        // 1000us sits in the bucket ending at 1023us
+        assertEquals(1_023_000, t.percentileNanos(0.5));
+        // 50000us sits in the bucket ending at 57343us, below the max
+        assertEquals(57_343_000, t.percentileNanos(0.99));
+        // 70000us sits in the bucket ending at 73727us, capped at the largest value seen
+        assertEquals(70_000_000, t.percentileNanos(1.0));
+    }
+
+    @Test
+    void prometheusEscapesOpLabels() {
+        EavMetrics m = new EavMetrics();
+        m.record("GET /a\"b\\c\nd", 1000);
+        String text = m.toPrometheus("eav");
+        assertTrue(text.contains("eav_seconds_count{op=\"GET /a\\\"b\\\\c\\nd\"} 1\n"), text);
+        for (String line : text.split("\n")) assertTrue(line.startsWith("eav_"), line);
+    }
+}
@@ -0,0 +1,120 @@
+package org.database;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.sql2o.Sql2o;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class EavQueryTest {
+    private static TestDb db;
+    private static EavInterface eav;
+    private static int first;
+    private static int second;
+
+    @BeforeAll
+    static void load() throws Exception {
+        db = new TestDb();
+        int movie = db.entityType("movie");
+        int title = db.attr(movie, "title", ValueType.STR, false);
+        int year = db.attr(movie, "year", ValueType.INT, false);
+        int rating = db.attr(movie, "rating", ValueType.FLOAT, false);
+        int released = db.attr(movie, "released", ValueType.TIME, false);
+        int color = db.attr(movie, "color", ValueType.BOOL, false);
+        first = db.entity(movie, "first");
+        db.value(first, title, ValueType.STR, "Alpha");
+        db.value(first, year, ValueType.INT, 1999);
+        db.value(first, rating, ValueType.FLOAT, 7.5f);
+        db.value(first, released, ValueType.TIME, LocalDateTime.parse("1999-03-31T12:00:00"));
+        db.value(first, color, ValueType.BOOL, true);
+        second = db.entity(movie, "second");
+        db.value(second, title, ValueType.STR, "Beta");
+        db.value(second, year, ValueType.INT, 2010);
+        db.value(second, rating, ValueType.FLOAT, 6.0f);
+        db.value(second, released, ValueType.TIME, LocalDateTime.parse("2010-07-16T12:00:00"));
+        db.value(second, color, ValueType.BOOL, false);
+        eav = new EavInterface(db.setup());
+    }
+
+    @AfterAll
+    static void close() {
+        eav.close();
+    }
+
+    @Test
+    void coerceBindsTheColumnType() {
+        assertEquals("7", EavInterface.coerce(ValueType.STR, 7));
+        assertEquals(1999, EavInterface.coerce(ValueType.INT, "1999"));
+        assertEquals(1999, EavInterface.coerce(ValueType.INT, 1999L));
+        assertEquals(7.5f, EavInterface.coerce(ValueType.FLOAT, 7.5d));
+        assertEquals(true, EavInterface.coerce(ValueType.BOOL, "true"));
+        // both time forms become the same Instant, the type createValue binds
+        Instant t = Instant.parse("1999-03-31T12:00:00Z");
+        assertEquals(t, EavInterface.coerce(ValueType.TIME, "1999-03-31T12:00:00Z"));
+        assertEquals(t, EavInterface.coerce(ValueType.TIME, "1999-03-31T12:00:00"));
+        assertEquals(t, EavInterface.coerce(ValueType.TIME, t));
+
+        assertThrows(IllegalArgumentException.class, () -> EavInterface.coerce(ValueType.INT, "x"));
+        assertThrows(IllegalArgumentException.class, () -> EavInterface.coerce(ValueType.TIME, "yesterday"));
+        assertThrows(IllegalArgumentException.class, () -> EavInterface.coerce(ValueType.STR, null));
+    }
+
+    @Test
+    void everyValueTypeCompilesToAWorkingPredicate() {
+        assertEquals(Collections.singletonList(first), ids(pred("title", EavQuery.Op.EQ, "Alpha")));
+        assertEquals(Collections.singletonList(second), ids(pred("title", EavQuery.Op.LIKE, "B%")));
+        assertEquals(Collections.singletonList(second), ids(pred("year", EavQuery.Op.GT, 2000)));
+        assertEquals(Collections.singletonList(first), ids(pred("year", EavQuery.Op.LTE, "1999")));
+        assertEquals(Collections.singletonList(first), ids(pred("rating", EavQuery.Op.GTE, 7)));
+        assertEquals(Collections.singletonList(second), ids(pred("rating", EavQuery.Op.LT, 7.0)));
+        // a day either side, so the session time zone does not matter
+        assertEquals(Collections.singletonList(second), ids(pred("released", EavQuery.Op.GT, "2000-01-01T00:00:00Z")));
+        assertEquals(Collections.singletonList(first), ids(pred("released", EavQuery.Op.LT, "2000-01-01T00:00:00")));
+        assertEquals(Collections.singletonList(first), ids(pred("color", EavQuery.Op.EQ, true)));
+        assertEquals(Collections.singletonList(second), ids(pred("color", EavQuery.Op.NE, "true")));
+        assertEquals(Arrays.asList(first, second), ids());
+        assertEquals(Collections.emptyList(), ids(pred("year", EavQuery.Op.GT, 2000), pred("color", EavQuery.Op.EQ, true)));
+        assertEquals(Collections.singletonList(second),
+                ids(pred("color", EavQuery.Op.EQ, false), pred("title", EavQuery.Op.LIKE, "%a")));
+    }
+
+    @Test
+    void estimatesCountMatchesOnlyForColumnsInMemory() {
+        EavColumnStore store = new EavColumnStore(new Sql2o(db.url, "sa", "sa"), db.setup(), eav::getAttributeById);
+        int year = eav.getAttributesForType(eav.getEntityTypeByName("movie").getId()).stream()
+                .filter(a -> a.getAttr().equals("year")).findFirst().get().getId();
+        assertEquals(-1, store.estimate(year, EavQuery.Op.GT, 2000));
+        store.column(year);
+        assertEquals(1, store.estimate(year, EavQuery.Op.GT, 2000));
+        assertEquals(2, store.estimate(year, EavQuery.Op.GT, 1900));
+        assertEquals(0, store.estimate(year, EavQuery.Op.EQ, 1900));
+    }
+
+    @Test
+    void likeOnlyAppliesToStrings() {
+        assertThrows(IllegalArgumentException.class, () -> ids(pred("year", EavQuery.Op.LIKE, "19%")));
+    }
+
+    private static List<Integer> ids(EavQuery.Predicate... where) {
+        EavQuery q = new EavQuery();
+        q.setEntityType("movie");
+        q.setWhere(Arrays.asList(where));
+        return eav.queryEntities(q).getEntityIds();
+    }
+
+    private static EavQuery.Predicate pred(String attr, EavQuery.Op op, Object value) {
+        EavQuery.Predicate p = new EavQuery.Predicate();
+        p.setAttr(attr);
+        p.setOp(op);
+        p.setValue(value);
+        return p;
+    }
+}
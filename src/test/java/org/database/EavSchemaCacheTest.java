@@ -0,0 +1,133 @@
+package org.database;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EavSchemaCacheTest {
+    private static final int ROUNDS = 2000;
+
+    @Test
+    void fillAfterInvalidationIsDropped() {
+        EavSchemaCache cache = new EavSchemaCache();
+        long loadedAt = cache.getGeneration();
+        cache.invalidateEntityType(1);
+        cache.putEntityType(type(1, "old"), loadedAt);
+        assertNull(cache.getEntityType(1));
+
+        cache.putEntityType(type(1, "new"), cache.getGeneration());
+        assertEquals("new", cache.getEntityType(1).getEntityType());
+        assertEquals("new", cache.getEntityType("new").getEntityType());
+    }
+
+    @Test
+    void attributeListFillAfterInvalidationIsDropped() {
+        EavSchemaCache cache = new EavSchemaCache();
+        long loadedAt = cache.getGeneration();
+        cache.invalidateAttribute(5, 1);
+        cache.putAttributes(1, Collections.singletonList(attr(5, 1, "old")), loadedAt);
+        assertNull(cache.getAttributes(1));
+        assertNull(cache.getAttribute(5));
+    }
+
+    @Test
+    void lookupsReturnCopies() {
+        EavSchemaCache cache = new EavSchemaCache();
+        EavEntityType put = type(1, "movie");
+        cache.putEntityType(put, cache.getGeneration());
+        put.setEntityType("changed by the caller");
+
+        EavEntityType got = cache.getEntityType(1);
+        assertEquals("movie", got.getEntityType());
+        got.setEntityType("changed again");
+        assertEquals("movie", cache.getEntityType(1).getEntityType());
+        assertNotSame(cache.getEntityType(1), cache.getEntityType(1));
+
+        cache.putAttributes(1, Collections.singletonList(attr(5, 1, "title")), cache.getGeneration());
+        List<EavAttribute> attrs = cache.getAttributes(1);
+        attrs.get(0).setAttr("changed");
+        assertEquals("title", cache.getAttributes(1).get(0).getAttr());
+        assertEquals("title", cache.getAttribute(5).getAttr());
+    }
+
+    // a load reads the "database" and fills while a write changes it and invalidates; whichever way they
+    // interleave, the cache must not end up holding the old row
+    @Test
+    void loadRacingAnInvalidationNeverLeavesAStaleRow() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                EavSchemaCache cache = new EavSchemaCache();
+                AtomicReference<String> db = new AtomicReference<>("v" + round);
+                CountDownLatch go = new CountDownLatch(1);
+                Future<?> load = pool.submit(() -> {
+                    await(go);
+                    long loadedAt = cache.getGeneration();
+                    String name = db.get();
+                    cache.putEntityType(type(1, name), loadedAt);
+                });
+                Future<?> write = pool.submit(() -> {
+                    await(go);
+                    db.set("w" + Thread.currentThread().getId());
+                    cache.invalidateEntityType(1);
+                });
+                go.countDown();
+                load.get(5, TimeUnit.SECONDS);
+                write.get(5, TimeUnit.SECONDS);
+
+                EavEntityType cached = cache.getEntityType(1);
+                int r = round;
+                assertTrue(cached == null || cached.getEntityType().equals(db.get()),
+                        () -> "round " + r + " kept " + cached.getEntityType() + " after the write");
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void aggregatePutAfterInvalidationIsDropped() {
+        EavAggregateCache cache = new EavAggregateCache();
+        String key = EavAggregateCache.key(5, null);
+        long loadedAt = cache.getGeneration();
+        cache.invalidateAttribute(5);
+        cache.put(key, new EavAggregate(), loadedAt);
+        assertNull(cache.get(key));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static EavEntityType type(int id, String name) {
+        EavEntityType t = new EavEntityType();
+        t.setId(id);
+        t.setEntityType(name);
+        return t;
+    }
+
+    private static EavAttribute attr(int id, int typeId, String name) {
+        EavAttribute a = new EavAttribute();
+        a.setId(id);
+        a.setEntityTypeId(typeId);
+        a.setAttr(name);
+        a.setValueType(ValueType.STR);
+        return a;
+    }
+}
@@ -0,0 +1,108 @@
+package org.database;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.sql2o.Sql2o;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class EavSearchIndexTest {
+    private static TestDb db;
+    private static EavInterface eav;
+    private static int blade;
+    private static int alien;
+    private static int title;
+    private static int note;
+
+    @BeforeAll
+    static void load() throws Exception {
+        db = new TestDb();
+        int movie = db.entityType("movie");
+        title = db.attr(movie, "title", ValueType.STR, false);
+        note = db.attr(movie, "note", ValueType.STR, true);
+        int year = db.attr(movie, "year", ValueType.INT, false);
+        blade = db.entity(movie, "blade runner");
+        db.strValue(blade, title, "Blade Runner");
+        db.strValue(blade, note, "rain in the city");
+        db.value(blade, year, ValueType.INT, 1982);
+        alien = db.entity(movie, "alien");
+        db.strValue(alien, title, "Alien");
+        db.strValue(alien, note, "100% in space_ship");
+        eav = new EavInterface(db.setup());
+    }
+
+    @AfterAll
+    static void close() {
+        eav.close();
+    }
+
+    @Test
+    void searchesReadTheDatabaseUntilLoadedAndRankTheSame() {
+        EavSearchIndex off = index();
+        assertThrows(IllegalStateException.class, () -> off.search("blade", 0, 10));
+
+        EavSearchIndex loading = index();
+        loading.beginLoad();
+        EavSearchIndex loaded = index();
+        loaded.load();
+        assertEquals(EavSearchIndex.State.LOADING, loading.getState());
+        assertEquals(EavSearchIndex.State.READY, loaded.getState());
+        for (String q : Arrays.asList("blade", "bl", "r", "in", "ALIEN", "runner", "100%", "e_s", "%", "nothing")) {
+            assertEquals(texts(loaded.search(q, 0, 10)), texts(loading.search(q, 0, 10)), q);
+            assertEquals(texts(loaded.search(q, 1, 1)), texts(loading.search(q, 1, 1)), q);
+        }
+        assertEquals(Arrays.asList("blade runner", "Blade Runner"), texts(loading.search("blade", 0, 10)));
+        // the wildcards are matched as text
+        assertEquals(Collections.singletonList("100% in space_ship"), texts(loading.search("0% in space_", 0, 10)));
+        assertEquals(Collections.emptyList(), texts(loading.search("0_ ", 0, 10)));
+    }
+
+    @Test
+    void writesMadeWhileLoadingAreApplied() {
+        EavSearchIndex index = index();
+        index.beginLoad();
+        index.onEntityWritten(1000, "blade two");
+        index.onEntitiesDeleted(Collections.singletonList(alien));
+        index.load();
+        assertEquals(Arrays.asList("blade two", "blade runner", "Blade Runner"), texts(index.search("blade", 0, 10)));
+        // the entity's values went with it
+        assertEquals(Collections.emptyList(), texts(index.search("alien", 0, 10)));
+        assertEquals(Collections.emptyList(), texts(index.search("space", 0, 10)));
+    }
+
+    @Test
+    void deletesDropTheValuesOfTheirEntitiesAndAttributes() {
+        EavSearchIndex index = index();
+        index.load();
+        int docs = index.getDocs();
+        index.onAttributesDeleted(Collections.singletonList(note));
+        assertEquals(docs - 2, index.getDocs());
+        assertEquals(Collections.emptyList(), texts(index.search("city", 0, 10)));
+
+        index.onAttributeChanged(note, ValueType.STR);
+        assertEquals(docs, index.getDocs());
+        assertEquals(Collections.singletonList("rain in the city"), texts(index.search("city", 0, 10)));
+
+        index.onEntitiesDeleted(Collections.singletonList(blade));
+        assertEquals(docs - 3, index.getDocs());
+        assertEquals(Collections.emptyList(), texts(index.search("runner", 0, 10)));
+        assertEquals(Arrays.asList("alien", "Alien"), texts(index.search("alien", 0, 10)));
+    }
+
+    private static EavSearchIndex index() {
+        return new EavSearchIndex(new Sql2o(db.url, "sa", "sa"), db.setup(), eav::getAttributeById);
+    }
+
+    private static List<String> texts(EavPage<EavSearchIndex.Hit> page) {
+        List<String> out = new ArrayList<>();
+        for (EavSearchIndex.Hit h : page.getRows()) out.add(h.getText());
+        return out;
+    }
+}
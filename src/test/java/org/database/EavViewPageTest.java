@@ -0,0 +1,120 @@
+package org.database;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class EavViewPageTest {
+    private static final int[] LIMITS = {1, 2, 3, 5, 7, 1000};
+
+    private static EavInterface eav;
+
+    @BeforeAll
+    static void load() throws Exception {
+        TestDb db = new TestDb();
+        // types without entities, with and without attributes: the rows without an entity
+        int empty = db.entityType("empty");
+        db.attr(empty, "a", ValueType.STR, false);
+        db.attr(empty, "b", ValueType.INT, false);
+        db.entityType("bare");
+        // entities with values, without values, and with several values for one attribute
+        int movie = db.entityType("movie");
+        int title = db.attr(movie, "title", ValueType.STR, false);
+        int tags = db.attr(movie, "tags", ValueType.STR, true);
+        db.attr(movie, "year", ValueType.INT, false);
+        int first = db.entity(movie, "first");
+        db.strValue(first, title, "First");
+        db.strValue(first, tags, "x");
+        db.strValue(first, tags, "y");
+        db.strValue(first, tags, "z");
+        db.entity(movie, "second");
+        int third = db.entity(movie, "third");
+        db.strValue(third, tags, "w");
+        // entities of a type without attributes
+        int plain = db.entityType("plain");
+        db.entity(plain, "p1");
+        db.entity(plain, "p2");
+        // a type created after the others that has no entities, sorts between types with entities by id
+        int late = db.entityType("late");
+        db.attr(late, "c", ValueType.BOOL, false);
+        eav = new EavInterface(db.setup());
+    }
+
+    @AfterAll
+    static void close() {
+        eav.close();
+    }
+
+    @Test
+    void possibleViewPagesCoverEveryRowInKeysetOrder() {
+        List<String> expected = keys(sorted(eav.getEverything()));
+        for (int limit : LIMITS) {
+            assertEquals(expected, walk(true, limit), "limit " + limit);
+        }
+    }
+
+    @Test
+    void existingViewPagesCoverEveryRowInKeysetOrder() {
+        List<String> expected = keys(sorted(eav.getEveryValue()));
+        assertEquals(5, expected.size());
+        for (int limit : LIMITS) {
+            assertEquals(expected, walk(false, limit), "limit " + limit);
+        }
+    }
+
+    @Test
+    void lastPageHasNoCursor() {
+        int total = eav.getEverything().size();
+        assertNull(eav.getEverything(null, total + 1).getNext());
+    }
+
+    @Test
+    void invalidCursorOrLimitIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> eav.getEverything("1.2.3", 10));
+        assertThrows(IllegalArgumentException.class, () -> eav.getEverything("a.b.c.d", 10));
+        assertThrows(IllegalArgumentException.class, () -> eav.getEverything(null, 0));
+        assertThrows(IllegalArgumentException.class, () -> eav.getEverything(null, EavInterface.MAX_PAGE_SIZE + 1));
+    }
+
+    private static List<String> walk(boolean possible, int limit) {
+        List<EavView> rows = new ArrayList<>();
+        String after = null;
+        // bounded, a cursor that does not advance would loop forever
+        for (int pages = 0; pages < 1000; pages++) {
+            EavPage<EavView> page = possible ? eav.getEverything(after, limit) : eav.getEveryValue(after, limit);
+            rows.addAll(page.getRows());
+            after = page.getNext();
+            if (after == null) return keys(rows);
+        }
+        throw new AssertionError("cursor did not reach the end");
+    }
+
+    // rows without an entity first, then (type, entity, attr, value), nulls as 0
+    private static List<EavView> sorted(List<EavView> rows) {
+        List<EavView> out = new ArrayList<>(rows);
+        out.sort(Comparator.comparing((EavView v) -> v.getEntityId() != null)
+                .thenComparingInt(v -> orZero(v.getEntityTypeId()))
+                .thenComparingInt(v -> orZero(v.getEntityId()))
+                .thenComparingInt(v -> orZero(v.getAttrId()))
+                .thenComparingInt(v -> orZero(v.getValueId())));
+        return out;
+    }
+
+    private static List<String> keys(List<EavView> rows) {
+        List<String> out = new ArrayList<>(rows.size());
+        for (EavView v : rows) out.add(EavCursor.of(v).toString());
+        return out;
+    }
+
+    private static int orZero(Integer i) {
+        return i == null ? 0 : i;
+    }
+}
@@ -0,0 +1,98 @@
+package org.database;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class EavWriteBufferTest {
+    // magic + generation, as in EavWriteBuffer
+    private static final int HEADER_BYTES = 12;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replayAppliesTheRecordsBeforeATruncatedTail() throws Exception {
+        TestDb db = new TestDb();
+        int type = db.entityType("movie");
+        int title = db.attr(type, "title", ValueType.STR, false);
+        int entity = db.entity(type, "first");
+        int[] ids = {db.strValue(entity, title, "a"), db.strValue(entity, title, "b"), db.strValue(entity, title, "c")};
+        Sql2o sql2o = new Sql2o(db.url, "sa", "sa");
+        DbSetup setup = db.setup();
+        setup.writeBehind = true;
+        setup.writeBehindLog = dir.resolve("log").toString();
+        setup.writeBehindLogBytes = 64 * 1024;
+        // nothing flushes on its own while the test runs
+        setup.writeBehindFlushMs = 3_600_000;
+
+        // accepted but never flushed, as if the process died
+        EavWriteBuffer crashed = new EavWriteBuffer(sql2o, setup, new EavMetrics(), written -> { });
+        for (int i = 0; i < ids.length; i++) {
+            crashed.update(value(ids[i], "updated " + i), ValueType.STR);
+        }
+        assertEquals(3, crashed.getPending());
+
+        // cut the log in the middle of the last record
+        List<Integer> offsets = recordOffsets(setup.writeBehindLog + ".0.log");
+        assertEquals(3, offsets.size());
+        try (RandomAccessFile raf = new RandomAccessFile(setup.writeBehindLog + ".0.log", "rw")) {
+            raf.setLength(offsets.get(2) + 10);
+        }
+
+        List<Integer> replayed = new ArrayList<>();
+        EavWriteBuffer restarted = new EavWriteBuffer(sql2o, setup, new EavMetrics(), replayed::addAll);
+        try {
+            assertEquals(Arrays.asList(ids[0], ids[1]), replayed);
+            assertEquals(2, restarted.getFlushed());
+            assertEquals(0, restarted.getPending());
+            assertEquals(Arrays.asList("updated 0", "updated 1", "c"), stored(sql2o, ids));
+        } finally {
+            restarted.close();
+        }
+    }
+
+    private static EavValue value(int id, String s) {
+        EavValue v = new EavValue();
+        v.setId(id);
+        v.setValueStr(s);
+        return v;
+    }
+
+    // record: int length, int crc, body
+    private static List<Integer> recordOffsets(String file) throws Exception {
+        List<Integer> out = new ArrayList<>();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            int pos = HEADER_BYTES;
+            raf.seek(pos);
+            int length;
+            while ((length = raf.readInt()) > 0) {
+                out.add(pos);
+                pos += 8 + length;
+                raf.seek(pos);
+            }
+        }
+        return out;
+    }
+
+    private static List<String> stored(Sql2o sql2o, int[] ids) {
+        List<String> out = new ArrayList<>();
+        try (Connection conn = sql2o.open()) {
+            for (int id : ids) {
+                out.add(conn.createQuery("SELECT value_str FROM eav_values WHERE id = :id")
+                        .addParameter("id", id)
+                        .executeScalar(String.class));
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,97 @@
+package org.database;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// in-memory h2 (MySQL mode) database with the tables and views of setup.sql, rows are inserted with plain sql
+// (the stored procedures are mysql-only)
+class TestDb {
+    private static final AtomicInteger COUNTER = new AtomicInteger(0);
+
+    final String url = "jdbc:h2:mem:eav_test_" + COUNTER.incrementAndGet()
+            + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+
+    TestDb() throws IOException, SQLException {
+        String script = new String(Files.readAllBytes(Paths.get("setup.sql")), StandardCharsets.UTF_8);
+        try (Connection conn = open(); Statement st = conn.createStatement()) {
+            for (String sql : schemaStatements(script)) {
+                if (!sql.trim().isEmpty()) st.execute(sql);
+            }
+        }
+    }
+
+    DbSetup setup() {
+        DbSetup setup = new DbSetup();
+        setup.jdbcUrl = url;
+        setup.user = "sa";
+        setup.password = "sa";
+        setup.runMigrations = false;
+        setup.searchIndex = false;
+        return setup;
+    }
+
+    Connection open() throws SQLException {
+        return DriverManager.getConnection(url, "sa", "sa");
+    }
+
+    int entityType(String name) throws SQLException {
+        return insert("INSERT INTO eav_entity_types (entity_type) VALUES (?)", name);
+    }
+
+    int entity(int typeId, String name) throws SQLException {
+        return insert("INSERT INTO eav_entities (entity, entity_type_id) VALUES (?, ?)", name, typeId);
+    }
+
+    int attr(int typeId, String name, ValueType vt, boolean allowMultiple) throws SQLException {
+        return insert("INSERT INTO eav_attrs (attr, value_type, entity_type_id, allow_multiple) VALUES (?, ?, ?, ?)",
+                name, vt.getValue(), typeId, allowMultiple);
+    }
+
+    int strValue(int entityId, int attrId, String value) throws SQLException {
+        return value(entityId, attrId, ValueType.STR, value);
+    }
+
+    int value(int entityId, int attrId, ValueType vt, Object value) throws SQLException {
+        return insert("INSERT INTO eav_values (entity_id, attr_id, " + vt.getColumn() + ") VALUES (?, ?, ?)",
+                entityId, attrId, value);
+    }
+
+    private int insert(String sql, Object... params) throws SQLException {
+        try (Connection conn = open();
+             PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            for (int i = 0; i < params.length; i++) ps.setObject(i + 1, params[i]);
+            ps.executeUpdate();
+            try (ResultSet rs = ps.getGeneratedKeys()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    // tables + views from setup.sql, skipping the procedures section
+    private static String[] schemaStatements(String script) {
+        int tables = script.indexOf("-- ------- EAV TABLES");
+        int procedures = script.indexOf("-- ------- PROCEDURES");
+        int views = script.indexOf("-- ---------- VIEWS");
+        String sql = script.substring(tables, procedures) + script.substring(views);
+        StringBuilder out = new StringBuilder();
+        for (String line : sql.split("\n")) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("--") || trimmed.startsWith("drop ")) continue;
+            // h2 has no index prefix lengths
+            if (trimmed.startsWith("index ")) line = line.replaceAll("\\((\\d+)\\)", "");
+            int comment = line.indexOf("--");
+            out.append(comment >= 0 ? line.substring(0, comment) : line).append('\n');
+        }
+        return out.toString().split(";");
+    }
+}